@@ -0,0 +1,154 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Properties;
+import java.util.Random;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.io.Text;
+
+/**
+ * A table and a set of JSON records for it, generated from a fixed seed so
+ * that every run measures the same bytes.
+ *
+ * The columns are nested depth objects deep, each level with an unmapped
+ * sibling member, and every record can carry an unmapped padding string, or
+ * padding object of nested members, in front of the columns, so that the
+ * scanner has to skip over it.  Records can
+ * also be written with single quotes, which only the lenient parser reads.
+ */
+class BenchmarkCorpus {
+    /**
+     * Column types, or MIXED for string, bigint, double and boolean in turn
+     */
+    static final String MIXED = "mixed";
+
+    /**
+     * Column types as for MIXED, with half of the bigint, double and boolean
+     * values words that cannot be converted
+     */
+    static final String DIRTY = "dirty";
+    private static final String[] MIXED_TYPES = {
+        Constants.STRING_TYPE_NAME, Constants.BIGINT_TYPE_NAME, Constants.DOUBLE_TYPE_NAME, Constants.BOOLEAN_TYPE_NAME
+    };
+
+    private static final int RECORDS = 256;
+
+    private final Properties tableProperties = new Properties();
+    private final Text[] records = new Text[RECORDS];
+    private final int averageRecordBytes;
+
+    /**
+     * @param width number of columns
+     * @param depth number of keys in the path of each column
+     * @param type Hive type of every column, or MIXED
+     * @param paddingBytes length of the unmapped string in each record
+     */
+    BenchmarkCorpus(int width, int depth, String type, int paddingBytes) {
+        this(width, depth, type, paddingBytes, true);
+    }
+
+    /**
+     * @param strict false to quote keys and strings with single quotes
+     */
+    BenchmarkCorpus(int width, int depth, String type, int paddingBytes, boolean strict) {
+        this(width, depth, type, paddingBytes, strict, false);
+    }
+
+    /**
+     * @param nestedPadding true for a padding object of about paddingBytes,
+     *        rather than a string
+     */
+    BenchmarkCorpus(int width, int depth, String type, int paddingBytes, boolean strict, boolean nestedPadding) {
+        Random random = new Random(width * 31L + depth * 17L + type.hashCode() + paddingBytes);
+
+        StringBuilder names = new StringBuilder();
+        StringBuilder types = new StringBuilder();
+        StringBuilder prefix = new StringBuilder("$");
+        for (int level = 1; level < depth; level++) {
+            prefix.append(".level").append(level);
+        }
+        String[] columnTypes = new String[width];
+        for (int c = 0; c < width; c++) {
+            columnTypes[c] = type.equals(MIXED) || type.equals(DIRTY) ? MIXED_TYPES[c % MIXED_TYPES.length] : type;
+            names.append(c == 0 ? "" : ",").append("c").append(c);
+            types.append(c == 0 ? "" : ":").append(columnTypes[c]);
+            tableProperties.setProperty("c" + c, prefix + ".c" + c);
+        }
+        tableProperties.setProperty(Constants.LIST_COLUMNS, names.toString());
+        tableProperties.setProperty(Constants.LIST_COLUMN_TYPES, types.toString());
+
+        long totalBytes = 0;
+        for (int r = 0; r < RECORDS; r++) {
+            StringBuilder record = new StringBuilder("{\"id\":").append(r);
+            if (paddingBytes > 0 && nestedPadding) {
+                record.append(",\"padding\":{");
+                int paddingStart = record.length();
+                for (int i = 0; record.length() - paddingStart < paddingBytes; i++) {
+                    record.append(i == 0 ? "" : ",").append("\"member").append(i).append("\":[")
+                        .append(random.nextInt(1000)).append(",\"text ").append(Long.toHexString(random.nextLong()))
+                        .append(" \\\"quoted\\\"\",{\"flag\":true,\"score\":").append(random.nextInt(100) / 10.0)
+                        .append("},null]");
+                }
+                record.append('}');
+            } else if (paddingBytes > 0) {
+                record.append(",\"padding\":\"");
+                for (int i = 0; i < paddingBytes; i++) {
+                    record.append((char) ('a' + random.nextInt(26)));
+                }
+                record.append('"');
+            }
+            for (int level = 1; level < depth; level++) {
+                record.append(",\"sibling").append(level).append("\":{\"x\":[1,2,3]},\"level").append(level)
+                    .append("\":{\"first\":").append(level);
+            }
+            for (int c = 0; c < width; c++) {
+                record.append(",\"c").append(c).append("\":");
+                if (type.equals(DIRTY) && !columnTypes[c].equals(Constants.STRING_TYPE_NAME) && random.nextBoolean()) {
+                    record.append("\"n/a\"");
+                } else {
+                    appendValue(record, columnTypes[c], random);
+                }
+            }
+            for (int level = 1; level < depth; level++) {
+                record.append('}');
+            }
+            record.append('}');
+
+            records[r] = new Text(strict ? record.toString() : record.toString().replace('"', '\''));
+            totalBytes += records[r].getLength();
+        }
+        averageRecordBytes = (int) (totalBytes / RECORDS);
+    }
+
+    private static void appendValue(StringBuilder record, String type, Random random) {
+        if (type.equals(Constants.STRING_TYPE_NAME)) {
+            record.append("\"value-").append(Long.toHexString(random.nextLong())).append('"');
+        } else if (type.equals(Constants.BIGINT_TYPE_NAME) || type.equals(Constants.INT_TYPE_NAME)) {
+            record.append(random.nextInt() >> random.nextInt(31));
+        } else if (type.equals(Constants.DOUBLE_TYPE_NAME) || type.equals(Constants.FLOAT_TYPE_NAME)) {
+            record.append(Math.round(random.nextDouble() * 1e7) / 1e3);
+        } else if (type.equals(Constants.BOOLEAN_TYPE_NAME)) {
+            record.append(random.nextBoolean());
+        } else {
+            throw new IllegalArgumentException("No values for type " + type);
+        }
+    }
+
+    Properties getTableProperties() {
+        return tableProperties;
+    }
+
+    /**
+     * @return all the records, in a Text each
+     */
+    Text[] getRecords() {
+        return records;
+    }
+
+    Text getRecord(int index) {
+        return records[index & (RECORDS - 1)];
+    }
+
+    int getAverageRecordBytes() {
+        return averageRecordBytes;
+    }
+}
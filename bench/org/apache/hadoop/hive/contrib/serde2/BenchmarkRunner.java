@@ -0,0 +1,163 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+
+/**
+ * A minimal microbenchmark harness.  Each operation is warmed up, then timed
+ * over several measurement rounds, and the bytes allocated by the measuring
+ * thread are reported per operation.  Allocation is read from the
+ * com.sun.management.ThreadMXBean extension when the JVM has it.  Only the
+ * benchmarks whose names contain -Dbench.filter, if it is set, are run.
+ */
+class BenchmarkRunner {
+    /**
+     * A benchmarked operation
+     */
+    interface Operation {
+        /**
+         * Runs the operation once.  The result is consumed so that the JIT
+         * cannot remove the work.
+         */
+        long run() throws Exception;
+    }
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private static final Method ALLOCATED_BYTES = allocatedBytesMethod();
+
+    private final int warmupMillis;
+    private final int measureMillis;
+    private final int rounds;
+    private final String filter;
+
+    /**
+     * Consumed results, so that no operation is dead code
+     */
+    private long blackhole;
+
+    BenchmarkRunner() {
+        this(Integer.getInteger("bench.warmup.ms", 1000), Integer.getInteger("bench.measure.ms", 1000),
+            Integer.getInteger("bench.rounds", 3), System.getProperty("bench.filter", ""));
+    }
+
+    BenchmarkRunner(int warmupMillis, int measureMillis, int rounds, String filter) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+        this.rounds = rounds;
+        this.filter = filter;
+    }
+
+    /**
+     * Whether a benchmark is run, so that its setup can be skipped if not
+     */
+    boolean isSelected(String name) {
+        return name.contains(filter);
+    }
+
+    /**
+     * Measures an operation and prints its throughput and allocation rate.
+     *
+     * @param bytesPerOperation input bytes handled by one operation, or 0
+     * @return the best throughput measured, in operations per second, or 0 if
+     *         the benchmark is not selected
+     */
+    double measure(String name, long bytesPerOperation, Operation operation) throws Exception {
+        return measure(name, bytesPerOperation, 1, operation);
+    }
+
+    /**
+     * Measures an operation which handles several items at once, such as a
+     * batch of rows, and reports its throughput and allocation per item.
+     *
+     * @param bytesPerItem input bytes of one item, or 0
+     * @return the best throughput measured, in items per second, or 0 if the
+     *         benchmark is not selected
+     */
+    double measure(String name, long bytesPerItem, int itemsPerOperation, Operation operation) throws Exception {
+        if (!isSelected(name)) {
+            return 0;
+        }
+        runFor(operation, warmupMillis);
+
+        double bestOpsPerSecond = 0;
+        double allocatedPerOperation = Double.NaN;
+        for (int round = 0; round < rounds; round++) {
+            long allocatedBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long operations = runFor(operation, measureMillis) * itemsPerOperation;
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes();
+
+            bestOpsPerSecond = Math.max(bestOpsPerSecond, operations * 1e9 / elapsed);
+            if (allocatedBefore >= 0) {
+                double allocated = (double) (allocatedAfter - allocatedBefore) / operations;
+                allocatedPerOperation = Double.isNaN(allocatedPerOperation)
+                    ? allocated : Math.min(allocatedPerOperation, allocated);
+            }
+        }
+
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%-60s %14.0f ops/s %10.1f ns/op", name, bestOpsPerSecond, 1e9 / bestOpsPerSecond));
+        line.append(Double.isNaN(allocatedPerOperation) ? "        n/a B/op"
+            : String.format(" %10.1f B/op", allocatedPerOperation));
+        if (bytesPerItem > 0) {
+            line.append(String.format(" %8.1f MB/s", bestOpsPerSecond * bytesPerItem / (1024 * 1024)));
+        }
+        System.out.println(line);
+        return bestOpsPerSecond;
+    }
+
+    /**
+     * Runs an operation repeatedly for about the given time
+     *
+     * @return the number of operations run
+     */
+    private long runFor(Operation operation, int millis) throws Exception {
+        long deadline = System.nanoTime() + millis * 1000000L;
+        long operations = 0;
+        long result = 0;
+        do {
+            // Check the clock only every so often
+            for (int i = 0; i < 64; i++) {
+                result += operation.run();
+            }
+            operations += 64;
+        } while (System.nanoTime() < deadline);
+        blackhole += result;
+        return operations;
+    }
+
+    long getBlackhole() {
+        return blackhole;
+    }
+
+    /**
+     * @return the bytes allocated so far by the current thread, or -1 if unknown
+     */
+    static long allocatedBytes() {
+        if (ALLOCATED_BYTES == null) {
+            return -1;
+        }
+        try {
+            return (Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static Method allocatedBytesMethod() {
+        try {
+            Class<?> extension = Class.forName("com.sun.management.ThreadMXBean");
+            if (!extension.isInstance(THREADS)) {
+                return null;
+            }
+            Method method = extension.getMethod("getThreadAllocatedBytes", long.class);
+            method.invoke(THREADS, Thread.currentThread().getId());
+            return method;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.LineRecordReader;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * The benchmark suite for the hot paths of the JsonSerDe: initialize, and
+ * deserialize followed by reading every projected column of the row.
+ *
+ * The deserialize benchmarks vary one dimension at a time from a base table
+ * of 16 mixed columns one level deep, all read, without padding: the width of
+ * the row, the depth of the paths, the column types, values that cannot be
+ * converted, the fraction of the columns read by the query, the size of the
+ * record and whether it is strict JSON.  Each of the cases for the width, the
+ * column types and unconvertible values is also run a batch of rows at a
+ * time, into column vectors.  The read benchmarks read the lines of an
+ * in-memory file through the JsonRecordReader, with the lines parsed by a
+ * pool of threads or, with no threads, by the SerDe itself; they only gain
+ * when there are idle cores.  The read benchmarks on slow storage delay every
+ * read of the file as a remote disk would, with and without reading ahead on
+ * a background thread.  The shared benchmarks run one SerDe in the
+ * thread safe mode on several threads at once, and report the rows of all
+ * threads per second, which only scale with as many cores as threads.  The
+ * backend benchmarks compare the parser backends on a few of the corpora.  Each
+ * line reports rows per second, the bytes allocated per row and the input
+ * rate.  Run a subset with -Dbench.filter=text.
+ */
+public class DeserializeBenchmark {
+    private final BenchmarkRunner runner = new BenchmarkRunner();
+
+    public static void main(String[] args) throws Exception {
+        DeserializeBenchmark benchmark = new DeserializeBenchmark();
+
+        for (int width : new int[] { 16, 256 }) {
+            benchmark.initialize("initialize: width " + width, new BenchmarkCorpus(width, 1, BenchmarkCorpus.MIXED, 0));
+        }
+
+        for (int width : new int[] { 4, 10, 16, 64, 100, 256, 1000 }) {
+            BenchmarkCorpus corpus = new BenchmarkCorpus(width, 1, BenchmarkCorpus.MIXED, 0);
+            benchmark.deserialize("deserialize: width " + width, corpus, 1.0);
+            benchmark.deserializeBatch("deserialize batch: width " + width, corpus);
+        }
+        for (int depth : new int[] { 1, 3, 6 }) {
+            benchmark.deserialize("deserialize: depth " + depth,
+                new BenchmarkCorpus(16, depth, BenchmarkCorpus.MIXED, 0), 1.0);
+        }
+        for (String type : new String[] { Constants.STRING_TYPE_NAME, Constants.BIGINT_TYPE_NAME,
+            Constants.DOUBLE_TYPE_NAME, Constants.BOOLEAN_TYPE_NAME }) {
+            BenchmarkCorpus corpus = new BenchmarkCorpus(16, 1, type, 0);
+            benchmark.deserialize("deserialize: type " + type, corpus, 1.0);
+            benchmark.deserializeBatch("deserialize batch: type " + type, corpus);
+        }
+        BenchmarkCorpus dirty = new BenchmarkCorpus(16, 1, BenchmarkCorpus.DIRTY, 0);
+        benchmark.deserialize("deserialize: unconvertible values", dirty, 1.0);
+        benchmark.deserializeBatch("deserialize batch: unconvertible values", dirty);
+        BenchmarkCorpus wide = new BenchmarkCorpus(64, 1, BenchmarkCorpus.MIXED, 0);
+        for (double fraction : new double[] { 1.0, 0.5, 0.1, 0.0 }) {
+            benchmark.deserialize("deserialize: projected " + (fraction == 0 ? "1 of 64" : fraction * 100 + "%"),
+                wide, fraction);
+        }
+        for (int paddingBytes : new int[] { 0, 1024, 16384 }) {
+            benchmark.deserialize("deserialize: record padded by " + paddingBytes + " B",
+                new BenchmarkCorpus(16, 1, BenchmarkCorpus.MIXED, paddingBytes), 1.0);
+        }
+        for (int paddingBytes : new int[] { 1024, 16384 }) {
+            benchmark.deserialize("deserialize: record padded by " + paddingBytes + " B of objects",
+                new BenchmarkCorpus(16, 1, BenchmarkCorpus.MIXED, paddingBytes, true, true), 1.0);
+        }
+        for (int depth : new int[] { 1, 3 }) {
+            benchmark.deserialize("deserialize: single quoted, depth " + depth,
+                new BenchmarkCorpus(16, depth, BenchmarkCorpus.MIXED, 0, false), 1.0);
+        }
+        BenchmarkCorpus mixed = new BenchmarkCorpus(16, 1, BenchmarkCorpus.MIXED, 0);
+        BenchmarkCorpus padded = new BenchmarkCorpus(16, 1, BenchmarkCorpus.MIXED, 16384, true, true);
+        BenchmarkCorpus lenient = new BenchmarkCorpus(16, 3, BenchmarkCorpus.MIXED, 0, false);
+        for (JsonRecordParser.Backend backend : JsonRecordParser.Backend.values()) {
+            String prefix = "backend " + backend.name().toLowerCase() + ": ";
+            benchmark.deserialize(prefix + "width 16", mixed, 1.0, backend);
+            benchmark.deserialize(prefix + "projected 1 of 64", wide, 0.0, backend);
+            benchmark.deserialize(prefix + "padded by 16384 B of objects", padded, 1.0, backend);
+            benchmark.deserialize(prefix + "single quoted, depth 3", lenient, 1.0, backend);
+            benchmark.deserialize(prefix + "unconvertible values", dirty, 1.0, backend);
+        }
+        for (int threads : new int[] { 0, 1, 2, 4 }) {
+            benchmark.read("read: width 16, " + threads + " threads", mixed, threads, false, 0);
+        }
+        for (boolean readAhead : new boolean[] { false, true }) {
+            benchmark.read("read: width 16, storage at 200 MB/s, " + (readAhead ? "" : "no ") + "read ahead", mixed,
+                0, readAhead, 5);
+        }
+        for (int threads : new int[] { 1, 2, 4, 8, 16, 32 }) {
+            benchmark.shared("shared: width 16, " + threads + " threads", mixed, threads);
+        }
+    }
+
+    private void initialize(String name, final BenchmarkCorpus corpus) throws Exception {
+        runner.measure(name, 0, new BenchmarkRunner.Operation() {
+            private final Configuration configuration = new Configuration();
+
+            public long run() throws Exception {
+                JsonSerDe serde = new JsonSerDe();
+                serde.initialize(configuration, corpus.getTableProperties());
+                return serde.hashCode();
+            }
+        });
+    }
+
+    /**
+     * Measures deserializing rows and reading their projected columns
+     *
+     * @param fraction of the columns read by the query, or 0 for a single column
+     */
+    private void deserialize(String name, final BenchmarkCorpus corpus, double fraction) throws Exception {
+        deserialize(name, corpus, fraction, JsonRecordParser.Backend.STREAMING);
+    }
+
+    /**
+     * Measures deserializing rows with a parser backend and reading their
+     * projected columns
+     */
+    private void deserialize(String name, final BenchmarkCorpus corpus, double fraction,
+        JsonRecordParser.Backend backend) throws Exception {
+        if (!runner.isSelected(name)) {
+            return;
+        }
+
+        final JsonSerDe serde = new JsonSerDe();
+        Configuration configuration = new Configuration();
+        int width = corpus.getTableProperties().getProperty(Constants.LIST_COLUMNS).split(",").length;
+        final List<Integer> projected = new ArrayList<Integer>();
+        int count = Math.max(1, (int) Math.round(width * fraction));
+        for (int i = 0; i < count; i++) {
+            // Spread over the row, so that the scanner has to go past unread columns
+            projected.add(i * width / count);
+        }
+        if (count < width) {
+            configuration.setBoolean(JsonSerDe.READ_ALL_COLUMNS, false);
+            ColumnProjectionUtils.setReadColumnIDs(configuration, new ArrayList<Integer>(projected));
+        }
+        Properties properties = new Properties();
+        properties.putAll(corpus.getTableProperties());
+        properties.setProperty(JsonRecordParser.BACKEND, backend.name());
+        serde.initialize(configuration, properties);
+
+        final StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        List<? extends StructField> allFields = inspector.getAllStructFieldRefs();
+        final StructField[] fields = new StructField[count];
+        for (int i = 0; i < count; i++) {
+            fields[i] = allFields.get(projected.get(i));
+        }
+
+        runner.measure(name, corpus.getAverageRecordBytes(), new BenchmarkRunner.Operation() {
+            private int record;
+
+            public long run() throws Exception {
+                Object row = serde.deserialize(corpus.getRecord(record++));
+                long found = 0;
+                for (StructField field : fields) {
+                    // Reading a field converts it
+                    found += inspector.getStructFieldData(row, field) == null ? 0 : 1;
+                }
+                return found;
+            }
+        });
+    }
+
+    /**
+     * Measures deserializing all the records of the corpus as one batch
+     */
+    private void deserializeBatch(String name, BenchmarkCorpus corpus) throws Exception {
+        if (!runner.isSelected(name)) {
+            return;
+        }
+
+        final JsonSerDe serde = new JsonSerDe();
+        serde.initialize(new Configuration(), corpus.getTableProperties());
+        final Text[] records = corpus.getRecords();
+        final JsonColumnBatch batch = serde.createColumnBatch(records.length);
+
+        runner.measure(name, corpus.getAverageRecordBytes(), records.length, new BenchmarkRunner.Operation() {
+            public long run() throws Exception {
+                serde.deserialize(records, 0, records.length, batch);
+                return batch.size + (batch.columns[0].noNulls ? 0 : 1);
+            }
+        });
+    }
+
+    /**
+     * Measures reading the lines of a file holding the corpus a few times, and
+     * deserializing them and reading every column
+     *
+     * @param threads parsing the lines, or 0 to read them as plain lines
+     * @param readAhead whether to read the lines on a background thread
+     * @param nanosPerByte the time every read of the file waits for, per byte
+     */
+    private void read(String name, BenchmarkCorpus corpus, final int threads, final boolean readAhead,
+        final long nanosPerByte) throws Exception {
+        if (!runner.isSelected(name)) {
+            return;
+        }
+
+        final JsonSerDe serde = new JsonSerDe();
+        serde.initialize(new Configuration(), corpus.getTableProperties());
+        final StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        final List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+
+        final int rows = 16 * corpus.getRecords().length;
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        for (int r = 0; r < rows; r++) {
+            Text record = corpus.getRecord(r);
+            file.write(record.getBytes(), 0, record.getLength());
+            file.write('\n');
+        }
+        final byte[] bytes = file.toByteArray();
+
+        runner.measure(name, corpus.getAverageRecordBytes(), rows, new BenchmarkRunner.Operation() {
+            public long run() throws Exception {
+                ByteArrayInputStream file = new ByteArrayInputStream(bytes) {
+                    @Override
+                    public synchronized int read(byte[] buffer, int offset, int length) {
+                        int read = super.read(buffer, offset, length);
+                        if (read > 0 && nanosPerByte > 0) {
+                            LockSupport.parkNanos(read * nanosPerByte);
+                        }
+                        return read;
+                    }
+                };
+                RecordReader<LongWritable, Text> reader = new LineRecordReader(file, 0, bytes.length,
+                    Integer.MAX_VALUE);
+                if (readAhead) {
+                    reader = new JsonReadAheadRecordReader(reader, JsonInputFormat.DEFAULT_READ_AHEAD_BYTES);
+                }
+                if (threads > 0) {
+                    reader = new JsonRecordReader(reader, threads, JsonInputFormat.DEFAULT_BATCH_SIZE);
+                }
+                LongWritable key = reader.createKey();
+                Text value = reader.createValue();
+                long found = 0;
+                while (reader.next(key, value)) {
+                    Object row = serde.deserialize(value);
+                    for (StructField field : fields) {
+                        found += inspector.getStructFieldData(row, field) == null ? 0 : 1;
+                    }
+                }
+                reader.close();
+                return found;
+            }
+        });
+    }
+
+    /**
+     * Measures one SerDe in the thread safe mode shared by several threads,
+     * each deserializing all the records of the corpus and reading every
+     * column.  Only the allocation of the measuring thread is counted, which
+     * is that of handing out the work.
+     */
+    private void shared(String name, final BenchmarkCorpus corpus, int threads) throws Exception {
+        if (!runner.isSelected(name)) {
+            return;
+        }
+
+        final JsonSerDe serde = new JsonSerDe();
+        Properties properties = new Properties();
+        properties.putAll(corpus.getTableProperties());
+        properties.setProperty(JsonSerDe.THREAD_SAFE, "true");
+        serde.initialize(new Configuration(), properties);
+        final StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        final List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+        final Text[] records = corpus.getRecords();
+
+        Callable<Long> task = new Callable<Long>() {
+            public Long call() throws Exception {
+                long found = 0;
+                for (Text record : records) {
+                    Object row = serde.deserialize(record);
+                    for (StructField field : fields) {
+                        found += inspector.getStructFieldData(row, field) == null ? 0 : 1;
+                    }
+                }
+                return found;
+            }
+        };
+        final List<Callable<Long>> tasks = Collections.nCopies(threads, task);
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            runner.measure(name, corpus.getAverageRecordBytes(), threads * records.length,
+                new BenchmarkRunner.Operation() {
+                    public long run() throws Exception {
+                        long found = 0;
+                        for (Future<Long> result : pool.invokeAll(tasks)) {
+                            found += result.get();
+                        }
+                        return found;
+                    }
+                });
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
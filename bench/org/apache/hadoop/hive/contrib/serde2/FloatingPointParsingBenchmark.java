@@ -0,0 +1,81 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Random;
+
+/**
+ * Compares parsing double and float cells from their bytes with the old
+ * String-then-Double.parseDouble path, over the shortest representations of
+ * random values and over typical metric values with a few decimals.
+ */
+public class FloatingPointParsingBenchmark {
+    private static final int CELLS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        Random random = new Random(42);
+
+        StringBuilder shortest = new StringBuilder();
+        StringBuilder metrics = new StringBuilder();
+        final int[][] starts = new int[2][CELLS];
+        final int[][] ends = new int[2][CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            starts[0][i] = shortest.length();
+            shortest.append(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+            ends[0][i] = shortest.length();
+            shortest.append(',');
+
+            starts[1][i] = metrics.length();
+            metrics.append(String.format("%.3f", random.nextDouble() * 10000));
+            ends[1][i] = metrics.length();
+            metrics.append(',');
+        }
+        final byte[][] bytes = new byte[][] {
+            shortest.toString().getBytes(JsonPathTrie.UTF8), metrics.toString().getBytes(JsonPathTrie.UTF8)
+        };
+        String[] corpora = { "random doubles", "metrics" };
+
+        for (int c = 0; c < corpora.length; c++) {
+            final byte[] corpus = bytes[c];
+            final int[] cellStarts = starts[c];
+            final int[] cellEnds = ends[c];
+
+            runner.measure(corpora[c] + ": new String + Double.parseDouble", 0, new BenchmarkRunner.Operation() {
+                private int cell;
+
+                public long run() {
+                    int i = cell++ & (CELLS - 1);
+                    return Double.doubleToRawLongBits(Double.parseDouble(
+                        new String(corpus, cellStarts[i], cellEnds[i] - cellStarts[i], JsonPathTrie.UTF8)));
+                }
+            });
+
+            runner.measure(corpora[c] + ": JsonNumberParser.parseDouble", 0, new BenchmarkRunner.Operation() {
+                private int cell;
+
+                public long run() {
+                    int i = cell++ & (CELLS - 1);
+                    return Double.doubleToRawLongBits(JsonNumberParser.parseDouble(corpus, cellStarts[i], cellEnds[i]));
+                }
+            });
+
+            runner.measure(corpora[c] + ": new String + Float.parseFloat", 0, new BenchmarkRunner.Operation() {
+                private int cell;
+
+                public long run() {
+                    int i = cell++ & (CELLS - 1);
+                    return Float.floatToRawIntBits(Float.parseFloat(
+                        new String(corpus, cellStarts[i], cellEnds[i] - cellStarts[i], JsonPathTrie.UTF8)));
+                }
+            });
+
+            runner.measure(corpora[c] + ": JsonNumberParser.parseFloat", 0, new BenchmarkRunner.Operation() {
+                private int cell;
+
+                public long run() {
+                    int i = cell++ & (CELLS - 1);
+                    return Float.floatToRawIntBits(JsonNumberParser.parseFloat(corpus, cellStarts[i], cellEnds[i]));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Properties;
+import java.util.Random;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Compares parsing integer cells from their digit bytes with the old
+ * String-then-Long.valueOf path, and measures bigint columns end to end.  The
+ * direct paths should show no allocation per cell.
+ */
+public class IntegerParsingBenchmark {
+    private static final int CELLS = 1024;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+
+        // Integers of mixed widths, some of them quoted as strings
+        Random random = new Random(42);
+        StringBuilder cells = new StringBuilder();
+        final int[] starts = new int[CELLS];
+        final int[] ends = new int[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            boolean quoted = i % 4 == 0;
+            cells.append(quoted ? "\"" : "");
+            starts[i] = cells.length();
+            cells.append(random.nextLong() >> random.nextInt(63));
+            ends[i] = cells.length();
+            cells.append(quoted ? "\"," : ",");
+        }
+        final byte[] bytes = cells.toString().getBytes(JsonPathTrie.UTF8);
+
+        runner.measure("integer cell: new String + Long.valueOf", 0, new BenchmarkRunner.Operation() {
+            private int cell;
+
+            public long run() {
+                int i = cell++ & (CELLS - 1);
+                return Long.valueOf(new String(bytes, starts[i], ends[i] - starts[i], JsonPathTrie.UTF8));
+            }
+        });
+
+        runner.measure("integer cell: JsonNumberParser.parseLong", 0, new BenchmarkRunner.Operation() {
+            private int cell;
+
+            public long run() {
+                int i = cell++ & (CELLS - 1);
+                return JsonNumberParser.parseLong(bytes, starts[i], ends[i]);
+            }
+        });
+
+        // A row of 16 bigint columns, half of them quoted, read through the ObjectInspector
+        int columns = 16;
+        StringBuilder names = new StringBuilder();
+        StringBuilder types = new StringBuilder();
+        StringBuilder record = new StringBuilder("{");
+        Properties properties = new Properties();
+        for (int c = 0; c < columns; c++) {
+            String name = "c" + c;
+            names.append(c == 0 ? "" : ",").append(name);
+            types.append(c == 0 ? "" : ":").append("bigint");
+            properties.setProperty(name, "$." + name);
+            String value = Long.toString(random.nextLong() >> random.nextInt(63));
+            record.append(c == 0 ? "" : ",").append('"').append(name).append("\":")
+                .append(c % 2 == 0 ? value : "\"" + value + "\"");
+        }
+        record.append("}");
+        properties.setProperty(Constants.LIST_COLUMNS, names.toString());
+        properties.setProperty(Constants.LIST_COLUMN_TYPES, types.toString());
+
+        final JsonSerDe serde = new JsonSerDe();
+        serde.initialize(new Configuration(), properties);
+        final Text text = new Text(record.toString());
+        final StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        final StructField[] fields = inspector.getAllStructFieldRefs().toArray(new StructField[columns]);
+        final LongObjectInspector longInspector = (LongObjectInspector) fields[0].getFieldObjectInspector();
+
+        runner.measure("row of " + columns + " bigint columns: deserialize + read all", text.getLength(),
+            new BenchmarkRunner.Operation() {
+                public long run() throws Exception {
+                    Object row = serde.deserialize(text);
+                    long sum = 0;
+                    for (StructField field : fields) {
+                        sum += longInspector.get(inspector.getStructFieldData(row, field));
+                    }
+                    return sum;
+                }
+            });
+    }
+}
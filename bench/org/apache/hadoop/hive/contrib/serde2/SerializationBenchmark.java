@@ -0,0 +1,161 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import net.minidev.json.JSONObject;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.lazy.LazyUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Compares serializing rows of writables with the JsonSerDe against the
+ * delimited text of Hive's LazySimpleSerDe, and against building a json-smart
+ * JSONObject for each row.
+ *
+ * LazySimpleSerDe itself needs hive-common, so its per-row work is reproduced
+ * here: each field is written by LazyUtils.writePrimitiveUTF8, as it does,
+ * into a reused buffer, separated by ^A.
+ */
+public class SerializationBenchmark {
+    private static final int ROWS = 256;
+    private static final int COLUMNS = 16;
+
+    public static void main(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner();
+        Random random = new Random(42);
+
+        // Strings, bigints, doubles and booleans in turn
+        StringBuilder names = new StringBuilder();
+        StringBuilder types = new StringBuilder();
+        List<String> fieldNames = new ArrayList<String>();
+        List<ObjectInspector> fieldInspectors = new ArrayList<ObjectInspector>();
+        Properties properties = new Properties();
+        for (int c = 0; c < COLUMNS; c++) {
+            String name = "c" + c;
+            names.append(c == 0 ? "" : ",").append(name);
+            properties.setProperty(name, "$." + name);
+            fieldNames.add("_col" + c);
+            switch (c % 4) {
+                case 0:
+                    types.append(c == 0 ? "" : ":").append("string");
+                    fieldInspectors.add(PrimitiveObjectInspectorFactory.writableStringObjectInspector);
+                    break;
+                case 1:
+                    types.append(":bigint");
+                    fieldInspectors.add(PrimitiveObjectInspectorFactory.writableLongObjectInspector);
+                    break;
+                case 2:
+                    types.append(":double");
+                    fieldInspectors.add(PrimitiveObjectInspectorFactory.writableDoubleObjectInspector);
+                    break;
+                default:
+                    types.append(":boolean");
+                    fieldInspectors.add(PrimitiveObjectInspectorFactory.writableBooleanObjectInspector);
+                    break;
+            }
+        }
+        properties.setProperty(Constants.LIST_COLUMNS, names.toString());
+        properties.setProperty(Constants.LIST_COLUMN_TYPES, types.toString());
+        final StructObjectInspector rowInspector =
+            ObjectInspectorFactory.getStandardStructObjectInspector(fieldNames, fieldInspectors);
+
+        final List<List<Object>> rows = new ArrayList<List<Object>>();
+        for (int r = 0; r < ROWS; r++) {
+            List<Object> row = new ArrayList<Object>();
+            for (int c = 0; c < COLUMNS; c++) {
+                switch (c % 4) {
+                    case 0:
+                        row.add(new Text("value-" + Long.toHexString(random.nextLong())));
+                        break;
+                    case 1:
+                        row.add(new LongWritable(random.nextLong() >> random.nextInt(63)));
+                        break;
+                    case 2:
+                        row.add(new DoubleWritable(Math.round(random.nextDouble() * 1e6) / 1e3));
+                        break;
+                    default:
+                        row.add(new BooleanWritable(random.nextBoolean()));
+                        break;
+                }
+            }
+            rows.add(row);
+        }
+
+        final List<? extends StructField> fields = rowInspector.getAllStructFieldRefs();
+        final ResettableOutputStream delimited = new ResettableOutputStream();
+        final Text delimitedText = new Text();
+        runner.measure("row of " + COLUMNS + " columns: delimited text, as LazySimpleSerDe", 0,
+            new BenchmarkRunner.Operation() {
+                private final boolean[] needsEscape = new boolean[128];
+                private int row;
+
+                public long run() throws Exception {
+                    List<Object> data = rows.get(row++ & (ROWS - 1));
+                    delimited.reset();
+                    for (int c = 0; c < COLUMNS; c++) {
+                        if (c > 0) {
+                            delimited.write(1);
+                        }
+                        StructField field = fields.get(c);
+                        LazyUtils.writePrimitiveUTF8(delimited, rowInspector.getStructFieldData(data, field),
+                            (PrimitiveObjectInspector) field.getFieldObjectInspector(), false, (byte) 0, needsEscape);
+                    }
+                    delimitedText.set(delimited.getBuffer(), 0, delimited.size());
+                    return delimitedText.getLength();
+                }
+            });
+
+        final Text domText = new Text();
+        runner.measure("row of " + COLUMNS + " columns: json-smart JSONObject", 0, new BenchmarkRunner.Operation() {
+            private int row;
+
+            public long run() throws Exception {
+                List<Object> data = rows.get(row++ & (ROWS - 1));
+                JSONObject object = new JSONObject();
+                for (int c = 0; c < COLUMNS; c++) {
+                    StructField field = fields.get(c);
+                    object.put("c" + c, ((PrimitiveObjectInspector) field.getFieldObjectInspector())
+                        .getPrimitiveJavaObject(rowInspector.getStructFieldData(data, field)));
+                }
+                domText.set(object.toJSONString());
+                return domText.getLength();
+            }
+        });
+
+        final JsonSerDe serde = new JsonSerDe();
+        serde.initialize(new Configuration(), properties);
+        Text sample = (Text) serde.serialize(rows.get(0), rowInspector);
+        runner.measure("row of " + COLUMNS + " columns: JsonSerDe.serialize", sample.getLength(),
+            new BenchmarkRunner.Operation() {
+                private int row;
+
+                public long run() throws Exception {
+                    Writable serialized = serde.serialize(rows.get(row++ & (ROWS - 1)), rowInspector);
+                    return ((Text) serialized).getLength();
+                }
+            });
+    }
+
+    /**
+     * A ByteArrayOutputStream whose buffer can be read without a copy
+     */
+    private static class ResettableOutputStream extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+
+/**
+ * Deserializes records a batch at a time into a {@link JsonColumnBatch}.
+ *
+ * Each record of the batch is first read once for the spans of all the
+ * projected columns by the parser backend of the table, as for a single row,
+ * and the spans are stored column by column.  The columns are then converted
+ * one at a time, so that the loop over the rows of a column always calls the
+ * same converter on the same vector.  The spans refer to the bytes of the
+ * records, or to the text of the values for the dom backend, so the records
+ * must not be changed until the batch has been converted.
+ */
+class JsonBatchDeserializer {
+    private final JsonColumnConverter[] converters;
+    private final JsonMalformedRecordPolicy malformedRecordPolicy;
+
+    /**
+     * The columns read by the query, in column order
+     */
+    private final int[] projectedColumns;
+
+    private final JsonRecordParser recordParser;
+
+    /**
+     * The span of each column in each row, and the bytes it is in, indexed by
+     * column and then row
+     */
+    private final byte[][][] spanBytes;
+    private final byte[][] spanTypes;
+    private final int[][] spanStarts;
+    private final int[][] spanEnds;
+
+    /**
+     * The rows the spans have room for
+     */
+    private int spanCapacity;
+
+    /**
+     * @param recordParser finds the spans of the projected columns in the
+     *        records
+     */
+    JsonBatchDeserializer(JsonColumnConverter[] converters, boolean[] projected,
+        JsonMalformedRecordPolicy malformedRecordPolicy, JsonRecordParser recordParser) {
+        int numberOfColumns = converters.length;
+        this.converters = converters;
+        this.malformedRecordPolicy = malformedRecordPolicy;
+        this.recordParser = recordParser;
+
+        int count = 0;
+        int[] columns = new int[numberOfColumns];
+        for (int c = 0; c < numberOfColumns; c++) {
+            if (projected[c]) {
+                columns[count++] = c;
+            }
+        }
+        this.projectedColumns = Arrays.copyOf(columns, count);
+        this.spanBytes = new byte[numberOfColumns][][];
+        this.spanTypes = new byte[numberOfColumns][];
+        this.spanStarts = new int[numberOfColumns][];
+        this.spanEnds = new int[numberOfColumns][];
+    }
+
+    /**
+     * Creates a batch with a vector for every column
+     */
+    JsonColumnBatch createBatch(int capacity) {
+        JsonColumnVector[] vectors = new JsonColumnVector[converters.length];
+        for (int c = 0; c < converters.length; c++) {
+            vectors[c] = converters[c].createVector(capacity);
+        }
+        return new JsonColumnBatch(vectors, capacity);
+    }
+
+    /**
+     * Starts a new batch, emptying it
+     */
+    void reset(JsonColumnBatch batch) {
+        int capacity = batch.getCapacity();
+        if (spanCapacity < capacity) {
+            spanCapacity = capacity;
+            for (int c : projectedColumns) {
+                spanBytes[c] = new byte[capacity][];
+                spanTypes[c] = new byte[capacity];
+                spanStarts[c] = new int[capacity];
+                spanEnds[c] = new int[capacity];
+            }
+        }
+        batch.reset();
+    }
+
+    /**
+     * Finds the spans of the columns of a record, for the given row of the batch
+     *
+     * @return false if the record is malformed, in which case every column of
+     *         the row is null
+     */
+    boolean scan(byte[] bytes, int length, int row) {
+        if (projectedColumns.length == 0) {
+            return true;
+        }
+
+        if (!recordParser.parse(bytes, 0, length)) {
+            malformedRecordPolicy.recordMalformed(bytes, 0, length, recordParser.getErrorOffset());
+            for (int c : projectedColumns) {
+                spanTypes[c][row] = JsonRecordScanner.NONE;
+            }
+            return false;
+        }
+        for (int c : projectedColumns) {
+            byte type = recordParser.getValueType(c);
+            spanTypes[c][row] = type;
+            if (type != JsonRecordScanner.NONE) {
+                spanBytes[c][row] = recordParser.getValueBytes(c);
+                spanStarts[c][row] = recordParser.getValueStart(c);
+                spanEnds[c][row] = recordParser.getValueEnd(c);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Converts the spans of the scanned rows into the vectors of the batch
+     */
+    void convert(JsonColumnBatch batch, int rows) {
+        batch.size = rows;
+        for (int c = 0, p = 0; c < converters.length; c++) {
+            JsonColumnVector vector = batch.columns[c];
+            if (p == projectedColumns.length || projectedColumns[p] != c) {
+                // Not read by the query
+                for (int row = 0; row < rows; row++) {
+                    vector.setNull(row);
+                }
+                continue;
+            }
+            p++;
+
+            JsonColumnConverter converter = converters[c];
+            byte[][] bytes = spanBytes[c];
+            byte[] types = spanTypes[c];
+            int[] starts = spanStarts[c];
+            int[] ends = spanEnds[c];
+            for (int row = 0; row < rows; row++) {
+                byte type = types[row];
+                if (type == JsonRecordScanner.NONE || type == JsonRecordScanner.NULL
+                    || !converter.toVector(bytes[row], type, starts[row], ends[row], vector, row)) {
+                    vector.setNull(row);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+/**
+ * A batch of rows deserialized by {@link JsonSerDe#deserialize(org.apache.hadoop.io.Text[], int, int,
+ * JsonColumnBatch)}, held as one {@link JsonColumnVector} per column of the
+ * table.  Columns which are not read by the query are null in every row.  The
+ * batch is created once by the SerDe and reused for every following batch.
+ */
+public final class JsonColumnBatch {
+    /**
+     * The number of rows of a batch, unless told otherwise
+     */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * The vector of each column, indexed by column
+     */
+    public final JsonColumnVector[] columns;
+
+    /**
+     * The number of rows filled by the last call to deserialize
+     */
+    public int size;
+
+    private final int capacity;
+
+    JsonColumnBatch(JsonColumnVector[] columns, int capacity) {
+        this.columns = columns;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the most rows the batch can hold
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    void reset() {
+        size = 0;
+        for (JsonColumnVector column : columns) {
+            column.reset();
+        }
+    }
+}
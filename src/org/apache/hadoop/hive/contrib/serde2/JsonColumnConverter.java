@@ -0,0 +1,780 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import net.minidev.json.JSONValue;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.io.ShortWritable;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.MapTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.StructTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Converts the JSON value of a column into the Hadoop writable for its column
+ * type, or into a lazy list, map or struct for the nested types.
+ *
+ * A converter is picked once per column when the SerDe is initialized, so
+ * nothing on the per-record path depends on the name of the column type.  Each
+ * column has one field object, created by its converter, which is set again for
+ * every record instead of boxing a new value.  Values come either from the raw
+ * record bytes, as a span found by a {@link JsonRecordScanner} or a
+ * {@link JsonTape}, or, for the dom backend of the {@link JsonRecordParser},
+ * as the Number, Boolean, String, Map and List objects of the json-smart
+ * parser.
+ *
+ * For a batch of rows, values are converted into a column vector instead.
+ *
+ * Nested values are not parsed when they are converted: a lazy list, map or
+ * struct only remembers where the value is, and extracts its elements and
+ * fields when they are first read.
+ *
+ * A value that cannot be converted, such as a word in an int column, makes the
+ * converter return false rather than throw an exception, as sparse and dirty
+ * columns are common, and the value is then null.  With the "fail" policy,
+ * each converter is wrapped in one that throws instead.
+ */
+abstract class JsonColumnConverter {
+    /**
+     * What to do with a value that cannot be converted to its column type,
+     * such as a word in an int column: "null", the default, reads it as null,
+     * and "fail" throws an IllegalArgumentException when it is read
+     */
+    static final String UNCONVERTIBLE_POLICY = "json.unconvertible.policy";
+
+    /**
+     * Creates the field object this converter sets: the writable expected by
+     * the writable ObjectInspector of a primitive type, or a lazy object
+     */
+    abstract Object createField();
+
+    /**
+     * Converts a value from the bytes of a record.  The type is one of the
+     * JsonRecordScanner types, but never NONE or NULL.
+     *
+     * @return false if the value cannot be held by the field and is null
+     */
+    abstract boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target);
+
+    /**
+     * Converts a non-null value of the json-smart parser
+     *
+     * @return false if the value cannot be held by the field and is null
+     */
+    abstract boolean fromObject(Object value, Object target);
+
+    /**
+     * Creates the vector holding the values of this column in a batch: the
+     * UTF-8 text of the values, unless the converter has a vector of its own
+     */
+    JsonColumnVector createVector(int capacity) {
+        return new JsonColumnVector.BytesVector(capacity);
+    }
+
+    /**
+     * Converts a value from the bytes of a record into a row of a vector
+     * created by this converter.  The type is never NONE or NULL.  Strings are
+     * held unescaped, and any other value as its text in the record.
+     *
+     * @return false if the value cannot be held by the vector and is null
+     */
+    boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+        JsonColumnVector.BytesVector bytesVector = (JsonColumnVector.BytesVector) vector;
+        if (type == JsonRecordScanner.ESCAPED_STRING) {
+            bytesVector.setCopy(row, JsonRecordScanner.decode(bytes, type, start, end).getBytes(JsonPathTrie.UTF8));
+        } else {
+            bytesVector.setRef(row, bytes, start, end - start);
+        }
+        return true;
+    }
+
+    /**
+     * Converts the value found for a column by the scanner.  The column must
+     * have been found and must not be a JSON null.
+     *
+     * @return false if the value cannot be held by the field and is null
+     */
+    final boolean fromBytes(JsonRecordScanner scanner, int column, Object target) {
+        return fromSpan(scanner.getBytes(), scanner.getValueType(column), scanner.getValueStart(column),
+            scanner.getValueEnd(column), target);
+    }
+
+    /**
+     * Picks the converter for a column type, which reads values that cannot
+     * be converted as null
+     */
+    static JsonColumnConverter forType(TypeInfo typeInfo) {
+        return forType(typeInfo, false);
+    }
+
+    /**
+     * Picks the converter for a column type.  Types without a converter of
+     * their own get the JSON text of their value.
+     *
+     * @param failUnconvertible whether a value that cannot be converted, at
+     *        any depth, throws an exception rather than being null
+     */
+    static JsonColumnConverter forType(TypeInfo typeInfo, boolean failUnconvertible) {
+        JsonColumnConverter converter = forTypeOnly(typeInfo, failUnconvertible);
+        return failUnconvertible ? new FailingConverter(converter, typeInfo.getTypeName()) : converter;
+    }
+
+    private static JsonColumnConverter forTypeOnly(TypeInfo typeInfo, boolean failUnconvertible) {
+        switch (typeInfo.getCategory()) {
+            case LIST:
+                return new ListConverter(forType(((ListTypeInfo) typeInfo).getListElementTypeInfo(),
+                    failUnconvertible));
+            case MAP:
+                MapTypeInfo mapTypeInfo = (MapTypeInfo) typeInfo;
+                return new MapConverter(forType(mapTypeInfo.getMapKeyTypeInfo(), failUnconvertible),
+                    forType(mapTypeInfo.getMapValueTypeInfo(), failUnconvertible));
+            case STRUCT:
+                StructTypeInfo structTypeInfo = (StructTypeInfo) typeInfo;
+                return new StructConverter(structTypeInfo.getAllStructFieldNames(),
+                    structTypeInfo.getAllStructFieldTypeInfos(), failUnconvertible);
+            default:
+                break;
+        }
+
+        String typeName = typeInfo.getTypeName();
+        if (typeName.equalsIgnoreCase(Constants.DOUBLE_TYPE_NAME)) {
+            return new DoubleConverter();
+        } else if (typeName.equalsIgnoreCase(Constants.BIGINT_TYPE_NAME)) {
+            return new LongConverter();
+        } else if (typeName.equalsIgnoreCase(Constants.INT_TYPE_NAME)) {
+            return new IntConverter();
+        } else if (typeName.equalsIgnoreCase(Constants.SMALLINT_TYPE_NAME)) {
+            return new ShortConverter();
+        } else if (typeName.equalsIgnoreCase(Constants.TINYINT_TYPE_NAME)) {
+            return new ByteConverter();
+        } else if (typeName.equalsIgnoreCase(Constants.FLOAT_TYPE_NAME)) {
+            return new FloatConverter();
+        } else if (typeName.equalsIgnoreCase(Constants.BOOLEAN_TYPE_NAME)) {
+            return new BooleanConverter();
+        } else {
+            // Fall back, just use the string
+            return new StringConverter();
+        }
+    }
+
+    /**
+     * Whether a value of the json-smart parser is an integer that fits in a long
+     */
+    private static boolean isIntegral(Object value) {
+        return value instanceof Long || value instanceof Integer
+            || value instanceof Short || value instanceof Byte;
+    }
+
+    /**
+     * Parses the value of an integer column straight from the record bytes.
+     * Integers quoted as strings are parsed the same way.
+     *
+     * @return the integer, or JsonNumberParser.INVALID_LONG if the value is
+     *         not an integer between min and max; check it with foundIntegral
+     */
+    static long parseIntegral(byte[] bytes, byte type, int start, int end, long min, long max) {
+        if (type == JsonRecordScanner.ESCAPED_STRING) {
+            byte[] decoded = decodeString(bytes, type, start, end);
+            return JsonNumberParser.tryParseLong(decoded, 0, decoded.length, min, max);
+        }
+        return JsonNumberParser.tryParseLong(bytes, start, end, min, max);
+    }
+
+    /**
+     * Whether parseIntegral found an integer, rather than returning
+     * JsonNumberParser.INVALID_LONG for a value that is not one
+     */
+    static boolean foundIntegral(long value, byte[] bytes, byte type, int start, int end, long min) {
+        if (value != JsonNumberParser.INVALID_LONG || min != Long.MIN_VALUE) {
+            return value != JsonNumberParser.INVALID_LONG;
+        }
+        if (type == JsonRecordScanner.ESCAPED_STRING) {
+            byte[] decoded = decodeString(bytes, type, start, end);
+            return JsonNumberParser.isValid(value, decoded, 0, decoded.length, min);
+        }
+        return JsonNumberParser.isValid(value, bytes, start, end, min);
+    }
+
+    /**
+     * Parses the value of a double column from the record bytes
+     *
+     * @return the number, or NaN if the value is not a number; check a NaN
+     *         with foundNumber
+     */
+    static double parseDouble(byte[] bytes, byte type, int start, int end) {
+        if (type == JsonRecordScanner.ESCAPED_STRING) {
+            byte[] decoded = decodeString(bytes, type, start, end);
+            return JsonNumberParser.tryParseDouble(decoded, 0, decoded.length);
+        }
+        return JsonNumberParser.tryParseDouble(bytes, start, end);
+    }
+
+    /**
+     * Parses the value of a float column from the record bytes
+     *
+     * @return the number, or NaN if the value is not a number; check a NaN
+     *         with foundNumber
+     */
+    static float parseFloat(byte[] bytes, byte type, int start, int end) {
+        if (type == JsonRecordScanner.ESCAPED_STRING) {
+            byte[] decoded = decodeString(bytes, type, start, end);
+            return JsonNumberParser.tryParseFloat(decoded, 0, decoded.length);
+        }
+        return JsonNumberParser.tryParseFloat(bytes, start, end);
+    }
+
+    /**
+     * Whether parseDouble or parseFloat found a number, rather than returning
+     * NaN for a value that is not one
+     */
+    static boolean foundNumber(double value, byte[] bytes, byte type, int start, int end) {
+        if (value == value) {
+            return true;
+        }
+        if (type == JsonRecordScanner.ESCAPED_STRING) {
+            byte[] decoded = decodeString(bytes, type, start, end);
+            return JsonNumberParser.isValid(value, decoded, 0, decoded.length);
+        }
+        return JsonNumberParser.isValid(value, bytes, start, end);
+    }
+
+    /**
+     * The UTF-8 bytes of a string with escape sequences, once they are decoded
+     */
+    private static byte[] decodeString(byte[] bytes, byte type, int start, int end) {
+        return JsonRecordScanner.decode(bytes, type, start, end).getBytes(JsonPathTrie.UTF8);
+    }
+
+    /**
+     * The text of a value of the json-smart parser, as UTF-8 bytes: the JSON
+     * text of a map or list, and the string of any other value
+     */
+    static byte[] toText(Object value) {
+        if (value instanceof Map || value instanceof List) {
+            return JSONValue.toJSONString(value).getBytes(JsonPathTrie.UTF8);
+        }
+        return value.toString().getBytes(JsonPathTrie.UTF8);
+    }
+
+    /**
+     * Parses the value of a boolean column from the record bytes.  Anything
+     * but true, or a string equal to "true" ignoring case, is false.
+     */
+    static boolean parseBoolean(byte[] bytes, byte type, int start, int end) {
+        switch (type) {
+            case JsonRecordScanner.TRUE:
+                return true;
+            case JsonRecordScanner.FALSE:
+                return false;
+            case JsonRecordScanner.STRING:
+                // Setting the case bit lower cases letters, and nothing else becomes one
+                return end - start == 4 && (bytes[start] | 0x20) == 't' && (bytes[start + 1] | 0x20) == 'r'
+                    && (bytes[start + 2] | 0x20) == 'u' && (bytes[start + 3] | 0x20) == 'e';
+            default:
+                return Boolean.parseBoolean(JsonRecordScanner.decode(bytes, type, start, end));
+        }
+    }
+
+    static class DoubleConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new DoubleWritable();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            double value = parseDouble(bytes, type, start, end);
+            if (!foundNumber(value, bytes, type, start, end)) {
+                return false;
+            }
+            ((DoubleWritable) target).set(value);
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return new JsonColumnVector.DoubleVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            double value = parseDouble(bytes, type, start, end);
+            if (!foundNumber(value, bytes, type, start, end)) {
+                return false;
+            }
+            ((JsonColumnVector.DoubleVector) vector).values[row] = value;
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (value instanceof Number) {
+                ((DoubleWritable) target).set(((Number) value).doubleValue());
+                return true;
+            }
+            byte[] text = toText(value);
+            return fromSpan(text, JsonRecordScanner.STRING, 0, text.length, target);
+        }
+    }
+
+    static class FloatConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new FloatWritable();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            float value = parseFloat(bytes, type, start, end);
+            if (!foundNumber(value, bytes, type, start, end)) {
+                return false;
+            }
+            ((FloatWritable) target).set(value);
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return new JsonColumnVector.DoubleVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            float value = parseFloat(bytes, type, start, end);
+            if (!foundNumber(value, bytes, type, start, end)) {
+                return false;
+            }
+            ((JsonColumnVector.DoubleVector) vector).values[row] = value;
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (value instanceof Number) {
+                ((FloatWritable) target).set(((Number) value).floatValue());
+                return true;
+            }
+            byte[] text = toText(value);
+            return fromSpan(text, JsonRecordScanner.STRING, 0, text.length, target);
+        }
+    }
+
+    static class LongConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new LongWritable();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            long value = parseIntegral(bytes, type, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Long.MIN_VALUE)) {
+                return false;
+            }
+            ((LongWritable) target).set(value);
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return new JsonColumnVector.LongVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            long value = parseIntegral(bytes, type, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Long.MIN_VALUE)) {
+                return false;
+            }
+            ((JsonColumnVector.LongVector) vector).values[row] = value;
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (isIntegral(value)) {
+                ((LongWritable) target).set(((Number) value).longValue());
+                return true;
+            }
+            // Fractions and big numbers are rejected, as for the JSON text
+            byte[] text = toText(value);
+            return fromSpan(text, JsonRecordScanner.STRING, 0, text.length, target);
+        }
+    }
+
+    static class IntConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new IntWritable();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            long value = parseIntegral(bytes, type, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Integer.MIN_VALUE)) {
+                return false;
+            }
+            ((IntWritable) target).set((int) value);
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return new JsonColumnVector.LongVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            long value = parseIntegral(bytes, type, start, end, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Integer.MIN_VALUE)) {
+                return false;
+            }
+            ((JsonColumnVector.LongVector) vector).values[row] = value;
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (isIntegral(value)) {
+                long longValue = ((Number) value).longValue();
+                if (longValue == (int) longValue) {
+                    ((IntWritable) target).set((int) longValue);
+                    return true;
+                }
+            }
+            byte[] text = toText(value);
+            return fromSpan(text, JsonRecordScanner.STRING, 0, text.length, target);
+        }
+    }
+
+    static class ShortConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new ShortWritable();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            long value = parseIntegral(bytes, type, start, end, Short.MIN_VALUE, Short.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Short.MIN_VALUE)) {
+                return false;
+            }
+            ((ShortWritable) target).set((short) value);
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return new JsonColumnVector.LongVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            long value = parseIntegral(bytes, type, start, end, Short.MIN_VALUE, Short.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Short.MIN_VALUE)) {
+                return false;
+            }
+            ((JsonColumnVector.LongVector) vector).values[row] = value;
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (isIntegral(value)) {
+                long longValue = ((Number) value).longValue();
+                if (longValue == (short) longValue) {
+                    ((ShortWritable) target).set((short) longValue);
+                    return true;
+                }
+            }
+            byte[] text = toText(value);
+            return fromSpan(text, JsonRecordScanner.STRING, 0, text.length, target);
+        }
+    }
+
+    static class ByteConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new ByteWritable();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            long value = parseIntegral(bytes, type, start, end, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Byte.MIN_VALUE)) {
+                return false;
+            }
+            ((ByteWritable) target).set((byte) value);
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return new JsonColumnVector.LongVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            long value = parseIntegral(bytes, type, start, end, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            if (!foundIntegral(value, bytes, type, start, end, Byte.MIN_VALUE)) {
+                return false;
+            }
+            ((JsonColumnVector.LongVector) vector).values[row] = value;
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (isIntegral(value)) {
+                long longValue = ((Number) value).longValue();
+                if (longValue == (byte) longValue) {
+                    ((ByteWritable) target).set((byte) longValue);
+                    return true;
+                }
+            }
+            byte[] text = toText(value);
+            return fromSpan(text, JsonRecordScanner.STRING, 0, text.length, target);
+        }
+    }
+
+    static class BooleanConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new BooleanWritable();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            ((BooleanWritable) target).set(parseBoolean(bytes, type, start, end));
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return new JsonColumnVector.LongVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            ((JsonColumnVector.LongVector) vector).values[row] = parseBoolean(bytes, type, start, end) ? 1 : 0;
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (value instanceof Boolean) {
+                ((BooleanWritable) target).set((Boolean) value);
+            } else {
+                ((BooleanWritable) target).set(Boolean.parseBoolean(value.toString()));
+            }
+            return true;
+        }
+    }
+
+    static class StringConverter extends JsonColumnConverter {
+        @Override
+        Object createField() {
+            return new Text();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            if (type == JsonRecordScanner.ESCAPED_STRING) {
+                ((Text) target).set(JsonRecordScanner.decode(bytes, type, start, end));
+            } else {
+                // Already UTF-8, so the bytes are copied without being decoded
+                ((Text) target).set(bytes, start, end - start);
+            }
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            ((Text) target).set(value.toString());
+            return true;
+        }
+    }
+
+    /**
+     * Converts a JSON array into a {@link JsonLazyList}.  Any other value is null.
+     */
+    static class ListConverter extends JsonColumnConverter {
+        private final JsonColumnConverter elementConverter;
+
+        ListConverter(JsonColumnConverter elementConverter) {
+            this.elementConverter = elementConverter;
+        }
+
+        @Override
+        Object createField() {
+            return new JsonLazyList(elementConverter);
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            return type == JsonRecordScanner.ARRAY && ((JsonLazyList) target).init(bytes, start, end);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            return type == JsonRecordScanner.ARRAY && super.toVector(bytes, type, start, end, vector, row);
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (!(value instanceof List)) {
+                return false;
+            }
+            byte[] bytes = toText(value);
+            return ((JsonLazyList) target).init(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Converts a JSON object into a {@link JsonLazyMap}.  Any other value is null.
+     */
+    static class MapConverter extends JsonColumnConverter {
+        private final JsonColumnConverter keyConverter;
+        private final JsonColumnConverter valueConverter;
+
+        MapConverter(JsonColumnConverter keyConverter, JsonColumnConverter valueConverter) {
+            this.keyConverter = keyConverter;
+            this.valueConverter = valueConverter;
+        }
+
+        @Override
+        Object createField() {
+            return new JsonLazyMap(keyConverter, valueConverter);
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            return type == JsonRecordScanner.OBJECT && ((JsonLazyMap) target).init(bytes, start, end);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            return type == JsonRecordScanner.OBJECT && super.toVector(bytes, type, start, end, vector, row);
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (!(value instanceof Map)) {
+                return false;
+            }
+            byte[] bytes = toText(value);
+            return ((JsonLazyMap) target).init(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Converts a JSON object into a {@link JsonLazyStruct}, whose fields are
+     * the members with the names of the fields of the struct type.  Any other
+     * value is null.
+     */
+    static class StructConverter extends JsonColumnConverter {
+        private final JsonColumnConverter[] fieldConverters;
+        private final JsonPathTrie fieldTrie = new JsonPathTrie();
+
+        StructConverter(List<String> fieldNames, List<TypeInfo> fieldTypes, boolean failUnconvertible) {
+            fieldConverters = new JsonColumnConverter[fieldNames.size()];
+            for (int f = 0; f < fieldConverters.length; f++) {
+                fieldConverters[f] = forType(fieldTypes.get(f), failUnconvertible);
+                fieldTrie.add(f, Collections.<Object>singletonList(fieldNames.get(f)));
+            }
+        }
+
+        @Override
+        Object createField() {
+            return new JsonLazyStruct(fieldConverters, fieldTrie);
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            if (type != JsonRecordScanner.OBJECT) {
+                return false;
+            }
+            ((JsonLazyStruct) target).init(bytes, start, end - start);
+            return true;
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            return type == JsonRecordScanner.OBJECT && super.toVector(bytes, type, start, end, vector, row);
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (!(value instanceof Map)) {
+                return false;
+            }
+            byte[] bytes = toText(value);
+            ((JsonLazyStruct) target).init(bytes, 0, bytes.length);
+            return true;
+        }
+    }
+
+    /**
+     * Throws an exception for the values another converter cannot convert,
+     * for the "fail" policy of unconvertible values
+     */
+    static class FailingConverter extends JsonColumnConverter {
+        private final JsonColumnConverter converter;
+        private final String typeName;
+
+        FailingConverter(JsonColumnConverter converter, String typeName) {
+            this.converter = converter;
+            this.typeName = typeName;
+        }
+
+        @Override
+        Object createField() {
+            return converter.createField();
+        }
+
+        @Override
+        boolean fromSpan(byte[] bytes, byte type, int start, int end, Object target) {
+            if (!converter.fromSpan(bytes, type, start, end, target)) {
+                throw unconvertible(new String(bytes, start, end - start, JsonPathTrie.UTF8));
+            }
+            return true;
+        }
+
+        @Override
+        JsonColumnVector createVector(int capacity) {
+            return converter.createVector(capacity);
+        }
+
+        @Override
+        boolean toVector(byte[] bytes, byte type, int start, int end, JsonColumnVector vector, int row) {
+            if (!converter.toVector(bytes, type, start, end, vector, row)) {
+                throw unconvertible(new String(bytes, start, end - start, JsonPathTrie.UTF8));
+            }
+            return true;
+        }
+
+        @Override
+        boolean fromObject(Object value, Object target) {
+            if (!converter.fromObject(value, target)) {
+                throw unconvertible(JSONValue.toJSONString(value));
+            }
+            return true;
+        }
+
+        private IllegalArgumentException unconvertible(String value) {
+            return new IllegalArgumentException("The JSON value " + value + " cannot be converted to "
+                + typeName + ", and " + UNCONVERTIBLE_POLICY + " is fail");
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+
+/**
+ * The values of one column for the rows of a {@link JsonColumnBatch}, in the
+ * style of the column vectors of vectorized Hive.  A row whose isNull flag is
+ * set has no value, and noNulls is true when no row of the batch is null.
+ *
+ * Integer and boolean columns are held as longs, floating point columns as
+ * doubles, and every other column as slices of bytes: the UTF-8 text of
+ * strings, or the text of arrays, maps and structs as it is in the record.
+ */
+public abstract class JsonColumnVector {
+    public final boolean[] isNull;
+    public boolean noNulls;
+
+    JsonColumnVector(int capacity) {
+        isNull = new boolean[capacity];
+        noNulls = true;
+    }
+
+    /**
+     * Clears the vector for a new batch
+     */
+    void reset() {
+        if (!noNulls) {
+            Arrays.fill(isNull, false);
+            noNulls = true;
+        }
+    }
+
+    void setNull(int row) {
+        isNull[row] = true;
+        noNulls = false;
+    }
+
+    /**
+     * Values of bigint, int, smallint, tinyint and boolean columns, with 1 for
+     * true and 0 for false
+     */
+    public static final class LongVector extends JsonColumnVector {
+        public final long[] values;
+
+        LongVector(int capacity) {
+            super(capacity);
+            values = new long[capacity];
+        }
+    }
+
+    /**
+     * Values of double and float columns
+     */
+    public static final class DoubleVector extends JsonColumnVector {
+        public final double[] values;
+
+        DoubleVector(int capacity) {
+            super(capacity);
+            values = new double[capacity];
+        }
+    }
+
+    /**
+     * Values held as UTF-8 bytes.  The value of a row is the bytes from its
+     * start, of its length, in its array.  Values that appear as they are in
+     * the record refer to the bytes of the record, so the batch is only valid
+     * while the records are; escaped strings are decoded into a buffer owned
+     * by the vector.
+     */
+    public static final class BytesVector extends JsonColumnVector {
+        public final byte[][] bytes;
+        public final int[] starts;
+        public final int[] lengths;
+
+        /**
+         * Decoded values of this batch
+         */
+        private byte[] buffer = new byte[0];
+        private int bufferLength;
+
+        BytesVector(int capacity) {
+            super(capacity);
+            bytes = new byte[capacity][];
+            starts = new int[capacity];
+            lengths = new int[capacity];
+        }
+
+        @Override
+        void reset() {
+            super.reset();
+            bufferLength = 0;
+        }
+
+        /**
+         * Sets a row to a slice of bytes, without copying them
+         */
+        void setRef(int row, byte[] valueBytes, int start, int length) {
+            bytes[row] = valueBytes;
+            starts[row] = start;
+            lengths[row] = length;
+        }
+
+        /**
+         * Sets a row to a copy of a value
+         */
+        void setCopy(int row, byte[] valueBytes) {
+            if (bufferLength + valueBytes.length > buffer.length) {
+                // Rows set before keep referring to the previous buffer
+                buffer = new byte[Math.max(buffer.length * 2, valueBytes.length + 256)];
+                bufferLength = 0;
+            }
+            System.arraycopy(valueBytes, 0, buffer, bufferLength, valueBytes.length);
+            setRef(row, buffer, bufferLength, valueBytes.length);
+            bufferLength += valueBytes.length;
+        }
+
+        /**
+         * @return the value of a row as a String
+         */
+        public String toString(int row) {
+            return isNull[row] ? null : new String(bytes[row], starts[row], lengths[row], JsonPathTrie.UTF8);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+
+/**
+ * Where the elements of a JSON array, or the members of a JSON object, are in
+ * the bytes of a record, as found by {@link JsonRecordScanner#split}.  The
+ * arrays grow as needed and are reused for every container.
+ *
+ * Types are those of the JsonRecordScanner, and string ranges exclude the
+ * quotes.  Keys are only set for the members of an object.
+ */
+class JsonElementSpans {
+    byte[] types = new byte[8];
+    int[] starts = new int[8];
+    int[] ends = new int[8];
+
+    boolean[] keysEscaped = new boolean[8];
+    int[] keyStarts = new int[8];
+    int[] keyEnds = new int[8];
+
+    /**
+     * The number of elements found
+     */
+    int size;
+
+    void clear() {
+        size = 0;
+    }
+
+    void add(byte type, int start, int end) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            keysEscaped = Arrays.copyOf(keysEscaped, capacity);
+            keyStarts = Arrays.copyOf(keyStarts, capacity);
+            keyEnds = Arrays.copyOf(keyEnds, capacity);
+        }
+        types[size] = type;
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    /**
+     * Sets the key of the element added last
+     */
+    void setKey(int keyStart, int keyEnd, boolean escaped) {
+        keyStarts[size - 1] = keyStart;
+        keyEnds[size - 1] = keyEnd;
+        keysEscaped[size - 1] = escaped;
+    }
+}
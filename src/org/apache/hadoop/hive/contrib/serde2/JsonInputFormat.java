@@ -0,0 +1,84 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.IOException;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextInputFormat;
+
+/**
+ * A text input format for tables of JSON lines read with the JsonSerDe,
+ * which parses the lines on a pool of worker threads:
+ *
+ * <pre>
+ * CREATE EXTERNAL TABLE response_log_example (...)
+ * ROW FORMAT SERDE "org.apache.hadoop.hive.contrib.serde2.JsonSerDe"
+ * WITH SERDEPROPERTIES (...)
+ * STORED AS
+ *      INPUTFORMAT "org.apache.hadoop.hive.contrib.serde2.JsonInputFormat"
+ *      OUTPUTFORMAT "org.apache.hadoop.hive.ql.io.HiveIgnoreKeyTextOutputFormat";
+ *
+ * SET json.input.threads=4;
+ * </pre>
+ *
+ * Splits are those of the TextInputFormat.  With a single thread, the default,
+ * lines are read as by the TextInputFormat and parsed by the SerDe.  So are
+ * they when the query reads no columns, as for count(*), since the records
+ * are then never parsed.
+ *
+ * Setting json.input.read.ahead reads the lines on a background thread, up to
+ * json.input.read.ahead.bytes ahead of the rows being deserialized, so that
+ * reading from slow storage overlaps with deserializing.
+ */
+public class JsonInputFormat extends TextInputFormat {
+    /**
+     * The number of threads parsing the lines of each split
+     */
+    public static final String THREADS = "json.input.threads";
+
+    /**
+     * The number of lines handed to a parsing thread at a time
+     */
+    public static final String BATCH_SIZE = "json.input.batch.size";
+
+    static final int DEFAULT_BATCH_SIZE = 256;
+
+    /**
+     * Whether lines are read on a background thread, ahead of the rows
+     */
+    public static final String READ_AHEAD = "json.input.read.ahead";
+
+    /**
+     * The bytes of lines read ahead at most
+     */
+    public static final String READ_AHEAD_BYTES = "json.input.read.ahead.bytes";
+
+    static final long DEFAULT_READ_AHEAD_BYTES = 16L << 20;
+
+    @Override
+    public RecordReader<LongWritable, Text> getRecordReader(InputSplit split, JobConf job, Reporter reporter)
+        throws IOException {
+        return getRecordReader(super.getRecordReader(split, job, reporter), job);
+    }
+
+    /**
+     * Reads the lines of a split ahead, or parses them on worker threads, as
+     * set in the job
+     */
+    static RecordReader<LongWritable, Text> getRecordReader(RecordReader<LongWritable, Text> lines, JobConf job) {
+        int threads = job.getInt(THREADS, 1);
+        if (job.getBoolean(READ_AHEAD, false)) {
+            lines = new JsonReadAheadRecordReader(lines, job.getLong(READ_AHEAD_BYTES, DEFAULT_READ_AHEAD_BYTES));
+        }
+        if (threads <= 1 || JsonSerDe.readsNoColumns(job)) {
+            return lines;
+        }
+        return new JsonRecordReader(lines, threads, Math.max(1, job.getInt(BATCH_SIZE, DEFAULT_BATCH_SIZE)));
+    }
+}
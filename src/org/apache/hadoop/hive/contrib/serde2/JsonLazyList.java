@@ -0,0 +1,123 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The value of an array column, read lazily from the bytes of the record.
+ *
+ * The array is split into the spans of its elements when it is set, and each
+ * element is only converted to the element type when it is accessed.  Element
+ * objects are created by the element converter the first time they are needed
+ * and reused for every following record.  Like the struct holding it, the list
+ * refers to the bytes of the record, so it is only valid until the buffer
+ * holding the record is reused.
+ */
+class JsonLazyList {
+    private static final byte NOT_CONVERTED = 0;
+    private static final byte CONVERTED = 1;
+    private static final byte CONVERTED_NULL = 2;
+
+    private final JsonColumnConverter elementConverter;
+    private final JsonRecordScanner scanner = new JsonRecordScanner();
+    private final JsonElementSpans spans = new JsonElementSpans();
+
+    /**
+     * Read a value which is not strict JSON, created the first time one is found
+     */
+    private JsonTape tape;
+    private JsonRecordWriter rewritten;
+
+    private byte[] bytes;
+
+    /**
+     * Reused element objects, and whether each has been converted for this array
+     */
+    private Object[] elements = new Object[0];
+    private byte[] states = new byte[0];
+
+    /**
+     * Reused by getList
+     */
+    private final ArrayList<Object> cachedList = new ArrayList<Object>();
+    private boolean listCached;
+
+    JsonLazyList(JsonColumnConverter elementConverter) {
+        this.elementConverter = elementConverter;
+    }
+
+    /**
+     * Sets the array between start and end, and splits it into its elements
+     *
+     * @return false if the bytes are not a JSON array, even for the lenient grammar
+     */
+    boolean init(byte[] arrayBytes, int start, int end) {
+        bytes = arrayBytes;
+        listCached = false;
+        if (!scanner.split(arrayBytes, start, end, spans) || arrayBytes[start] != '[') {
+            // Not strict JSON, so split it once the tape has written it out as strict JSON
+            if (tape == null) {
+                tape = new JsonTape(0);
+                rewritten = new JsonRecordWriter();
+            }
+            if (!tape.rewrite(arrayBytes, start, end - start, JsonRecordScanner.ARRAY, rewritten)
+                || !scanner.split(rewritten.getBytes(), 0, rewritten.getLength(), spans)) {
+                spans.clear();
+                return false;
+            }
+            bytes = rewritten.getBytes();
+        }
+
+        if (states.length < spans.size) {
+            int capacity = Math.max(spans.size, states.length * 2);
+            elements = Arrays.copyOf(elements, capacity);
+            states = new byte[capacity];
+        } else {
+            Arrays.fill(states, 0, spans.size, NOT_CONVERTED);
+        }
+        return true;
+    }
+
+    int getLength() {
+        return spans.size;
+    }
+
+    /**
+     * Gets an element, converting it first if needed
+     *
+     * @return the writable or lazy value of the element, or null
+     */
+    Object getElement(int index) {
+        if (index < 0 || index >= spans.size) {
+            return null;
+        }
+        if (states[index] == NOT_CONVERTED) {
+            byte type = spans.types[index];
+            if (elements[index] == null) {
+                elements[index] = elementConverter.createField();
+            }
+            boolean converted = type != JsonRecordScanner.NULL
+                && elementConverter.fromSpan(bytes, type, spans.starts[index], spans.ends[index], elements[index]);
+            states[index] = converted ? CONVERTED : CONVERTED_NULL;
+        }
+        return states[index] == CONVERTED ? elements[index] : null;
+    }
+
+    /**
+     * Gets all the elements, in order
+     */
+    List<Object> getList() {
+        if (!listCached) {
+            cachedList.clear();
+            for (int i = 0; i < spans.size; i++) {
+                cachedList.add(getElement(i));
+            }
+            listCached = true;
+        }
+        return cachedList;
+    }
+}
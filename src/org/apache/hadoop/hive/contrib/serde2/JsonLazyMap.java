@@ -0,0 +1,162 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The value of a map column, read lazily from the bytes of the record.
+ *
+ * The object is split into the spans of its members when it is set.  Keys are
+ * converted to the key type when the map is first read, and each value only
+ * when it is accessed.  Key and value objects are created by their converters
+ * the first time they are needed and reused for every following record.  When
+ * a key appears more than once, its first value wins, as it does for the
+ * columns of a row.  Keys which cannot be held by the key type are left out.
+ */
+class JsonLazyMap {
+    private static final byte NOT_CONVERTED = 0;
+    private static final byte CONVERTED = 1;
+    private static final byte CONVERTED_NULL = 2;
+
+    private final JsonColumnConverter keyConverter;
+    private final JsonColumnConverter valueConverter;
+    private final JsonRecordScanner scanner = new JsonRecordScanner();
+    private final JsonElementSpans spans = new JsonElementSpans();
+
+    /**
+     * Read a value which is not strict JSON, created the first time one is found
+     */
+    private JsonTape tape;
+    private JsonRecordWriter rewritten;
+
+    private byte[] bytes;
+
+    /**
+     * Reused key objects, and whether each key could be converted
+     */
+    private Object[] keys = new Object[0];
+    private boolean[] keysValid = new boolean[0];
+    private boolean keysConverted;
+
+    /**
+     * Reused value objects, and whether each has been converted for this map
+     */
+    private Object[] values = new Object[0];
+    private byte[] states = new byte[0];
+
+    /**
+     * Reused by getMap
+     */
+    private final LinkedHashMap<Object, Object> cachedMap = new LinkedHashMap<Object, Object>();
+    private boolean mapCached;
+
+    JsonLazyMap(JsonColumnConverter keyConverter, JsonColumnConverter valueConverter) {
+        this.keyConverter = keyConverter;
+        this.valueConverter = valueConverter;
+    }
+
+    /**
+     * Sets the object between start and end, and splits it into its members
+     *
+     * @return false if the bytes are not a JSON object, even for the lenient grammar
+     */
+    boolean init(byte[] objectBytes, int start, int end) {
+        bytes = objectBytes;
+        keysConverted = false;
+        mapCached = false;
+        if (!scanner.split(objectBytes, start, end, spans) || objectBytes[start] != '{') {
+            // Not strict JSON, so split it once the tape has written it out as strict JSON
+            if (tape == null) {
+                tape = new JsonTape(0);
+                rewritten = new JsonRecordWriter();
+            }
+            if (!tape.rewrite(objectBytes, start, end - start, JsonRecordScanner.OBJECT, rewritten)
+                || !scanner.split(rewritten.getBytes(), 0, rewritten.getLength(), spans)) {
+                spans.clear();
+                return false;
+            }
+            bytes = rewritten.getBytes();
+        }
+
+        if (states.length < spans.size) {
+            int capacity = Math.max(spans.size, states.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            keysValid = new boolean[capacity];
+            values = Arrays.copyOf(values, capacity);
+            states = new byte[capacity];
+        } else {
+            Arrays.fill(states, 0, spans.size, NOT_CONVERTED);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the value of a key, converting it first if needed
+     *
+     * @return the writable or lazy value, or null if the key is not in the map
+     */
+    Object getMapValueElement(Object key) {
+        if (key == null) {
+            return null;
+        }
+        convertKeys();
+        for (int i = 0; i < spans.size; i++) {
+            if (keysValid[i] && key.equals(keys[i])) {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets all the entries, in the order of the object
+     */
+    Map<Object, Object> getMap() {
+        if (!mapCached) {
+            convertKeys();
+            cachedMap.clear();
+            for (int i = 0; i < spans.size; i++) {
+                if (keysValid[i] && !cachedMap.containsKey(keys[i])) {
+                    cachedMap.put(keys[i], getValue(i));
+                }
+            }
+            mapCached = true;
+        }
+        return cachedMap;
+    }
+
+    int getMapSize() {
+        return getMap().size();
+    }
+
+    private void convertKeys() {
+        if (keysConverted) {
+            return;
+        }
+        for (int i = 0; i < spans.size; i++) {
+            if (keys[i] == null) {
+                keys[i] = keyConverter.createField();
+            }
+            byte type = spans.keysEscaped[i] ? JsonRecordScanner.ESCAPED_STRING : JsonRecordScanner.STRING;
+            keysValid[i] = keyConverter.fromSpan(bytes, type, spans.keyStarts[i], spans.keyEnds[i], keys[i]);
+        }
+        keysConverted = true;
+    }
+
+    private Object getValue(int index) {
+        if (states[index] == NOT_CONVERTED) {
+            byte type = spans.types[index];
+            if (values[index] == null) {
+                values[index] = valueConverter.createField();
+            }
+            boolean converted = type != JsonRecordScanner.NULL
+                && valueConverter.fromSpan(bytes, type, spans.starts[index], spans.ends[index], values[index]);
+            states[index] = converted ? CONVERTED : CONVERTED_NULL;
+        }
+        return states[index] == CONVERTED ? values[index] : null;
+    }
+}
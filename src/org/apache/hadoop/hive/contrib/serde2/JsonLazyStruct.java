@@ -0,0 +1,222 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A row deserialized by the JsonSerDe, in the style of Hive's LazyStruct, or
+ * the value of a struct column nested in a row.
+ *
+ * The record is not parsed until one of its fields is first accessed, and each
+ * field is only converted to its column type when it is accessed.  Converted
+ * fields are cached until the struct is initialized with the next record.  The
+ * struct refers to the bytes of the record, so it is only valid until the
+ * buffer holding the record is reused.  The values of the columns are found
+ * by the {@link JsonRecordParser} the struct was created with, and records
+ * parsed ahead of time by the {@link JsonRecordReader} are read from the tape
+ * they come with.
+ *
+ * Every field is held in a writable owned by the struct, which is set again for
+ * each record, so deserializing a row allocates nothing for primitive columns.
+ * Which fields are null, and which have been converted, is kept in bitmaps.
+ */
+class JsonLazyStruct {
+    /**
+     * Converter for each column, indexed by column
+     */
+    private final JsonColumnConverter[] converters;
+
+    private final JsonPathTrie jsonPathTrie;
+
+    /**
+     * Finds the column values in the record
+     */
+    private final JsonRecordParser recordParser;
+
+    /**
+     * Record being deserialized
+     */
+    private byte[] bytes;
+    private int start;
+    private int length;
+
+    /**
+     * Whether the record has been parsed yet, and how
+     */
+    private boolean parsed;
+    private boolean malformed;
+
+    /**
+     * Counts and logs the records that cannot be read, or null for a nested struct
+     */
+    private final JsonMalformedRecordPolicy malformedRecordPolicy;
+
+    /**
+     * The tape the record was parsed onto ahead of time, or null
+     */
+    private JsonTape parsedTape;
+
+    /**
+     * The parser the values of the current record are found by
+     */
+    private JsonRecordParser parser;
+
+    /**
+     * The reused writable, or lazy nested value, of each field
+     */
+    private final Object[] fields;
+
+    /**
+     * Bitmaps of the fields that are null, and of those converted for this record
+     */
+    private final long[] nullBits;
+    private final long[] initedBits;
+
+    /**
+     * Reused by getFieldsAsList
+     */
+    private final ArrayList<Object> cachedList;
+
+    JsonLazyStruct(JsonColumnConverter[] converters, JsonPathTrie jsonPathTrie) {
+        this(converters, jsonPathTrie, null);
+    }
+
+    JsonLazyStruct(JsonColumnConverter[] converters, JsonPathTrie jsonPathTrie,
+        JsonMalformedRecordPolicy malformedRecordPolicy) {
+        this(converters, jsonPathTrie, malformedRecordPolicy,
+            new JsonRecordParser.StreamingParser(jsonPathTrie, converters.length));
+    }
+
+    /**
+     * @param recordParser finds the column values in the records, for the
+     *        columns of the trie
+     */
+    JsonLazyStruct(JsonColumnConverter[] converters, JsonPathTrie jsonPathTrie,
+        JsonMalformedRecordPolicy malformedRecordPolicy, JsonRecordParser recordParser) {
+        int numberOfColumns = converters.length;
+        this.converters = converters;
+        this.jsonPathTrie = jsonPathTrie;
+        this.malformedRecordPolicy = malformedRecordPolicy;
+        this.recordParser = recordParser;
+        this.fields = new Object[numberOfColumns];
+        for (int c = 0; c < numberOfColumns; c++) {
+            fields[c] = converters[c].createField();
+        }
+        this.nullBits = new long[(numberOfColumns + 63) >>> 6];
+        this.initedBits = new long[(numberOfColumns + 63) >>> 6];
+        this.cachedList = new ArrayList<Object>(numberOfColumns);
+    }
+
+    /**
+     * Sets the record for this struct, without parsing it
+     */
+    void init(byte[] recordBytes, int recordLength) {
+        init(recordBytes, 0, recordLength);
+    }
+
+    /**
+     * Sets the record for this struct to a range of the bytes, without parsing it
+     */
+    void init(byte[] recordBytes, int recordStart, int recordLength) {
+        bytes = recordBytes;
+        start = recordStart;
+        length = recordLength;
+        parsed = false;
+        parsedTape = null;
+        Arrays.fill(initedBits, 0L);
+    }
+
+    /**
+     * Sets the record for this struct, already parsed onto a tape which stays
+     * unchanged while the struct is in use
+     */
+    void init(byte[] recordBytes, int recordLength, JsonTape tape) {
+        init(recordBytes, 0, recordLength);
+        parsedTape = tape;
+    }
+
+    /**
+     * Gets a field, parsing the record first if needed
+     *
+     * @return the writable or lazy value of the field, or null
+     */
+    Object getField(int column) {
+        int word = column >>> 6;
+        long bit = 1L << column;
+        if ((initedBits[word] & bit) == 0) {
+            if (convertField(column)) {
+                nullBits[word] &= ~bit;
+            } else {
+                nullBits[word] |= bit;
+            }
+            initedBits[word] |= bit;
+        }
+        return (nullBits[word] & bit) == 0 ? fields[column] : null;
+    }
+
+    /**
+     * Gets all the fields, in column order
+     */
+    List<Object> getFieldsAsList() {
+        cachedList.clear();
+        for (int c = 0; c < fields.length; c++) {
+            cachedList.add(getField(c));
+        }
+        return cachedList;
+    }
+
+    /**
+     * Whether the parser cannot read the record, parsing it first if needed.
+     * Such a record has no fields.
+     */
+    boolean isMalformed() {
+        if (!parsed) {
+            parse();
+        }
+        return malformed;
+    }
+
+    private void parse() {
+        parsed = true;
+        malformed = false;
+        parser = null;
+
+        // Columns which are not read by the query are not in the trie
+        if (jsonPathTrie.size() == 0) {
+            return;
+        }
+
+        // Find the values of all columns in a single pass over the record,
+        // or over the tape it has been parsed onto already
+        parser = recordParser;
+        boolean read = parsedTape != null ? recordParser.parse(parsedTape, bytes, start, length)
+            : recordParser.parse(bytes, start, length);
+        if (!read) {
+            setMalformed(parser.getErrorOffset());
+            parser = null;
+        }
+    }
+
+    private void setMalformed(int errorOffset) {
+        malformed = true;
+        if (malformedRecordPolicy != null) {
+            malformedRecordPolicy.recordMalformed(bytes, start, length, errorOffset);
+        }
+    }
+
+    /**
+     * Sets the field object of a field from the record
+     *
+     * @return false if the field is null
+     */
+    private boolean convertField(int column) {
+        if (!parsed) {
+            parse();
+        }
+        return parser != null && parser.convert(column, converters[column], fields[column]);
+    }
+}
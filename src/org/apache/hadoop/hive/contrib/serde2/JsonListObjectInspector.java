@@ -0,0 +1,61 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.List;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * ObjectInspector for the {@link JsonLazyList} values of array columns.
+ * Elements are read straight from the list, so only the elements that are
+ * inspected are ever converted.
+ */
+class JsonListObjectInspector implements ListObjectInspector {
+    private final ObjectInspector elementObjectInspector;
+
+    JsonListObjectInspector(ObjectInspector elementObjectInspector) {
+        this.elementObjectInspector = elementObjectInspector;
+    }
+
+    @Override
+    public String getTypeName() {
+        return Constants.LIST_TYPE_NAME + "<" + elementObjectInspector.getTypeName() + ">";
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.LIST;
+    }
+
+    @Override
+    public ObjectInspector getListElementObjectInspector() {
+        return elementObjectInspector;
+    }
+
+    @Override
+    public Object getListElement(Object data, int index) {
+        if (data == null) {
+            return null;
+        }
+        return ((JsonLazyList) data).getElement(index);
+    }
+
+    @Override
+    public int getListLength(Object data) {
+        if (data == null) {
+            return -1;
+        }
+        return ((JsonLazyList) data).getLength();
+    }
+
+    @Override
+    public List<?> getList(Object data) {
+        if (data == null) {
+            return null;
+        }
+        return ((JsonLazyList) data).getList();
+    }
+}
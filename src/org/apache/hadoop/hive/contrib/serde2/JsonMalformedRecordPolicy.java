@@ -0,0 +1,187 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.serde2.SerDeException;
+
+/**
+ * What the JsonSerDe does with records that neither the scanner nor the
+ * lenient parser can read, set with the SERDEPROPERTIES
+ * <pre>
+ *      "json.malformed.policy"="null" | "skip" | "fail",
+ *      "json.malformed.max.rows"="100",
+ *      "json.malformed.max.percent"="1.5"
+ * </pre>
+ *
+ * With "null", the default, a malformed record is a row whose columns are all
+ * null, and it is only found when a column of the row is read.  With "skip",
+ * deserialize returns no row for it.  With "fail", malformed records are null
+ * rows until there are more of them than the maximum number of rows, or than
+ * the maximum percentage of the rows read, and the query then fails.  The
+ * maximum number of rows is 0 by default, and unlimited when only the
+ * percentage is set.  The percentage is only checked once enough rows have
+ * been read for it to mean something.  Records are only checked when the query reads
+ * at least one of their columns.
+ *
+ * Malformed records are counted, and a sample of them is logged, with where
+ * parsing failed and a preview of their first bytes: the first few, and then
+ * those whose count is a power of two, so that a corrupt input cannot flood
+ * the task logs.
+ */
+class JsonMalformedRecordPolicy {
+    /**
+     * Apache commons logger
+     */
+    private static final Log LOG = LogFactory.getLog(JsonMalformedRecordPolicy.class.getName());
+
+    static final String POLICY = "json.malformed.policy";
+    static final String MAX_ROWS = "json.malformed.max.rows";
+    static final String MAX_PERCENT = "json.malformed.max.percent";
+
+    enum Action {
+        NULL, SKIP, FAIL
+    }
+
+    /**
+     * Rows read before the percentage of malformed rows is checked
+     */
+    static final long PERCENT_MIN_ROWS = 1000;
+
+    /**
+     * Malformed records which are all logged, before only a sample is
+     */
+    static final long LOGGED_RECORDS = 10;
+
+    /**
+     * Bytes of a malformed record shown in the log
+     */
+    static final int PREVIEW_BYTES = 256;
+
+    private final Action action;
+    private final long maxRows;
+    private final double maxPercent;
+
+    /**
+     * Counted atomically, as a SerDe in the thread safe mode shares its policy
+     * between threads
+     */
+    private final AtomicLong malformedRows = new AtomicLong();
+
+    JsonMalformedRecordPolicy(Action action, long maxRows, double maxPercent) {
+        this.action = action;
+        this.maxRows = maxRows;
+        this.maxPercent = maxPercent;
+    }
+
+    /**
+     * Reads the policy from the table properties
+     *
+     * @throws SerDeException if a property has an invalid value
+     */
+    static JsonMalformedRecordPolicy fromProperties(Properties tableProperties) throws SerDeException {
+        String policy = tableProperties.getProperty(POLICY, "null").trim();
+        Action action;
+        try {
+            action = Action.valueOf(policy.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new SerDeException(POLICY + " must be one of null, skip or fail, not '" + policy + "'");
+        }
+
+        long maxRows;
+        double maxPercent;
+        try {
+            String maxPercentProperty = tableProperties.getProperty(MAX_PERCENT);
+            // A percentage set on its own is the only limit
+            String maxRowsProperty = tableProperties.getProperty(MAX_ROWS,
+                maxPercentProperty == null ? "0" : String.valueOf(Long.MAX_VALUE));
+            maxRows = Long.parseLong(maxRowsProperty.trim());
+            maxPercent = maxPercentProperty == null ? 100 : Double.parseDouble(maxPercentProperty.trim());
+        } catch (NumberFormatException e) {
+            throw new SerDeException("Invalid " + MAX_ROWS + " or " + MAX_PERCENT + ": " + e.getMessage());
+        }
+        if (maxRows < 0 || !(maxPercent >= 0 && maxPercent <= 100)) {
+            throw new SerDeException(MAX_ROWS + " must not be negative, and " + MAX_PERCENT
+                + " must be between 0 and 100");
+        }
+        return new JsonMalformedRecordPolicy(action, maxRows, maxPercent);
+    }
+
+    Action getAction() {
+        return action;
+    }
+
+    /**
+     * Whether every record must be checked as soon as it is deserialized
+     */
+    boolean isEager() {
+        return action != Action.NULL;
+    }
+
+    /**
+     * @return the number of malformed records found
+     */
+    long getMalformedRows() {
+        return malformedRows.get();
+    }
+
+    /**
+     * Counts a malformed record, and logs it if it is in the sample
+     *
+     * @param errorOffset where in the record parsing failed
+     */
+    void recordMalformed(byte[] bytes, int start, int length, int errorOffset) {
+        long malformedRows = this.malformedRows.incrementAndGet();
+        if (malformedRows > LOGGED_RECORDS && (malformedRows & (malformedRows - 1)) != 0) {
+            return;
+        }
+
+        StringBuilder message = new StringBuilder("Malformed JSON record #").append(malformedRows)
+            .append(" of ").append(length).append(" bytes, invalid at byte ").append(errorOffset)
+            .append(": ").append(preview(bytes, start, length));
+        if (malformedRows == LOGGED_RECORDS) {
+            message.append("; from now on only every power of two malformed record is logged");
+        }
+        LOG.warn(message);
+    }
+
+    /**
+     * Fails the query if there are too many malformed records
+     *
+     * @param rows the number of rows read so far
+     * @throws SerDeException if the policy is "fail" and a limit is exceeded
+     */
+    void check(long rows) throws SerDeException {
+        if (action != Action.FAIL) {
+            return;
+        }
+        long malformedRows = this.malformedRows.get();
+        if (malformedRows > maxRows) {
+            throw new SerDeException(malformedRows + " malformed JSON records, more than the "
+                + maxRows + " allowed by " + MAX_ROWS);
+        }
+        if (rows >= PERCENT_MIN_ROWS && malformedRows * 100.0 > maxPercent * rows) {
+            throw new SerDeException(malformedRows + " of " + rows + " JSON records are malformed, more than the "
+                + maxPercent + "% allowed by " + MAX_PERCENT);
+        }
+    }
+
+    /**
+     * The first bytes of a record as text, cut at a character boundary
+     */
+    static String preview(byte[] bytes, int start, int length) {
+        if (length <= PREVIEW_BYTES) {
+            return new String(bytes, start, length, JsonPathTrie.UTF8);
+        }
+        int end = start + PREVIEW_BYTES;
+        // Do not split a UTF-8 sequence
+        while (end > start && (bytes[end] & 0xC0) == 0x80) {
+            end--;
+        }
+        return new String(bytes, start, end - start, JsonPathTrie.UTF8) + "...";
+    }
+}
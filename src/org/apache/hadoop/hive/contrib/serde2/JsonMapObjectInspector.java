@@ -0,0 +1,69 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Map;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+
+/**
+ * ObjectInspector for the {@link JsonLazyMap} values of map columns.  Values
+ * are read straight from the map, so only the values that are inspected are
+ * ever converted.
+ */
+class JsonMapObjectInspector implements MapObjectInspector {
+    private final ObjectInspector keyObjectInspector;
+    private final ObjectInspector valueObjectInspector;
+
+    JsonMapObjectInspector(ObjectInspector keyObjectInspector, ObjectInspector valueObjectInspector) {
+        this.keyObjectInspector = keyObjectInspector;
+        this.valueObjectInspector = valueObjectInspector;
+    }
+
+    @Override
+    public String getTypeName() {
+        return Constants.MAP_TYPE_NAME + "<" + keyObjectInspector.getTypeName() + ","
+            + valueObjectInspector.getTypeName() + ">";
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.MAP;
+    }
+
+    @Override
+    public ObjectInspector getMapKeyObjectInspector() {
+        return keyObjectInspector;
+    }
+
+    @Override
+    public ObjectInspector getMapValueObjectInspector() {
+        return valueObjectInspector;
+    }
+
+    @Override
+    public Object getMapValueElement(Object data, Object key) {
+        if (data == null) {
+            return null;
+        }
+        return ((JsonLazyMap) data).getMapValueElement(key);
+    }
+
+    @Override
+    public Map<?, ?> getMap(Object data) {
+        if (data == null) {
+            return null;
+        }
+        return ((JsonLazyMap) data).getMap();
+    }
+
+    @Override
+    public int getMapSize(Object data) {
+        if (data == null) {
+            return -1;
+        }
+        return ((JsonLazyMap) data).getMapSize();
+    }
+}
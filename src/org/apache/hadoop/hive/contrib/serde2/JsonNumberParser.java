@@ -0,0 +1,495 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.math.BigInteger;
+
+/**
+ * Parses numbers straight from the UTF-8 bytes of a record, without building a
+ * String first.
+ *
+ * Floating point numbers are parsed with the Eisel-Lemire algorithm ("Number
+ * Parsing at a Gigabyte per Second", Daniel Lemire, 2021), which gives the
+ * correctly rounded result for nearly all inputs.  The rare inputs it cannot
+ * decide, and anything that is not a plain decimal number, are handed to
+ * Double.parseDouble or Float.parseFloat as a String, so the results are always
+ * exactly the same as theirs.  Nothing else is allocated.
+ *
+ * The try methods report bytes that are not a number with a sentinel instead
+ * of an exception, as the values of a column are often not numbers at all.
+ * The sentinel, Long.MIN_VALUE or NaN, is also a number, so a result equal
+ * to it is checked with isValid, which looks at the bytes again.
+ */
+final class JsonNumberParser {
+    /**
+     * Range of the decimal exponents in the table of powers of five
+     */
+    private static final int MIN_POWER = -342;
+    private static final int MAX_POWER = 308;
+
+    /**
+     * 128-bit approximations of 5^q for MIN_POWER <= q <= MAX_POWER, normalized
+     * so that the top bit is set, split into high and low halves.  Positive
+     * powers are truncated and negative powers are rounded up.
+     */
+    private static final long[] POWER_OF_FIVE_HIGH = new long[MAX_POWER - MIN_POWER + 1];
+    private static final long[] POWER_OF_FIVE_LOW = new long[MAX_POWER - MIN_POWER + 1];
+
+    /**
+     * Powers of ten that are exact in a double or a float
+     */
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[23];
+    private static final float[] FLOAT_POWERS_OF_TEN = new float[11];
+
+    static {
+        BigInteger twoTo128 = BigInteger.ONE.shiftLeft(128);
+        for (int q = MIN_POWER; q <= MAX_POWER; q++) {
+            BigInteger power;
+            if (q >= 0) {
+                power = BigInteger.valueOf(5).pow(q);
+                int bits = power.bitLength();
+                power = bits < 128 ? power.shiftLeft(128 - bits) : power.shiftRight(bits - 128);
+            } else {
+                BigInteger inverse = BigInteger.valueOf(5).pow(-q);
+                int bits = inverse.bitLength();
+                int shift = q >= -27 ? bits + 127 : 2 * bits + 128;
+                power = BigInteger.ONE.shiftLeft(shift).divide(inverse).add(BigInteger.ONE);
+                while (power.compareTo(twoTo128) >= 0) {
+                    power = power.shiftRight(1);
+                }
+            }
+            POWER_OF_FIVE_HIGH[q - MIN_POWER] = power.shiftRight(64).longValue();
+            POWER_OF_FIVE_LOW[q - MIN_POWER] = power.longValue();
+        }
+
+        DOUBLE_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < DOUBLE_POWERS_OF_TEN.length; i++) {
+            DOUBLE_POWERS_OF_TEN[i] = DOUBLE_POWERS_OF_TEN[i - 1] * 10;
+        }
+        FLOAT_POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < FLOAT_POWERS_OF_TEN.length; i++) {
+            FLOAT_POWERS_OF_TEN[i] = FLOAT_POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    /**
+     * Returned by tryParseLong for bytes that are not an integer in range
+     */
+    static final long INVALID_LONG = Long.MIN_VALUE;
+
+    /**
+     * The digits of Long.MIN_VALUE, without the sign
+     */
+    private static final byte[] MIN_VALUE_DIGITS = "9223372036854775808".getBytes(JsonPathTrie.UTF8);
+
+    /**
+     * Every character Double.parseDouble accepts, in decimal and hexadecimal
+     * numbers, NaN and Infinity, besides the control characters and spaces
+     * trimmed around them
+     */
+    private static final String JAVA_NUMBER_CHARACTERS = "0123456789+-.xXpPabcdefABCDEFNIinty";
+
+    private JsonNumberParser() {
+    }
+
+    /**
+     * Parses a decimal integer the way Long.parseLong does: an optional sign
+     * followed by at least one digit.
+     *
+     * @throws NumberFormatException if the bytes are not an integer or it does
+     *         not fit in a long
+     */
+    static long parseLong(byte[] bytes, int start, int end) {
+        return parseLong(bytes, start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Parses a decimal integer which must lie between min and max
+     *
+     * @throws NumberFormatException if the bytes are not an integer in range
+     */
+    static long parseLong(byte[] bytes, int start, int end, long min, long max) {
+        long result = tryParseLong(bytes, start, end, min, max);
+        if (!isValid(result, bytes, start, end, min)) {
+            throw invalid(bytes, start, end);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a decimal integer which must lie between min and max, without
+     * throwing an exception for bytes that are not one
+     *
+     * @return the integer, or INVALID_LONG if the bytes are not an integer in
+     *         range.  Check the result with isValid when min is Long.MIN_VALUE.
+     */
+    static long tryParseLong(byte[] bytes, int start, int end, long min, long max) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            return INVALID_LONG;
+        }
+
+        // Accumulate negatively, as Long.MIN_VALUE has no positive counterpart
+        long limit = negative ? min : -max;
+        long multiplyLimit = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9 || result < multiplyLimit) {
+                return INVALID_LONG;
+            }
+            result *= 10;
+            if (result < limit + digit) {
+                return INVALID_LONG;
+            }
+            result -= digit;
+        }
+        return negative ? result : -result;
+    }
+
+    /**
+     * Whether a result of tryParseLong is an integer rather than INVALID_LONG.
+     * Long.MIN_VALUE is both, so only then are the bytes looked at again.
+     */
+    static boolean isValid(long result, byte[] bytes, int start, int end, long min) {
+        if (result != INVALID_LONG) {
+            return true;
+        }
+        if (min != Long.MIN_VALUE || end - start < 2 || bytes[start] != '-') {
+            return false;
+        }
+        int i = start + 1;
+        while (i < end - 1 && bytes[i] == '0') {
+            i++;
+        }
+        if (end - i != MIN_VALUE_DIGITS.length) {
+            return false;
+        }
+        for (int d = 0; d < MIN_VALUE_DIGITS.length; d++) {
+            if (bytes[i + d] != MIN_VALUE_DIGITS[d]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether the bytes are a number in the grammar of JSON: an optional minus,
+     * an integer without leading zeros, an optional fraction and an optional
+     * exponent, each with at least one digit
+     */
+    static boolean isJsonNumber(byte[] bytes, int start, int end) {
+        int i = start;
+        if (i < end && bytes[i] == '-') {
+            i++;
+        }
+        int digits = i;
+        while (i < end && isDigit(bytes[i])) {
+            i++;
+        }
+        if (i == digits || (bytes[digits] == '0' && i - digits > 1)) {
+            return false;
+        }
+        if (i < end && bytes[i] == '.') {
+            int fraction = ++i;
+            while (i < end && isDigit(bytes[i])) {
+                i++;
+            }
+            if (i == fraction) {
+                return false;
+            }
+        }
+        if (i < end && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            if (i < end && (bytes[i] == '+' || bytes[i] == '-')) {
+                i++;
+            }
+            int exponent = i;
+            while (i < end && isDigit(bytes[i])) {
+                i++;
+            }
+            if (i == exponent) {
+                return false;
+            }
+        }
+        return i == end;
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Parses a number exactly as Double.parseDouble would parse its text
+     *
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    static double parseDouble(byte[] bytes, int start, int end) {
+        double result = tryParseDouble(bytes, start, end);
+        if (!isValid(result, bytes, start, end)) {
+            throw invalid(bytes, start, end);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a number exactly as Float.parseFloat would parse its text.  The
+     * float is rounded once from the decimal number, not through a double.
+     *
+     * @throws NumberFormatException if the bytes are not a number
+     */
+    static float parseFloat(byte[] bytes, int start, int end) {
+        float result = tryParseFloat(bytes, start, end);
+        if (!isValid(result, bytes, start, end)) {
+            throw invalid(bytes, start, end);
+        }
+        return result;
+    }
+
+    /**
+     * Parses a number as parseDouble does, without throwing an exception for
+     * bytes that are not one
+     *
+     * @return the number, or NaN if the bytes are not a number.  Check a NaN
+     *         result with isValid.
+     */
+    static double tryParseDouble(byte[] bytes, int start, int end) {
+        return parseFloatingPoint(bytes, start, end, false);
+    }
+
+    /**
+     * Parses a number as parseFloat does, without throwing an exception for
+     * bytes that are not one
+     *
+     * @return the number, or NaN if the bytes are not a number.  Check a NaN
+     *         result with isValid.
+     */
+    static float tryParseFloat(byte[] bytes, int start, int end) {
+        return (float) parseFloatingPoint(bytes, start, end, true);
+    }
+
+    /**
+     * Whether a result of tryParseDouble or tryParseFloat is a number rather
+     * than the NaN for bytes that are not one.  Only a NaN is looked at again,
+     * as the text "NaN" is a number to Double.parseDouble.
+     */
+    static boolean isValid(double result, byte[] bytes, int start, int end) {
+        if (result == result) {
+            return true;
+        }
+        // The whitespace Double.parseDouble trims, and the sign of the NaN
+        while (start < end && bytes[start] >= 0 && bytes[start] <= ' ') {
+            start++;
+        }
+        while (end > start && bytes[end - 1] >= 0 && bytes[end - 1] <= ' ') {
+            end--;
+        }
+        if (start < end && (bytes[start] == '-' || bytes[start] == '+')) {
+            start++;
+        }
+        return end - start == 3 && bytes[start] == 'N' && bytes[start + 1] == 'a' && bytes[start + 2] == 'N';
+    }
+
+    /**
+     * Parses a double or, for single, a float, which is returned as the double
+     * of exactly the same value
+     */
+    private static double parseFloatingPoint(byte[] bytes, int start, int end, boolean single) {
+        long significand = 0;
+        int exponent = 0;
+        boolean negative = false;
+        boolean exact = true;
+
+        // Split the number into a significand of up to 19 digits and a decimal exponent
+        int i = start;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        int digits = 0;
+        boolean anyDigits = false;
+        for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+            anyDigits = true;
+            if (digits < 19) {
+                significand = significand * 10 + (bytes[i] - '0');
+                digits += significand == 0 ? 0 : 1;
+            } else {
+                exact &= bytes[i] == '0';
+                exponent++;
+            }
+        }
+        if (i < end && bytes[i] == '.') {
+            for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                anyDigits = true;
+                if (digits < 19) {
+                    significand = significand * 10 + (bytes[i] - '0');
+                    digits += significand == 0 ? 0 : 1;
+                    exponent--;
+                } else {
+                    exact &= bytes[i] == '0';
+                }
+            }
+        }
+        if (i < end && anyDigits && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponentStart = i;
+            int explicitExponent = 0;
+            for (; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                // Anything this large is zero or infinite anyway
+                explicitExponent = Math.min(explicitExponent * 10 + (bytes[i] - '0'), 100000);
+            }
+            anyDigits = i > exponentStart;
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        // Infinity, NaN, hexadecimal, type suffixes, whitespace and errors
+        if (!anyDigits || i != end) {
+            return slowParse(bytes, start, end, single);
+        }
+
+        if (significand == 0) {
+            return negative ? -0.0 : 0.0;
+        }
+
+        // Clinger's fast path: both numbers are exact, so one operation rounds correctly
+        double value;
+        if (exact && !single && significand >= 0 && significand <= (1L << 53)
+            && exponent >= -22 && exponent <= 22) {
+            value = (double) significand;
+            value = exponent < 0 ? value / DOUBLE_POWERS_OF_TEN[-exponent] : value * DOUBLE_POWERS_OF_TEN[exponent];
+        } else if (exact && single && significand >= 0 && significand <= (1L << 24)
+            && exponent >= -10 && exponent <= 10) {
+            float floatValue = (float) significand;
+            value = exponent < 0 ? floatValue / FLOAT_POWERS_OF_TEN[-exponent]
+                : floatValue * FLOAT_POWERS_OF_TEN[exponent];
+        } else {
+            int mantissaBits = single ? 23 : 52;
+            int exponentBias = single ? 127 : 1023;
+            long bits = eiselLemire(significand, exponent, mantissaBits, exponentBias);
+            if (bits >= 0 && !exact
+                && eiselLemire(significand + 1, exponent, mantissaBits, exponentBias) != bits) {
+                // Digits were dropped, and they could change the result
+                bits = -1;
+            }
+            if (bits < 0) {
+                return slowParse(bytes, start, end, single);
+            }
+            value = single ? Float.intBitsToFloat((int) bits) : Double.longBitsToDouble(bits);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the number as Double.parseDouble or Float.parseFloat do
+     *
+     * @return the number, or NaN if it is not one
+     */
+    private static double slowParse(byte[] bytes, int start, int end, boolean single) {
+        // Most text that is not a number is told apart without an exception
+        for (int i = start; i < end; i++) {
+            if ((bytes[i] < 0 || bytes[i] > ' ') && JAVA_NUMBER_CHARACTERS.indexOf(bytes[i]) < 0) {
+                return Double.NaN;
+            }
+        }
+        String text = new String(bytes, start, end - start, JsonPathTrie.UTF8);
+        try {
+            return single ? Float.parseFloat(text) : Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Computes the closest binary floating point number to w * 10^q, for w taken
+     * as an unsigned 64-bit integer.  Subnormal and infinite results, and
+     * results that cannot be decided from 128 bits of the power of ten, are
+     * left to the caller.
+     *
+     * @param mantissaBits explicit mantissa bits of the result, 52 for a double
+     * @param exponentBias exponent bias of the result, 1023 for a double
+     * @return the bits of the positive result, or -1 if it was not decided
+     */
+    static long eiselLemire(long w, int q, int mantissaBits, int exponentBias) {
+        if (w == 0 || q < MIN_POWER || q > MAX_POWER) {
+            return -1;
+        }
+
+        int leadingZeros = Long.numberOfLeadingZeros(w);
+        w <<= leadingZeros;
+        long exponent = ((217706L * q) >> 16) + 64 + exponentBias - leadingZeros;
+
+        // The product of w and the power of five, keeping the top 128 bits
+        int shift = 64 - mantissaBits - 3;
+        long precisionMask = (1L << shift) - 1;
+        long high = multiplyHigh(w, POWER_OF_FIVE_HIGH[q - MIN_POWER]);
+        long low = w * POWER_OF_FIVE_HIGH[q - MIN_POWER];
+        if ((high & precisionMask) == precisionMask && unsignedLess(low + w, w)) {
+            // Not enough bits to round, so use the lower half of the power as well
+            long lowHigh = multiplyHigh(w, POWER_OF_FIVE_LOW[q - MIN_POWER]);
+            long lowLow = w * POWER_OF_FIVE_LOW[q - MIN_POWER];
+            long mergedLow = low + lowHigh;
+            long mergedHigh = unsignedLess(mergedLow, low) ? high + 1 : high;
+            if ((mergedHigh & precisionMask) == precisionMask && mergedLow + 1 == 0 && unsignedLess(lowLow + w, w)) {
+                return -1;
+            }
+            high = mergedHigh;
+            low = mergedLow;
+        }
+
+        // Keep one bit more than the mantissa, for rounding
+        long upperBit = high >>> 63;
+        long mantissa = high >>> (upperBit + shift);
+        exponent -= 1 ^ upperBit;
+
+        // Exactly half way between two floats, which needs the full number to round to even
+        if (low == 0 && (high & precisionMask) == 0 && (mantissa & 3) == 1) {
+            return -1;
+        }
+
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if (mantissa >>> (mantissaBits + 1) != 0) {
+            mantissa >>>= 1;
+            exponent++;
+        }
+
+        // Subnormal, infinite or NaN
+        if (exponent <= 0 || exponent >= 2 * exponentBias + 1) {
+            return -1;
+        }
+        return exponent << mantissaBits | (mantissa & ((1L << mantissaBits) - 1));
+    }
+
+    /**
+     * The high 64 bits of the unsigned 128-bit product of a and b
+     */
+    static long multiplyHigh(long a, long b) {
+        long a0 = a & 0xFFFFFFFFL;
+        long a1 = a >>> 32;
+        long b0 = b & 0xFFFFFFFFL;
+        long b1 = b >>> 32;
+        long t = a1 * b0 + ((a0 * b0) >>> 32);
+        long w1 = a0 * b1 + (t & 0xFFFFFFFFL);
+        return a1 * b1 + (t >>> 32) + (w1 >>> 32);
+    }
+
+    private static boolean unsignedLess(long a, long b) {
+        return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+    }
+
+    private static NumberFormatException invalid(byte[] bytes, int start, int end) {
+        return new NumberFormatException("For input string: \""
+            + new String(bytes, start, end - start, JsonPathTrie.UTF8) + "\"");
+    }
+}
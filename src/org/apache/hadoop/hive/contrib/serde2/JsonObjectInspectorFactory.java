@@ -0,0 +1,46 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.ListTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.MapTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.StructTypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * Creates the ObjectInspectors for the values produced by the
+ * {@link JsonColumnConverter} of each column type: the standard writable
+ * ObjectInspectors for primitive types, and ObjectInspectors reading the lazy
+ * values of array, map and struct types.
+ */
+final class JsonObjectInspectorFactory {
+    private JsonObjectInspectorFactory() {
+    }
+
+    static ObjectInspector getObjectInspector(TypeInfo typeInfo) {
+        switch (typeInfo.getCategory()) {
+            case LIST:
+                return new JsonListObjectInspector(
+                    getObjectInspector(((ListTypeInfo) typeInfo).getListElementTypeInfo()));
+            case MAP:
+                MapTypeInfo mapTypeInfo = (MapTypeInfo) typeInfo;
+                return new JsonMapObjectInspector(getObjectInspector(mapTypeInfo.getMapKeyTypeInfo()),
+                    getObjectInspector(mapTypeInfo.getMapValueTypeInfo()));
+            case STRUCT:
+                StructTypeInfo structTypeInfo = (StructTypeInfo) typeInfo;
+                List<TypeInfo> fieldTypes = structTypeInfo.getAllStructFieldTypeInfos();
+                List<ObjectInspector> fieldObjectInspectors = new ArrayList<ObjectInspector>(fieldTypes.size());
+                for (TypeInfo fieldType : fieldTypes) {
+                    fieldObjectInspectors.add(getObjectInspector(fieldType));
+                }
+                return new JsonStructObjectInspector(structTypeInfo.getAllStructFieldNames(), fieldObjectInspectors);
+            default:
+                return TypeInfoUtils.getStandardWritableObjectInspectorFromTypeInfo(typeInfo);
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The shape of the JSON document a row is serialized into, rebuilt from the
+ * JSON paths of the columns.
+ *
+ * The plan is a tree of object members and array elements with a column at
+ * each leaf, so that the columns mapped to "$.search_result.requestId" and
+ * "$.search_result.hits" are written back as members of one "search_result"
+ * object.  It is built once when the SerDe is initialized, with every key
+ * already encoded as the UTF-8 bytes written before its value, so serializing a
+ * row only streams the tree.
+ *
+ * Array elements missing between the indexes of the paths are written as
+ * null.  A path that leads below the path of another column cannot be written,
+ * because the value of that column takes its place, so such columns are left
+ * out with a warning.  Array indexes next to object keys in the same object
+ * are written as keys.
+ */
+class JsonOutputPlan {
+    /**
+     * Apache commons logger
+     */
+    private static final Log LOG = LogFactory.getLog(JsonOutputPlan.class.getName());
+
+    /**
+     * A value in the output document
+     */
+    static final class Node {
+        /**
+         * Bytes written before the value: the separator from the previous
+         * value, and the quoted key for an object member
+         */
+        final byte[] prefix;
+
+        /**
+         * Column whose value is written here, or -1 for an object, an array or
+         * a null array element
+         */
+        final int column;
+
+        /**
+         * Members or elements, in order, if this is an object or an array
+         */
+        final Node[] children;
+
+        /**
+         * Whether the children are array elements rather than object members
+         */
+        final boolean array;
+
+        Node(byte[] prefix, int column, Node[] children, boolean array) {
+            this.prefix = prefix;
+            this.column = column;
+            this.children = children;
+            this.array = array;
+        }
+    }
+
+    private static final byte[] NO_PREFIX = new byte[0];
+    private static final byte[] COMMA = { ',' };
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    private final Node root;
+
+    private final int numberOfColumns;
+
+    /**
+     * @param trie the paths of all the columns of the table
+     */
+    JsonOutputPlan(JsonPathTrie trie, int numberOfColumns) {
+        this.numberOfColumns = numberOfColumns;
+        this.root = build(trie.getRoot(), NO_PREFIX);
+    }
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the number of fields a serialized row must have
+     */
+    int getNumberOfColumns() {
+        return numberOfColumns;
+    }
+
+    private Node build(JsonPathTrie.Node trieNode, byte[] prefix) {
+        if (trieNode.columns.length > 0) {
+            // The first column mapped to the path is written, and nothing can be written below it
+            for (int c = 1; c < trieNode.columns.length; c++) {
+                LOG.warn("Column " + trieNode.columns[c] + " has the same JSON path as column "
+                    + trieNode.columns[0] + " and is not serialized");
+            }
+            if (trieNode.children.length > 0) {
+                LOG.warn(String.format("%d column(s) have JSON paths below the path of column %d "
+                    + "and are not serialized", trieNode.columnCount - trieNode.columns.length, trieNode.columns[0]));
+            }
+            return new Node(prefix, trieNode.columns[0], NO_CHILDREN, false);
+        }
+
+        boolean array = true;
+        for (JsonPathTrie.Node child : trieNode.children) {
+            array &= child.isArrayElement();
+        }
+
+        List<Node> children = new ArrayList<Node>();
+        if (array) {
+            JsonPathTrie.Node[] elements = trieNode.children.clone();
+            Arrays.sort(elements, new Comparator<JsonPathTrie.Node>() {
+                public int compare(JsonPathTrie.Node a, JsonPathTrie.Node b) {
+                    return a.index < b.index ? -1 : (a.index == b.index ? 0 : 1);
+                }
+            });
+            for (JsonPathTrie.Node element : elements) {
+                // Elements before the index of the path are null
+                while (children.size() < element.index) {
+                    children.add(new Node(children.isEmpty() ? NO_PREFIX : COMMA, -1, NO_CHILDREN, false));
+                }
+                children.add(build(element, children.isEmpty() ? NO_PREFIX : COMMA));
+            }
+        } else {
+            for (JsonPathTrie.Node member : trieNode.children) {
+                String key = member.isArrayElement() ? Integer.toString(member.index) : member.key;
+                children.add(build(member, memberPrefix(key, children.isEmpty())));
+            }
+        }
+        return new Node(prefix, -1, children.toArray(new Node[children.size()]), array);
+    }
+
+    /**
+     * Encodes the separator and the quoted key written before the value of an
+     * object member
+     */
+    private static byte[] memberPrefix(String key, boolean first) {
+        JsonRecordWriter writer = new JsonRecordWriter();
+        writer.writeString(key);
+        byte[] quotedKey = Arrays.copyOf(writer.getBytes(), writer.getLength());
+
+        byte[] prefix = new byte[(first ? 0 : 1) + quotedKey.length + 1];
+        if (!first) {
+            prefix[0] = ',';
+        }
+        System.arraycopy(quotedKey, 0, prefix, first ? 0 : 1, quotedKey.length);
+        prefix[prefix.length - 1] = ':';
+        return prefix;
+    }
+}
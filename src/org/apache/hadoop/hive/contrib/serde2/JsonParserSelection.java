@@ -0,0 +1,153 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.serde2.SerDeException;
+
+/**
+ * How the adaptive parser backend picks the backend reading the records of
+ * a table, set with the SERDEPROPERTIES
+ * <pre>
+ *      "json.parser"="adaptive",
+ *      "json.parser.sample.rows"="100",
+ *      "json.parser.recheck.rows"="100000"
+ * </pre>
+ *
+ * The first sample rows read by each row object of the SerDe are parsed in
+ * turn by the streaming and the tape backend, and timed.  The backend that
+ * took less time per row then reads the records, until the recheck rows have
+ * been read and the next sample is taken.  Streaming, which steps over the
+ * values it does not read, wins when few columns are read out of large
+ * records, and the tape when most columns are read out of small ones.
+ *
+ * The dom backend is not a candidate.  Its json-smart parser makes maps and
+ * lists of every value, which is slower than the tape, and it reads some
+ * records differently from the others, so a change of backend would change
+ * the rows of a query.
+ *
+ * Every choice is counted, and logged when it changes the backend, along with
+ * the time per row of each candidate.  The counts are shared by the threads of
+ * a SerDe in the thread safe mode.
+ */
+class JsonParserSelection {
+    /**
+     * Apache commons logger
+     */
+    private static final Log LOG = LogFactory.getLog(JsonParserSelection.class.getName());
+
+    static final String SAMPLE_ROWS = "json.parser.sample.rows";
+    static final String RECHECK_ROWS = "json.parser.recheck.rows";
+
+    static final int DEFAULT_SAMPLE_ROWS = 100;
+    static final int DEFAULT_RECHECK_ROWS = 100000;
+
+    /**
+     * The backends the adaptive backend picks from
+     */
+    static final JsonRecordParser.Backend[] CANDIDATES = {
+        JsonRecordParser.Backend.STREAMING, JsonRecordParser.Backend.TAPE
+    };
+
+    private final int sampleRows;
+    private final int recheckRows;
+
+    /**
+     * The number of times each backend was picked, indexed by backend, and
+     * the number of times the backend changed
+     */
+    private final AtomicLongArray choices = new AtomicLongArray(JsonRecordParser.Backend.values().length);
+    private final AtomicLong switches = new AtomicLong();
+
+    JsonParserSelection(int sampleRows, int recheckRows) {
+        this.sampleRows = sampleRows;
+        this.recheckRows = recheckRows;
+    }
+
+    /**
+     * Reads the selection settings from the table properties
+     *
+     * @throws SerDeException if a setting is not a positive number
+     */
+    static JsonParserSelection fromProperties(Properties tableProperties) throws SerDeException {
+        int sampleRows;
+        int recheckRows;
+        try {
+            sampleRows = Integer.parseInt(tableProperties.getProperty(SAMPLE_ROWS, "" + DEFAULT_SAMPLE_ROWS).trim());
+            recheckRows = Integer.parseInt(tableProperties.getProperty(RECHECK_ROWS, "" + DEFAULT_RECHECK_ROWS)
+                .trim());
+        } catch (NumberFormatException e) {
+            throw new SerDeException("Invalid " + SAMPLE_ROWS + " or " + RECHECK_ROWS + ": " + e.getMessage());
+        }
+        if (sampleRows < CANDIDATES.length || recheckRows < 1) {
+            throw new SerDeException(SAMPLE_ROWS + " must be at least " + CANDIDATES.length + ", and "
+                + RECHECK_ROWS + " at least 1");
+        }
+        return new JsonParserSelection(sampleRows, recheckRows);
+    }
+
+    /**
+     * @return the number of rows timed before each choice
+     */
+    int getSampleRows() {
+        return sampleRows;
+    }
+
+    /**
+     * @return the number of rows read with the backend picked, before the
+     *         next sample is taken
+     */
+    int getRecheckRows() {
+        return recheckRows;
+    }
+
+    /**
+     * Counts and logs a choice
+     *
+     * @param previous the backend picked last by the same parser, or null
+     * @param nanosPerRow the time per row of each candidate over the sample
+     */
+    void recordChoice(JsonRecordParser.Backend previous, JsonRecordParser.Backend chosen, double[] nanosPerRow) {
+        choices.incrementAndGet(chosen.ordinal());
+        boolean changed = previous != chosen;
+        if (changed && previous != null) {
+            switches.incrementAndGet();
+        }
+        if (changed ? LOG.isInfoEnabled() : LOG.isDebugEnabled()) {
+            StringBuilder message = new StringBuilder("Reading JSON records with the ")
+                .append(chosen.name().toLowerCase()).append(" parser backend");
+            if (changed && previous != null) {
+                message.append(" instead of ").append(previous.name().toLowerCase());
+            }
+            for (int c = 0; c < CANDIDATES.length; c++) {
+                message.append(c == 0 ? " (" : ", ").append(CANDIDATES[c].name().toLowerCase()).append(' ')
+                    .append(Math.round(nanosPerRow[c])).append(" ns per row");
+            }
+            message.append(')');
+            if (changed) {
+                LOG.info(message);
+            } else {
+                LOG.debug(message);
+            }
+        }
+    }
+
+    /**
+     * @return the number of times the backend was picked
+     */
+    long getChoices(JsonRecordParser.Backend backend) {
+        return choices.get(backend.ordinal());
+    }
+
+    /**
+     * @return the number of times a parser changed from one backend to another
+     */
+    long getSwitches() {
+        return switches.get();
+    }
+}
@@ -0,0 +1,426 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import com.jayway.jsonpath.JsonPath;
+import com.jayway.jsonpath.internal.PathToken;
+import com.jayway.jsonpath.internal.PathTokenizer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * All of the column JSON paths of a table merged into a single trie.
+ *
+ * Columns whose paths share a prefix share the trie nodes for that prefix, so a
+ * record is walked once from the root for all columns instead of once per
+ * column.  Only definite paths (object keys and array indexes) can be added.
+ */
+class JsonPathTrie {
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * A single step of a path: either an object key or an array index
+     */
+    static final class Node {
+        /**
+         * Object key leading to this node, or null if this node is an array element
+         */
+        final String key;
+
+        /**
+         * UTF-8 encoding of the key, for matching keys against raw record bytes,
+         * and its first and last eight bytes packed into longs
+         */
+        final byte[] keyBytes;
+        final long keyPrefix;
+        final long keySuffix;
+
+        /**
+         * Array index leading to this node, or -1 if this node is an object member
+         */
+        final int index;
+
+        /**
+         * Position of this node among the children of its parent
+         */
+        final int ordinal;
+
+        /**
+         * Child nodes, in the order they were first added
+         */
+        Node[] children = new Node[0];
+
+        /**
+         * The children which are object members, in an open addressing hash
+         * table on their packed keys, so that finding the child for a key does
+         * not depend on the number of children
+         */
+        private Node[] keyTable = new Node[0];
+        private int keyCount;
+
+        /**
+         * Columns whose path ends at this node
+         */
+        int[] columns = new int[0];
+
+        /**
+         * Number of columns whose path ends at or below this node
+         */
+        int columnCount;
+
+        Node(String key, int index, int ordinal) {
+            this.key = key;
+            this.keyBytes = key == null ? null : key.getBytes(UTF8);
+            this.keyPrefix = key == null ? 0 : packPrefix(keyBytes, 0, keyBytes.length);
+            this.keySuffix = key == null ? 0 : packSuffix(keyBytes, 0, keyBytes.length);
+            this.index = index;
+            this.ordinal = ordinal;
+        }
+
+        boolean isArrayElement() {
+            return key == null;
+        }
+
+        /**
+         * Finds the child for the object key between keyStart and keyEnd of the
+         * raw bytes, unescaping it first if it contains escape sequences.
+         *
+         * The key is packed into the longs of its first and last eight bytes,
+         * which are hashed to find its slot in the table.  Keys of up to 16
+         * bytes are then matched by comparing the two longs and the length, and
+         * only longer keys are compared byte by byte.
+         */
+        Node findChild(byte[] bytes, int keyStart, int keyEnd, boolean escaped) {
+            if (keyCount == 0) {
+                return null;
+            }
+            if (escaped) {
+                String unescaped = JsonRecordScanner.unescape(new String(bytes, keyStart, keyEnd - keyStart, UTF8));
+                for (Node child : children) {
+                    if (unescaped.equals(child.key)) {
+                        return child;
+                    }
+                }
+                return null;
+            }
+
+            int keyLength = keyEnd - keyStart;
+            long prefix = packPrefix(bytes, keyStart, keyLength);
+            long suffix = keyLength <= 8 ? prefix : packSuffix(bytes, keyStart, keyLength);
+            int mask = keyTable.length - 1;
+            for (int slot = hash(prefix, suffix, keyLength) & mask; ; slot = (slot + 1) & mask) {
+                Node child = keyTable[slot];
+                if (child == null) {
+                    return null;
+                }
+                if (child.keyPrefix == prefix && child.keySuffix == suffix && child.keyBytes.length == keyLength
+                    && (keyLength <= 16 || sameBytes(child.keyBytes, bytes, keyStart))) {
+                    return child;
+                }
+            }
+        }
+
+        /**
+         * Finds the child for an array index
+         */
+        Node findElement(int elementIndex) {
+            for (Node child : children) {
+                if (child.isArrayElement() && child.index == elementIndex) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        Node child(String childKey, int childIndex) {
+            if (childKey != null) {
+                byte[] childKeyBytes = childKey.getBytes(UTF8);
+                Node child = findChild(childKeyBytes, 0, childKeyBytes.length, false);
+                if (child != null) {
+                    return child;
+                }
+            } else {
+                Node child = findElement(childIndex);
+                if (child != null) {
+                    return child;
+                }
+            }
+
+            Node child = new Node(childKey, childIndex, children.length);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            if (childKey != null) {
+                addToKeyTable(child);
+            }
+            return child;
+        }
+
+        /**
+         * Adds a member child to the key table, keeping the table at most half full
+         */
+        private void addToKeyTable(Node child) {
+            if (2 * (keyCount + 1) > keyTable.length) {
+                Node[] old = keyTable;
+                keyTable = new Node[Math.max(8, old.length * 2)];
+                for (Node member : old) {
+                    if (member != null) {
+                        insert(member);
+                    }
+                }
+            }
+            insert(child);
+            keyCount++;
+        }
+
+        private void insert(Node child) {
+            int mask = keyTable.length - 1;
+            int slot = hash(child.keyPrefix, child.keySuffix, child.keyBytes.length) & mask;
+            while (keyTable[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keyTable[slot] = child;
+        }
+    }
+
+    /**
+     * The children of the nodes whose objects are being walked that have
+     * already been met in those objects, so that only the first of duplicated
+     * keys is read.  A set is opened for each object on the path being walked,
+     * and the sets are kept in one array reused for every record.
+     */
+    static final class SeenMembers {
+        private long[] words = new long[8];
+        private int top;
+
+        /**
+         * Forgets every set, before a record is walked
+         */
+        void clear() {
+            top = 0;
+        }
+
+        /**
+         * Opens an empty set for an object walked with a node
+         *
+         * @return the mark of the set, which is closed again with it
+         */
+        int open(Node node) {
+            int mark = top;
+            int size = (node.children.length + 63) >>> 6;
+            if (mark + size > words.length) {
+                words = Arrays.copyOf(words, Math.max(words.length * 2, mark + size));
+            }
+            Arrays.fill(words, mark, mark + size, 0L);
+            top = mark + size;
+            return mark;
+        }
+
+        /**
+         * Adds a child to the set opened last
+         *
+         * @return false if the child was met already in the same object
+         */
+        boolean add(int mark, Node child) {
+            int word = mark + (child.ordinal >>> 6);
+            long bit = 1L << child.ordinal;
+            if ((words[word] & bit) != 0) {
+                return false;
+            }
+            words[word] |= bit;
+            return true;
+        }
+
+        /**
+         * Closes a set, and every set opened after it
+         */
+        void close(int mark) {
+            top = mark;
+        }
+    }
+
+    /**
+     * Packs the first eight bytes of a key into a little endian long, padded
+     * with zero bytes
+     */
+    static long packPrefix(byte[] bytes, int start, int length) {
+        long packed = 0;
+        for (int i = Math.min(length, 8) - 1; i >= 0; i--) {
+            packed = (packed << 8) | (bytes[start + i] & 0xFF);
+        }
+        return packed;
+    }
+
+    /**
+     * Packs the last eight bytes of a key, or the whole key if it is shorter
+     */
+    static long packSuffix(byte[] bytes, int start, int length) {
+        return length <= 8 ? packPrefix(bytes, start, length) : packPrefix(bytes, start + length - 8, 8);
+    }
+
+    private static int hash(long prefix, long suffix, int length) {
+        long h = (prefix ^ Long.rotateLeft(suffix, 29) ^ length) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32);
+    }
+
+    private static boolean sameBytes(byte[] keyBytes, byte[] bytes, int start) {
+        for (int i = 0; i < keyBytes.length; i++) {
+            if (keyBytes[i] != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The node for the root of the document, "$"
+     */
+    private final Node root = new Node(null, -1, 0);
+
+    /**
+     * The number of columns added to this trie
+     */
+    private int size;
+
+    /**
+     * One more than the highest column added
+     */
+    private int columnLimit;
+
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * @return the number of columns added to this trie
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return one more than the highest column added, so the size of an array
+     *         indexed by the columns of this trie
+     */
+    int getColumnLimit() {
+        return columnLimit;
+    }
+
+    /**
+     * @return whether every path of the trie is a single member of the root
+     *         object, such as "$.id"
+     */
+    boolean isFlat() {
+        if (root.columns.length > 0 || root.children.length == 0) {
+            return false;
+        }
+        for (Node child : root.children) {
+            if (child.isArrayElement() || child.children.length > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds the definite path of a column to the trie
+     */
+    void add(int column, JsonPath path) {
+        add(column, steps(path));
+    }
+
+    /**
+     * Adds a path given as its steps: String keys and Integer indexes
+     */
+    void add(int column, List<Object> steps) {
+        Node node = root;
+        node.columnCount++;
+        for (Object step : steps) {
+            if (step instanceof Integer) {
+                node = node.child(null, (Integer) step);
+            } else {
+                node = node.child((String) step, -1);
+            }
+            node.columnCount++;
+        }
+
+        node.columns = Arrays.copyOf(node.columns, node.columns.length + 1);
+        node.columns[node.columns.length - 1] = column;
+        size++;
+        columnLimit = Math.max(columnLimit, column + 1);
+    }
+
+    /**
+     * Splits a compiled path into its steps: a String key for object members or
+     * an Integer index for array elements.
+     */
+    static List<Object> steps(JsonPath path) {
+        List<Object> steps = new ArrayList<Object>();
+        for (PathToken token : new PathTokenizer(path.getPath())) {
+            if (token.isRootToken()) {
+                continue;
+            }
+
+            if (token.isArrayIndexToken()) {
+                steps.add(Integer.valueOf(token.getArrayIndex()));
+            } else {
+                String fragment = token.getFragment();
+                // The tokenizer keeps the brackets around double quoted keys
+                if (fragment.length() >= 4 && fragment.startsWith("[\"") && fragment.endsWith("\"]")) {
+                    fragment = fragment.substring(2, fragment.length() - 2);
+                }
+                steps.add(fragment);
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Walks a parsed JSON document of maps and lists once and stores the value
+     * found for each column in values, indexed by column.  Columns whose path does not exist
+     * in the document are left untouched.
+     *
+     * @return the number of columns found
+     */
+    int evaluate(Object document, Object[] values) {
+        return evaluate(root, document, values);
+    }
+
+    private int evaluate(Node node, Object value, Object[] values) {
+        int found = 0;
+        for (int column : node.columns) {
+            values[column] = value;
+            found++;
+        }
+
+        if (found == node.columnCount || value == null) {
+            return found;
+        }
+
+        for (Node child : node.children) {
+            Object childValue = null;
+            if (child.isArrayElement()) {
+                if (value instanceof List) {
+                    List<?> list = (List<?>) value;
+                    if (child.index < list.size()) {
+                        childValue = list.get(child.index);
+                    }
+                }
+            } else if (value instanceof Map) {
+                childValue = ((Map<?, ?>) value).get(child.key);
+            }
+
+            if (childValue != null) {
+                found += evaluate(child, childValue, values);
+                // Stop as soon as every column below this node has been found
+                if (found == node.columnCount) {
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,252 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Reads lines of JSON on a background thread, ahead of the thread calling
+ * next, so that reading the split overlaps with deserializing its rows.
+ *
+ * Lines are read into a pool of batches of about BATCH_BYTES each, and at
+ * least two.  While the rows of one batch are returned, the background thread
+ * fills the others, and it waits once they are all full.  A batch holds lines
+ * up to its share of the read ahead bytes, and at least one line, so the lines
+ * held by the reader are bounded by the read ahead bytes and a long line per
+ * batch.  Records are reused once their rows have been returned, unless a
+ * long line has grown their buffer beyond the share of a batch.
+ *
+ * Only the lines are read ahead: they are parsed by the SerDe, or by the pool
+ * of a {@link JsonRecordReader} reading from this reader, as walking a tape
+ * costs the thread calling next more than scanning the line for its columns.
+ */
+class JsonReadAheadRecordReader implements RecordReader<LongWritable, Text> {
+    /**
+     * The fewest batches in the pool: the one rows are returned from, and one
+     * being filled ahead of it
+     */
+    static final int MIN_BATCHES = 2;
+
+    /**
+     * The bytes of lines in a batch, small enough for the rows of the first
+     * batch to be returned soon after the reader is opened
+     */
+    static final long BATCH_BYTES = 256 << 10;
+
+    private static final AtomicInteger READERS = new AtomicInteger();
+
+    private final RecordReader<LongWritable, Text> lines;
+
+    /**
+     * The most bytes of lines put in a batch before it is handed over
+     */
+    private final long batchBytes;
+
+    /**
+     * Batches to fill, and filled batches in the order they were read
+     */
+    private final BlockingQueue<Batch> free;
+    private final BlockingQueue<Batch> filled;
+
+    private final Thread reader;
+
+    /**
+     * The batch rows are returned from, and the next of its rows
+     */
+    private Batch current;
+    private int next;
+
+    /**
+     * A batch of lines and their offsets in the file, with the position and
+     * progress of the lines once it was filled
+     */
+    private static final class Batch {
+        LongWritable[] keys = new LongWritable[0];
+        Text[] records = new Text[0];
+        int size;
+        long bytes;
+        long pos;
+        float progress;
+
+        /**
+         * Whether there are no lines after this batch
+         */
+        boolean last;
+        Throwable failure;
+
+        /**
+         * Makes room for one more line
+         */
+        void grow() {
+            if (size == records.length) {
+                int capacity = Math.max(16, size * 2);
+                LongWritable[] newKeys = new LongWritable[capacity];
+                Text[] newRecords = new Text[capacity];
+                System.arraycopy(keys, 0, newKeys, 0, size);
+                System.arraycopy(records, 0, newRecords, 0, size);
+                for (int i = size; i < capacity; i++) {
+                    newKeys[i] = new LongWritable();
+                    newRecords[i] = new Text();
+                }
+                keys = newKeys;
+                records = newRecords;
+            }
+        }
+    }
+
+    /**
+     * @param lines the lines of the split, which are only read by the
+     *        background thread from now on
+     * @param readAheadBytes the bytes of lines to hold at most, split between
+     *        the batches of the pool
+     */
+    JsonReadAheadRecordReader(RecordReader<LongWritable, Text> lines, long readAheadBytes) {
+        this.lines = lines;
+        int batches = (int) Math.max(MIN_BATCHES, Math.min(Integer.MAX_VALUE, readAheadBytes / BATCH_BYTES));
+        this.batchBytes = Math.max(1, readAheadBytes / batches);
+        this.free = new ArrayBlockingQueue<Batch>(batches);
+        this.filled = new ArrayBlockingQueue<Batch>(batches);
+        for (int b = 0; b < batches; b++) {
+            free.add(new Batch());
+        }
+
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readAhead();
+            }
+        }, "JsonReadAheadRecordReader-" + READERS.incrementAndGet());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Fills batches until the lines run out, on the background thread
+     */
+    private void readAhead() {
+        try {
+            boolean last = false;
+            while (!last) {
+                Batch batch = free.take();
+                try {
+                    fill(batch);
+                } catch (Throwable t) {
+                    batch.failure = t;
+                    batch.last = true;
+                }
+                last = batch.last;
+                filled.put(batch);
+            }
+        } catch (InterruptedException e) {
+            // Closed
+        }
+    }
+
+    private void fill(Batch batch) throws IOException {
+        // Drop the records that long lines have left holding large buffers
+        for (int i = 0; i < batch.size; i++) {
+            if (batch.records[i].getBytes().length > batchBytes) {
+                batch.records[i] = new Text();
+            }
+        }
+
+        batch.size = 0;
+        batch.bytes = 0;
+        batch.last = false;
+        while (batch.bytes < batchBytes) {
+            batch.grow();
+            if (!lines.next(batch.keys[batch.size], batch.records[batch.size])) {
+                batch.last = true;
+                break;
+            }
+            // Count the line break, so that empty lines are not free
+            batch.bytes += batch.records[batch.size++].getLength() + 1;
+        }
+        batch.pos = lines.getPos();
+        batch.progress = lines.getProgress();
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return new LongWritable();
+    }
+
+    @Override
+    public Text createValue() {
+        return new Text();
+    }
+
+    /**
+     * Gets the next line
+     */
+    @Override
+    public boolean next(LongWritable key, Text value) throws IOException {
+        while (current == null || next == current.size) {
+            if (current != null) {
+                if (current.last) {
+                    return false;
+                }
+                free.add(current);
+            }
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading JSON records", e);
+            }
+            next = 0;
+            if (current.failure != null) {
+                Throwable failure = current.failure;
+                current.failure = null;
+                current.size = 0;
+                if (failure instanceof IOException) {
+                    throw (IOException) failure;
+                }
+                throw new IOException("Failed to read JSON records", failure);
+            }
+        }
+
+        key.set(current.keys[next].get());
+        Text record = current.records[next++];
+        value.set(record.getBytes(), 0, record.getLength());
+        return true;
+    }
+
+    /**
+     * The position of the lines of the batch rows are returned from, which is
+     * past its last line
+     */
+    @Override
+    public long getPos() throws IOException {
+        return current == null ? 0 : current.pos;
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        return current == null ? 0 : current.progress;
+    }
+
+    /**
+     * Stops the background thread, and closes the lines once it has stopped
+     * reading them
+     */
+    @Override
+    public void close() throws IOException {
+        reader.interrupt();
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing JSON records", e);
+        } finally {
+            lines.close();
+        }
+    }
+}
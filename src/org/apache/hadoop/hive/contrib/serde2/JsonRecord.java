@@ -0,0 +1,87 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.DataInput;
+import java.io.IOException;
+import org.apache.hadoop.io.Text;
+
+/**
+ * A line of JSON read by the {@link JsonRecordReader}, which may already have
+ * been parsed onto a {@link JsonTape} by one of its worker threads.  The
+ * JsonSerDe then only walks the tape for the columns of the table, instead of
+ * scanning the record itself.  Setting the text in any other way drops the
+ * tape, so a JsonRecord can be used wherever a Text is.
+ */
+public class JsonRecord extends Text {
+    private JsonTape tape = new JsonTape();
+
+    /**
+     * Whether the tape holds the current text
+     */
+    private boolean parsed;
+
+    public JsonRecord() {
+        super();
+    }
+
+    /**
+     * Parses the text onto the tape.  A record which cannot be parsed is left
+     * to the SerDe, which handles it as malformed.
+     */
+    void parse() {
+        parsed = tape.parse(getBytes(), 0, getLength());
+    }
+
+    /**
+     * @return the tape holding the parsed text, or null if it is not parsed
+     */
+    JsonTape getTape() {
+        return parsed ? tape : null;
+    }
+
+    /**
+     * Sets this record to another one, taking its tape in exchange for the
+     * tape of this record.  The tape keeps referring to the bytes of the
+     * other record, which must not be changed while this one is in use.
+     */
+    void exchange(JsonRecord other) {
+        set(other.getBytes(), 0, other.getLength());
+        JsonTape otherTape = other.tape;
+        other.tape = tape;
+        tape = otherTape;
+        parsed = other.parsed;
+        other.parsed = false;
+    }
+
+    @Override
+    public void set(String string) {
+        super.set(string);
+        parsed = false;
+    }
+
+    @Override
+    public void set(byte[] utf8, int start, int len) {
+        super.set(utf8, start, len);
+        parsed = false;
+    }
+
+    @Override
+    public void append(byte[] utf8, int start, int len) {
+        super.append(utf8, start, len);
+        parsed = false;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        parsed = false;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        parsed = false;
+    }
+}
@@ -0,0 +1,582 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import net.minidev.json.parser.JSONParser;
+import net.minidev.json.parser.ParseException;
+import org.apache.hadoop.hive.serde2.SerDeException;
+
+/**
+ * Finds the values of the columns of a record, for a {@link JsonLazyStruct}.
+ * A parser is created by the backend picked with the "json.parser" table
+ * property for each row object, and is reused for every record of that row.
+ *
+ * The streaming, tape and adaptive backends read the same records and find
+ * the same column values, and differ only in how they get to them:
+ *
+ * <ul>
+ * <li>streaming, the default, scans the bytes of the record once for all
+ * columns, stepping over the values no column is read from and stopping once
+ * every column is found, and parses the records which are not strict JSON as
+ * the tape backend does</li>
+ * <li>tape parses every record leniently onto a {@link JsonTape} of all its
+ * values, which is then walked for the columns</li>
+ * <li>adaptive times the streaming and tape backends on a sample of the
+ * records, and reads the others with the faster one, as set by the
+ * {@link JsonParserSelection}</li>
+ * </ul>
+ *
+ * For them a string column read from a number or a container holds the text
+ * of the value as it is in the record, and only the first of duplicated keys
+ * is read, so that the streaming backend can stop at it, where older releases
+ * rejected the record.  Records parsed ahead of time onto a tape are read
+ * from it.
+ *
+ * The dom backend parses every record with json-smart into maps and lists,
+ * as older releases did, and reads the records as they did: a record with a
+ * duplicated key is malformed, a number is read as json-smart holds it, so
+ * that 1.50 is read as 1.5 and 1e400 as Infinity, and a container is read as
+ * json-smart writes it.  It also takes some malformed records that the tape
+ * parser rejects, such as those with a stray comma, and reports errors at
+ * the offset json-smart gives.
+ *
+ * The streaming backend does not check what follows the last column found in
+ * a record, nor what is inside the containers it steps over, so it reads some
+ * malformed records that the others reject.  With the "json.parser.strict"
+ * table property set to true it checks the whole of every record, and then
+ * rejects the same records as the tape backend, at the same offset.
+ */
+abstract class JsonRecordParser {
+    /**
+     * The backend finding the values of the columns: "streaming", the
+     * default, "tape", "dom" or "adaptive"
+     */
+    static final String BACKEND = "json.parser";
+
+    /**
+     * Set to true for the streaming backend to check the whole of every
+     * record, rather than stopping once every column is found
+     */
+    static final String STRICT = "json.parser.strict";
+
+    enum Backend {
+        STREAMING {
+            @Override
+            JsonRecordParser create(JsonPathTrie trie, int numberOfColumns, boolean strict,
+                JsonParserSelection selection) {
+                return new StreamingParser(trie, numberOfColumns, strict);
+            }
+        },
+        TAPE {
+            @Override
+            JsonRecordParser create(JsonPathTrie trie, int numberOfColumns, boolean strict,
+                JsonParserSelection selection) {
+                return new TapeParser(trie, numberOfColumns);
+            }
+        },
+        DOM {
+            @Override
+            JsonRecordParser create(JsonPathTrie trie, int numberOfColumns, boolean strict,
+                JsonParserSelection selection) {
+                return new DomParser(trie, numberOfColumns);
+            }
+        },
+        ADAPTIVE {
+            @Override
+            JsonRecordParser create(JsonPathTrie trie, int numberOfColumns, boolean strict,
+                JsonParserSelection selection) {
+                return new AdaptiveParser(trie, numberOfColumns, strict, selection);
+            }
+        };
+
+        /**
+         * Creates a parser for the columns of the trie
+         *
+         * @param strict whether the streaming backend checks the whole of
+         *        every record
+         * @param selection how the adaptive backend picks a backend, and where
+         *        it counts its choices
+         */
+        abstract JsonRecordParser create(JsonPathTrie trie, int numberOfColumns, boolean strict,
+            JsonParserSelection selection);
+
+        /**
+         * Creates a parser for the columns of the trie which stops reading a
+         * record once every column is found
+         */
+        JsonRecordParser create(JsonPathTrie trie, int numberOfColumns, JsonParserSelection selection) {
+            return create(trie, numberOfColumns, false, selection);
+        }
+    }
+
+    /**
+     * Reads the backend from the table properties
+     *
+     * @throws SerDeException if the backend is not known
+     */
+    static Backend getBackend(Properties tableProperties) throws SerDeException {
+        String backend = tableProperties.getProperty(BACKEND, "streaming").trim();
+        for (Backend value : Backend.values()) {
+            if (value.name().equalsIgnoreCase(backend)) {
+                return value;
+            }
+        }
+        throw new SerDeException(BACKEND + " must be streaming, tape, dom or adaptive, not '" + backend + "'");
+    }
+
+    /**
+     * Parses a record, replacing the previous one
+     *
+     * @return false if the record cannot be read, which is then malformed
+     */
+    abstract boolean parse(byte[] recordBytes, int start, int length);
+
+    /**
+     * Reads a record already parsed onto a tape, which stays unchanged while
+     * the record is in use.  The record is parsed again unless the backend
+     * reads tapes.
+     *
+     * @return false if the record cannot be read, which is then malformed
+     */
+    boolean parse(JsonTape parsedTape, byte[] recordBytes, int start, int length) {
+        return parse(recordBytes, start, length);
+    }
+
+    /**
+     * @return where the last record that could not be read was found to be
+     *         invalid, from its start
+     */
+    abstract int getErrorOffset();
+
+    /**
+     * Converts the value found for a column into its field
+     *
+     * @return false if the column was not found, is a JSON null, or cannot
+     *         be held by the field
+     */
+    abstract boolean convert(int column, JsonColumnConverter converter, Object target);
+
+    /**
+     * @return the type of the value found for a column, or NONE if it was
+     *         not found
+     */
+    abstract byte getValueType(int column);
+
+    /**
+     * @return the bytes holding the value of a column found in the record:
+     *         those of the record, or of the text of the value for a backend
+     *         which does not keep where its values are in the record
+     */
+    abstract byte[] getValueBytes(int column);
+
+    /**
+     * @return where the value of a column found in the record starts in its
+     *         bytes, after the quote of a string
+     */
+    abstract int getValueStart(int column);
+
+    /**
+     * @return where the value of a column found in the record ends in its
+     *         bytes, at the quote of a string
+     */
+    abstract int getValueEnd(int column);
+
+    /**
+     * Scans the bytes of strict JSON records, and parses the others onto a tape
+     */
+    static final class StreamingParser extends JsonRecordParser {
+        private final JsonPathTrie trie;
+        private final int numberOfColumns;
+        private final JsonRecordScanner recordScanner;
+
+        /**
+         * Reads the records which are not strict JSON, created the first time
+         * it is needed
+         */
+        private TapeParser tapeParser;
+        private boolean scanned;
+
+        StreamingParser(JsonPathTrie trie, int numberOfColumns) {
+            this(trie, numberOfColumns, false);
+        }
+
+        /**
+         * @param strict whether the whole of every record is checked
+         */
+        StreamingParser(JsonPathTrie trie, int numberOfColumns, boolean strict) {
+            this.trie = trie;
+            this.numberOfColumns = numberOfColumns;
+            this.recordScanner = new JsonRecordScanner(trie, numberOfColumns, strict);
+        }
+
+        @Override
+        boolean parse(byte[] recordBytes, int start, int length) {
+            scanned = recordScanner.scan(recordBytes, start, length);
+            if (scanned) {
+                return true;
+            }
+
+            // Not strict JSON, so parse it leniently onto the tape, which is
+            // then walked once for all columns
+            if (tapeParser == null) {
+                tapeParser = new TapeParser(trie, numberOfColumns);
+            }
+            return tapeParser.parse(recordBytes, start, length);
+        }
+
+        @Override
+        boolean parse(JsonTape parsedTape, byte[] recordBytes, int start, int length) {
+            // The scanner reads the same values as the tape, so there is no
+            // need to scan the bytes again
+            scanned = false;
+            if (tapeParser == null) {
+                tapeParser = new TapeParser(trie, numberOfColumns);
+            }
+            return tapeParser.parse(parsedTape, recordBytes, start, length);
+        }
+
+        @Override
+        int getErrorOffset() {
+            return tapeParser.getErrorOffset();
+        }
+
+        @Override
+        boolean convert(int column, JsonColumnConverter converter, Object target) {
+            if (!scanned) {
+                return tapeParser.convert(column, converter, target);
+            }
+            byte type = recordScanner.getValueType(column);
+            if (type == JsonRecordScanner.NONE || type == JsonRecordScanner.NULL) {
+                return false;
+            }
+            return converter.fromBytes(recordScanner, column, target);
+        }
+
+        @Override
+        byte getValueType(int column) {
+            return scanned ? recordScanner.getValueType(column) : tapeParser.getValueType(column);
+        }
+
+        @Override
+        byte[] getValueBytes(int column) {
+            return scanned ? recordScanner.getBytes() : tapeParser.getValueBytes(column);
+        }
+
+        @Override
+        int getValueStart(int column) {
+            return scanned ? recordScanner.getValueStart(column) : tapeParser.getValueStart(column);
+        }
+
+        @Override
+        int getValueEnd(int column) {
+            return scanned ? recordScanner.getValueEnd(column) : tapeParser.getValueEnd(column);
+        }
+    }
+
+    /**
+     * Parses every record leniently onto a tape, which is walked once for all
+     * columns
+     */
+    static final class TapeParser extends JsonRecordParser {
+        private final JsonPathTrie trie;
+        private final JsonTape ownTape;
+        private JsonTape tape;
+        private int errorOffset;
+
+        TapeParser(JsonPathTrie trie, int numberOfColumns) {
+            this.trie = trie;
+            this.ownTape = new JsonTape(numberOfColumns);
+        }
+
+        @Override
+        boolean parse(byte[] recordBytes, int start, int length) {
+            tape = ownTape;
+            if (!tape.parse(recordBytes, start, length)) {
+                errorOffset = tape.getPosition() - start;
+                return false;
+            }
+            return evaluate();
+        }
+
+        @Override
+        boolean parse(JsonTape parsedTape, byte[] recordBytes, int start, int length) {
+            tape = parsedTape;
+            return evaluate();
+        }
+
+        private boolean evaluate() {
+            byte rootType = tape.getType(0);
+            if (rootType != JsonRecordScanner.OBJECT && rootType != JsonRecordScanner.ARRAY) {
+                // Text without quotes reads as a string, which has no columns
+                errorOffset = 0;
+                return false;
+            }
+            tape.evaluate(trie);
+            return true;
+        }
+
+        @Override
+        int getErrorOffset() {
+            return errorOffset;
+        }
+
+        @Override
+        boolean convert(int column, JsonColumnConverter converter, Object target) {
+            byte type = tape.getValueType(column);
+            if (type == JsonRecordScanner.NONE || type == JsonRecordScanner.NULL) {
+                return false;
+            }
+            return converter.fromSpan(tape.getBytes(), type, tape.getValueStart(column), tape.getValueEnd(column),
+                target);
+        }
+
+        @Override
+        byte getValueType(int column) {
+            return tape.getValueType(column);
+        }
+
+        @Override
+        byte[] getValueBytes(int column) {
+            return tape.getBytes();
+        }
+
+        @Override
+        int getValueStart(int column) {
+            return tape.getValueStart(column);
+        }
+
+        @Override
+        int getValueEnd(int column) {
+            return tape.getValueEnd(column);
+        }
+    }
+
+    /**
+     * Parses every record with json-smart in permissive mode into Java maps
+     * and lists, which are walked once for all columns, and converts the
+     * values with {@link JsonColumnConverter#fromObject}, as the SerDe once did
+     */
+    static final class DomParser extends JsonRecordParser {
+        private final JsonPathTrie trie;
+        private final JSONParser parser = new JSONParser(JSONParser.DEFAULT_PERMISSIVE_MODE);
+
+        /**
+         * The value found for each column, or null
+         */
+        private final Object[] values;
+
+        /**
+         * The text of the value of each column, made when it is first asked
+         * for, as the values do not keep the bytes they were parsed from
+         */
+        private final byte[][] texts;
+        private int errorOffset;
+
+        DomParser(JsonPathTrie trie, int numberOfColumns) {
+            this.trie = trie;
+            this.values = new Object[Math.max(numberOfColumns, trie.getColumnLimit())];
+            this.texts = new byte[values.length][];
+        }
+
+        @Override
+        boolean parse(byte[] recordBytes, int start, int length) {
+            Arrays.fill(values, null);
+            Arrays.fill(texts, null);
+            Object document;
+            try {
+                document = parser.parse(new String(recordBytes, start, length, JsonPathTrie.UTF8));
+            } catch (ParseException e) {
+                // The position is of a character rather than a byte, which is
+                // only different after characters outside ASCII
+                errorOffset = Math.min(Math.max(0, e.getPosition()), length);
+                return false;
+            }
+            if (!(document instanceof Map) && !(document instanceof List)) {
+                errorOffset = 0;
+                return false;
+            }
+            trie.evaluate(document, values);
+            return true;
+        }
+
+        @Override
+        int getErrorOffset() {
+            return errorOffset;
+        }
+
+        @Override
+        boolean convert(int column, JsonColumnConverter converter, Object target) {
+            Object value = values[column];
+            return value != null && converter.fromObject(value, target);
+        }
+
+        @Override
+        byte getValueType(int column) {
+            Object value = values[column];
+            if (value == null) {
+                // A JSON null is not told apart from a missing value
+                return JsonRecordScanner.NONE;
+            } else if (value instanceof Map) {
+                return JsonRecordScanner.OBJECT;
+            } else if (value instanceof List) {
+                return JsonRecordScanner.ARRAY;
+            } else if (value instanceof Boolean) {
+                return (Boolean) value ? JsonRecordScanner.TRUE : JsonRecordScanner.FALSE;
+            } else if (value instanceof Number) {
+                return JsonRecordScanner.NUMBER;
+            }
+            return JsonRecordScanner.STRING;
+        }
+
+        @Override
+        byte[] getValueBytes(int column) {
+            if (texts[column] == null) {
+                texts[column] = JsonColumnConverter.toText(values[column]);
+            }
+            return texts[column];
+        }
+
+        @Override
+        int getValueStart(int column) {
+            return 0;
+        }
+
+        @Override
+        int getValueEnd(int column) {
+            return getValueBytes(column).length;
+        }
+    }
+
+    /**
+     * Reads records with the candidate backend that was faster on the last
+     * sample of records, timing each candidate on every other record of a
+     * sample
+     */
+    static final class AdaptiveParser extends JsonRecordParser {
+        private final JsonParserSelection selection;
+        private final JsonRecordParser[] candidates;
+
+        /**
+         * The time taken by each candidate over the current sample, and the
+         * records it parsed
+         */
+        private final long[] sampleNanos;
+        private final int[] sampleRows;
+
+        /**
+         * The records left in the current sample, and those left to read with
+         * the chosen candidate before the next sample
+         */
+        private int rowsToSample;
+        private int rowsToRecheck;
+
+        /**
+         * The candidate picked last, or -1 before the first sample is over
+         */
+        private int chosen = -1;
+
+        /**
+         * The parser of the current record
+         */
+        private JsonRecordParser parser;
+
+        AdaptiveParser(JsonPathTrie trie, int numberOfColumns, boolean strict, JsonParserSelection selection) {
+            this.selection = selection;
+            this.candidates = new JsonRecordParser[JsonParserSelection.CANDIDATES.length];
+            for (int c = 0; c < candidates.length; c++) {
+                candidates[c] = JsonParserSelection.CANDIDATES[c].create(trie, numberOfColumns, strict, selection);
+            }
+            this.sampleNanos = new long[candidates.length];
+            this.sampleRows = new int[candidates.length];
+            this.rowsToSample = selection.getSampleRows();
+        }
+
+        /**
+         * Reads a record parsed ahead of time with the candidate picked last,
+         * as it is not timed
+         */
+        @Override
+        boolean parse(JsonTape parsedTape, byte[] recordBytes, int start, int length) {
+            parser = candidates[Math.max(chosen, 0)];
+            return parser.parse(parsedTape, recordBytes, start, length);
+        }
+
+        @Override
+        boolean parse(byte[] recordBytes, int start, int length) {
+            if (rowsToSample == 0) {
+                if (rowsToRecheck > 0) {
+                    rowsToRecheck--;
+                    parser = candidates[chosen];
+                    return parser.parse(recordBytes, start, length);
+                }
+                rowsToSample = selection.getSampleRows();
+            }
+
+            int c = rowsToSample % candidates.length;
+            parser = candidates[c];
+            long startNanos = System.nanoTime();
+            boolean read = parser.parse(recordBytes, start, length);
+            sampleNanos[c] += System.nanoTime() - startNanos;
+            sampleRows[c]++;
+            if (--rowsToSample == 0) {
+                choose();
+            }
+            return read;
+        }
+
+        /**
+         * Picks the candidate taking the least time per row over the sample
+         */
+        private void choose() {
+            double[] nanosPerRow = new double[candidates.length];
+            int fastest = 0;
+            for (int c = 0; c < candidates.length; c++) {
+                nanosPerRow[c] = sampleNanos[c] / (double) Math.max(1, sampleRows[c]);
+                if (nanosPerRow[c] < nanosPerRow[fastest]) {
+                    fastest = c;
+                }
+                sampleNanos[c] = 0;
+                sampleRows[c] = 0;
+            }
+            selection.recordChoice(chosen < 0 ? null : JsonParserSelection.CANDIDATES[chosen],
+                JsonParserSelection.CANDIDATES[fastest], nanosPerRow);
+            chosen = fastest;
+            rowsToRecheck = selection.getRecheckRows();
+        }
+
+        @Override
+        int getErrorOffset() {
+            return parser.getErrorOffset();
+        }
+
+        @Override
+        boolean convert(int column, JsonColumnConverter converter, Object target) {
+            return parser.convert(column, converter, target);
+        }
+
+        @Override
+        byte getValueType(int column) {
+            return parser.getValueType(column);
+        }
+
+        @Override
+        byte[] getValueBytes(int column) {
+            return parser.getValueBytes(column);
+        }
+
+        @Override
+        int getValueStart(int column) {
+            return parser.getValueStart(column);
+        }
+
+        @Override
+        int getValueEnd(int column) {
+            return parser.getValueEnd(column);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.RecordReader;
+
+/**
+ * Reads lines of JSON, parsing them on a pool of worker threads ahead of the
+ * thread calling next.
+ *
+ * Lines are read by the calling thread in batches, and every batch is handed
+ * to the pool, which parses each of its lines onto the tape of a
+ * {@link JsonRecord}.  A few batches are kept in flight, and they are returned
+ * in the order they were read, so the rows come out in the order of the file.
+ * The JsonSerDe then only has to walk the tape of each record for its
+ * columns.  Batches, records and tapes are reused once their rows have been
+ * returned, so the reader allocates nothing per row once it has started.
+ */
+class JsonRecordReader implements RecordReader<LongWritable, Text> {
+    /**
+     * Batches in flight for each worker thread, so that the workers are not
+     * idle while the calling thread reads the next batch
+     */
+    private static final int BATCHES_PER_THREAD = 2;
+
+    private static final AtomicInteger READERS = new AtomicInteger();
+
+    private final RecordReader<LongWritable, Text> lines;
+    private final int batchSize;
+    private final ExecutorService workers;
+
+    /**
+     * Batches handed to the workers, in the order they were read, and batches
+     * whose rows have all been returned
+     */
+    private final ArrayDeque<Batch> inFlight = new ArrayDeque<Batch>();
+    private final ArrayDeque<Batch> free = new ArrayDeque<Batch>();
+
+    /**
+     * The batch rows are returned from, and the next of its rows
+     */
+    private Batch current;
+    private int next;
+
+    private boolean linesLeft = true;
+
+    /**
+     * A batch of lines and their offsets in the file
+     */
+    private static final class Batch implements Callable<Void> {
+        final LongWritable[] keys;
+        final JsonRecord[] records;
+        int size;
+        Future<Void> parsed;
+
+        Batch(int capacity) {
+            keys = new LongWritable[capacity];
+            records = new JsonRecord[capacity];
+            for (int i = 0; i < capacity; i++) {
+                keys[i] = new LongWritable();
+                records[i] = new JsonRecord();
+            }
+        }
+
+        /**
+         * Parses every line of the batch, on a worker thread
+         */
+        @Override
+        public Void call() {
+            for (int i = 0; i < size; i++) {
+                records[i].parse();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param lines the lines of the split
+     * @param threads the number of worker threads
+     * @param batchSize the number of lines handed to a worker at a time
+     */
+    JsonRecordReader(RecordReader<LongWritable, Text> lines, int threads, int batchSize) {
+        this.lines = lines;
+        this.batchSize = batchSize;
+
+        final String namePrefix = "JsonRecordReader-" + READERS.incrementAndGet() + "-worker-";
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        for (int b = 0; b < threads * BATCHES_PER_THREAD; b++) {
+            free.add(new Batch(batchSize));
+        }
+    }
+
+    @Override
+    public LongWritable createKey() {
+        return new LongWritable();
+    }
+
+    @Override
+    public Text createValue() {
+        return new JsonRecord();
+    }
+
+    /**
+     * Gets the next line.  When the value is a JsonRecord, it receives the
+     * line already parsed; any other Text only receives the line.
+     */
+    @Override
+    public boolean next(LongWritable key, Text value) throws IOException {
+        while (current == null || next == current.size) {
+            if (current != null) {
+                free.add(current);
+                current = null;
+            }
+            fill();
+            if (inFlight.isEmpty()) {
+                return false;
+            }
+            current = inFlight.poll();
+            next = 0;
+            await(current);
+        }
+
+        key.set(current.keys[next].get());
+        JsonRecord record = current.records[next++];
+        if (value instanceof JsonRecord) {
+            ((JsonRecord) value).exchange(record);
+        } else {
+            value.set(record.getBytes(), 0, record.getLength());
+        }
+        return true;
+    }
+
+    /**
+     * Reads lines into the free batches and hands them to the workers
+     */
+    private void fill() throws IOException {
+        while (linesLeft && !free.isEmpty()) {
+            Batch batch = free.poll();
+            batch.size = 0;
+            while (batch.size < batchSize
+                && (linesLeft = lines.next(batch.keys[batch.size], batch.records[batch.size]))) {
+                batch.size++;
+            }
+            if (batch.size == 0) {
+                free.add(batch);
+                break;
+            }
+            batch.parsed = workers.submit(batch);
+            inFlight.add(batch);
+        }
+    }
+
+    private static void await(Batch batch) throws IOException {
+        try {
+            batch.parsed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing JSON records", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to parse JSON records", e.getCause());
+        }
+    }
+
+    /**
+     * The position of the lines read so far, which may be a few batches ahead
+     * of the rows returned
+     */
+    @Override
+    public long getPos() throws IOException {
+        return lines.getPos();
+    }
+
+    @Override
+    public float getProgress() throws IOException {
+        return lines.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        workers.shutdownNow();
+        lines.close();
+    }
+}
@@ -0,0 +1,793 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+
+/**
+ * Extracts the column values of a JSON record directly from its UTF-8 bytes.
+ *
+ * The record is scanned once, front to back, following a {@link JsonPathTrie}.
+ * Values which are not on the path of any column are skipped without being
+ * decoded, and scanning stops as soon as every column has been found.  For each
+ * column the scanner only remembers where its value is in the record and what
+ * kind of value it is; nothing is decoded until the caller asks for it.  Of
+ * duplicated keys in an object, only the first is read.
+ *
+ * The scanner can also split a single array or object into the spans of its
+ * elements, for the lazy list, map and struct values of nested columns.
+ *
+ * Strings and skipped containers are stepped over eight bytes at a time by a
+ * {@link JsonValueSkipper}.
+ * When every column is a member of the root object, the members of a record
+ * are read in one loop, without walking the trie.
+ *
+ * The scanner only understands strict JSON.  When it meets anything else,
+ * {@link #scan(byte[], int, int)} returns false and the caller can fall back to
+ * a more lenient parser.  Because scanning stops early, and skipped containers
+ * are only matched bracket for bracket, anything after the last column value of
+ * a record and inside skipped containers is not checked.  A strict scanner
+ * checks the whole record instead, so that every record it reads is also read,
+ * with the same values, by the lenient {@link JsonTape}.
+ */
+class JsonRecordScanner {
+    /**
+     * Value types.  NONE means the path of the column was not found.
+     */
+    static final byte NONE = 0;
+    static final byte STRING = 1;
+    static final byte ESCAPED_STRING = 2;
+    static final byte NUMBER = 3;
+    static final byte TRUE = 4;
+    static final byte FALSE = 5;
+    static final byte NULL = 6;
+    static final byte OBJECT = 7;
+    static final byte ARRAY = 8;
+
+    private final JsonPathTrie trie;
+
+    /**
+     * Whether every path of the trie is a member of the root object
+     */
+    private final boolean flat;
+
+    /**
+     * Whether the whole record is checked, rather than only what is read
+     * before the last column is found
+     */
+    private final boolean strict;
+
+    /**
+     * Record being scanned
+     */
+    private byte[] bytes;
+    private int position;
+    private int end;
+
+    /**
+     * Number of columns not found yet, which never reaches zero for a strict
+     * scanner
+     */
+    private int remaining;
+
+    /**
+     * Where the value of each column is in the record, and its type.  For
+     * strings the range excludes the quotes.
+     */
+    private final byte[] valueTypes;
+    private final int[] valueStarts;
+    private final int[] valueEnds;
+
+    private final JsonValueSkipper skipper = new JsonValueSkipper();
+    private final JsonPathTrie.SeenMembers seenMembers = new JsonPathTrie.SeenMembers();
+
+    /**
+     * Whether each container open while skipping a value is an object, by depth
+     */
+    private boolean[] skippedObjects = new boolean[16];
+
+    /**
+     * Start of the value skipped last by skipTypedValue
+     */
+    private int skippedStart;
+
+    JsonRecordScanner(JsonPathTrie trie, int numberOfColumns) {
+        this(trie, numberOfColumns, false);
+    }
+
+    /**
+     * @param strict whether the whole record is checked, rather than
+     *        stopping once every column is found
+     */
+    JsonRecordScanner(JsonPathTrie trie, int numberOfColumns, boolean strict) {
+        this.trie = trie;
+        this.flat = trie.isFlat();
+        this.strict = strict;
+        this.valueTypes = new byte[numberOfColumns];
+        this.valueStarts = new int[numberOfColumns];
+        this.valueEnds = new int[numberOfColumns];
+    }
+
+    /**
+     * Creates a scanner which only splits containers
+     */
+    JsonRecordScanner() {
+        this(new JsonPathTrie(), 0);
+    }
+
+    /**
+     * Scans a record, finding the value of every column in the trie.
+     *
+     * @return false if the record is not strict JSON
+     */
+    boolean scan(byte[] recordBytes, int start, int length) {
+        bytes = recordBytes;
+        position = start;
+        end = start + length;
+        remaining = strict ? Integer.MAX_VALUE : trie.size();
+        Arrays.fill(valueTypes, NONE);
+        seenMembers.clear();
+
+        if (flat) {
+            if (scanFlatObject()) {
+                return true;
+            }
+            // Not an object, or not strict JSON, so walk it again with the trie
+            position = start;
+            remaining = strict ? Integer.MAX_VALUE : trie.size();
+            Arrays.fill(valueTypes, NONE);
+        }
+        if (!scanValue(trie.getRoot())) {
+            return false;
+        }
+        if (remaining == 0) {
+            return true;
+        }
+
+        // The whole record has been read, so make sure nothing follows it
+        skipWhitespace();
+        return position == end;
+    }
+
+    byte getValueType(int column) {
+        return valueTypes[column];
+    }
+
+    int getValueStart(int column) {
+        return valueStarts[column];
+    }
+
+    int getValueEnd(int column) {
+        return valueEnds[column];
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Decodes the value of a column.  Strings are unquoted and unescaped, any
+     * other value is returned as it appears in the record.
+     *
+     * @return the value, or null if the column was not found or is a JSON null
+     */
+    String getValueString(int column) {
+        return decode(bytes, valueTypes[column], valueStarts[column], valueEnds[column]);
+    }
+
+    /**
+     * Decodes a value of the given type.  Strings are unescaped, any other
+     * value is returned as it appears in the record.
+     *
+     * @return the value, or null for NONE or a JSON null
+     */
+    static String decode(byte[] bytes, byte type, int start, int end) {
+        switch (type) {
+            case NONE:
+            case NULL:
+                return null;
+            case ESCAPED_STRING:
+                return unescape(new String(bytes, start, end - start, JsonPathTrie.UTF8));
+            default:
+                return new String(bytes, start, end - start, JsonPathTrie.UTF8);
+        }
+    }
+
+    /**
+     * Splits the array or object between start and end into the spans of its
+     * elements.  Nested containers are skipped, not checked, until they are
+     * split themselves.
+     *
+     * @return false if the bytes are not a single strict JSON array or object
+     */
+    boolean split(byte[] containerBytes, int start, int end, JsonElementSpans spans) {
+        bytes = containerBytes;
+        position = start;
+        this.end = end;
+        spans.clear();
+
+        skipWhitespace();
+        if (position >= end || (bytes[position] != '[' && bytes[position] != '{')) {
+            return false;
+        }
+        boolean object = bytes[position] == '{';
+        byte close = object ? (byte) '}' : (byte) ']';
+        position++;
+        skipWhitespace();
+        if (position < end && bytes[position] == close) {
+            position++;
+        } else {
+            while (true) {
+                int keyStart = 0;
+                int keyEnd = 0;
+                boolean keyEscaped = false;
+                if (object) {
+                    skipWhitespace();
+                    if (position >= end || bytes[position] != '"') {
+                        return false;
+                    }
+                    keyStart = position + 1;
+                    keyEscaped = skipString();
+                    if (position <= keyStart) {
+                        return false;
+                    }
+                    keyEnd = position - 1;
+                    skipWhitespace();
+                    if (position >= end || bytes[position] != ':') {
+                        return false;
+                    }
+                    position++;
+                }
+
+                byte type = skipTypedValue();
+                if (type == NONE) {
+                    return false;
+                }
+                boolean string = type == STRING || type == ESCAPED_STRING;
+                spans.add(type, string ? skippedStart + 1 : skippedStart, string ? position - 1 : position);
+                if (object) {
+                    spans.setKey(keyStart, keyEnd, keyEscaped);
+                }
+
+                skipWhitespace();
+                if (position >= end) {
+                    return false;
+                }
+                if (bytes[position] == ',') {
+                    position++;
+                } else if (bytes[position] == close) {
+                    position++;
+                    break;
+                } else {
+                    return false;
+                }
+            }
+        }
+
+        skipWhitespace();
+        return position == end;
+    }
+
+    private boolean scanValue(JsonPathTrie.Node node) {
+        skipWhitespace();
+        if (position >= end) {
+            return false;
+        }
+
+        int start = position;
+        byte type;
+        boolean ok;
+        switch (bytes[position]) {
+            case '{':
+                type = OBJECT;
+                ok = node.children.length > 0 ? scanObject(node) : skipContainerValue();
+                break;
+            case '[':
+                type = ARRAY;
+                ok = node.children.length > 0 ? scanArray(node) : skipContainerValue();
+                break;
+            case '"':
+                int quote = position;
+                type = skipString() ? ESCAPED_STRING : STRING;
+                ok = position > quote;
+                start = quote + 1;
+                break;
+            default:
+                type = skipLiteral();
+                ok = type != NONE;
+                break;
+        }
+
+        if (ok && node.columns.length > 0) {
+            setColumns(node, type, start);
+        }
+        return ok;
+    }
+
+    /**
+     * Scans a record which is an object, for a trie whose paths are all
+     * members of the root.  Only the first of duplicated keys is read.
+     *
+     * @return false if the record is not an object of strict JSON
+     */
+    private boolean scanFlatObject() {
+        skipWhitespace();
+        if (position >= end || bytes[position] != '{') {
+            return false;
+        }
+        position++;
+        skipWhitespace();
+        if (position < end && bytes[position] == '}') {
+            position++;
+        } else {
+            while (true) {
+                skipWhitespace();
+                if (position >= end || bytes[position] != '"') {
+                    return false;
+                }
+                int keyStart = position + 1;
+                boolean escaped = skipString();
+                if (position <= keyStart) {
+                    return false;
+                }
+                JsonPathTrie.Node member = trie.getRoot().findChild(bytes, keyStart, position - 1, escaped);
+
+                skipWhitespace();
+                if (position >= end || bytes[position] != ':') {
+                    return false;
+                }
+                position++;
+                skipWhitespace();
+                if (position >= end) {
+                    return false;
+                }
+
+                int start = position;
+                byte type;
+                switch (bytes[position]) {
+                    case '{':
+                        type = OBJECT;
+                        break;
+                    case '[':
+                        type = ARRAY;
+                        break;
+                    case '"':
+                        type = skipString() ? ESCAPED_STRING : STRING;
+                        if (position == start) {
+                            return false;
+                        }
+                        start++;
+                        break;
+                    default:
+                        type = skipLiteral();
+                        break;
+                }
+                if (type == NONE || ((type == OBJECT || type == ARRAY) && !skipContainerValue())) {
+                    return false;
+                }
+
+                if (member != null && valueTypes[member.columns[0]] == NONE) {
+                    setColumns(member, type, start);
+                    if (remaining == 0) {
+                        return true;
+                    }
+                }
+
+                skipWhitespace();
+                if (position >= end) {
+                    return false;
+                }
+                if (bytes[position] == ',') {
+                    position++;
+                } else if (bytes[position] == '}') {
+                    position++;
+                    break;
+                } else {
+                    return false;
+                }
+            }
+        }
+
+        skipWhitespace();
+        return position == end;
+    }
+
+    /**
+     * Remembers the value just scanned for the columns of a node
+     */
+    private void setColumns(JsonPathTrie.Node node, byte type, int start) {
+        int valueEnd = type == STRING || type == ESCAPED_STRING ? position - 1 : position;
+        for (int column : node.columns) {
+            valueTypes[column] = type;
+            valueStarts[column] = start;
+            valueEnds[column] = valueEnd;
+            remaining--;
+        }
+    }
+
+    private boolean scanObject(JsonPathTrie.Node node) {
+        position++;
+        skipWhitespace();
+        if (position < end && bytes[position] == '}') {
+            position++;
+            return true;
+        }
+
+        int seen = seenMembers.open(node);
+        while (true) {
+            skipWhitespace();
+            if (position >= end || bytes[position] != '"') {
+                return false;
+            }
+            int keyStart = position + 1;
+            boolean escaped = skipString();
+            if (position <= keyStart) {
+                return false;
+            }
+            JsonPathTrie.Node child = node.findChild(bytes, keyStart, position - 1, escaped);
+            if (child != null && !seenMembers.add(seen, child)) {
+                // Only the first of duplicated keys is read
+                child = null;
+            }
+
+            skipWhitespace();
+            if (position >= end || bytes[position] != ':') {
+                return false;
+            }
+            position++;
+
+            if (!(child == null ? skipValue() : scanValue(child))) {
+                return false;
+            }
+            if (remaining == 0) {
+                return true;
+            }
+
+            skipWhitespace();
+            if (position >= end) {
+                return false;
+            }
+            if (bytes[position] == ',') {
+                position++;
+            } else if (bytes[position] == '}') {
+                position++;
+                seenMembers.close(seen);
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    private boolean scanArray(JsonPathTrie.Node node) {
+        position++;
+        skipWhitespace();
+        if (position < end && bytes[position] == ']') {
+            position++;
+            return true;
+        }
+
+        for (int index = 0; ; index++) {
+            JsonPathTrie.Node child = node.findElement(index);
+
+            if (!(child == null ? skipValue() : scanValue(child))) {
+                return false;
+            }
+            if (remaining == 0) {
+                return true;
+            }
+
+            skipWhitespace();
+            if (position >= end) {
+                return false;
+            }
+            if (bytes[position] == ',') {
+                position++;
+            } else if (bytes[position] == ']') {
+                position++;
+                return true;
+            } else {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Skips over a value that is not on the path of any column
+     */
+    private boolean skipValue() {
+        if (!strict) {
+            return skipTypedValue() != NONE;
+        }
+        skipWhitespace();
+        if (position >= end) {
+            return false;
+        }
+        switch (bytes[position]) {
+            case '{':
+            case '[':
+                return skipCheckedContainer();
+            case '"':
+                int quote = position;
+                skipString();
+                return position > quote;
+            default:
+                return skipLiteral() != NONE;
+        }
+    }
+
+    /**
+     * Skips an object or array, checking everything in it if the scanner is
+     * strict
+     */
+    private boolean skipContainerValue() {
+        return strict ? skipCheckedContainer() : skipContainer();
+    }
+
+    /**
+     * Skips an object or array, checking everything in it, with a stack of
+     * its own so that deeply nested values cannot overflow the call stack
+     */
+    private boolean skipCheckedContainer() {
+        int depth = 0;
+        while (true) {
+            // One value, with its key if it is an object member
+            if (depth > 0 && skippedObjects[depth - 1] && !skipKey()) {
+                return false;
+            }
+            skipWhitespace();
+            if (position >= end) {
+                return false;
+            }
+            byte b = bytes[position];
+            if (b == '{' || b == '[') {
+                if (depth == skippedObjects.length) {
+                    skippedObjects = Arrays.copyOf(skippedObjects, depth * 2);
+                }
+                skippedObjects[depth++] = b == '{';
+                position++;
+                skipWhitespace();
+                if (position >= end || bytes[position] != (b == '{' ? '}' : ']')) {
+                    // Read the first member or element
+                    continue;
+                }
+                position++;
+                depth--;
+            } else if (b == '"') {
+                int quote = position;
+                skipString();
+                if (position == quote) {
+                    return false;
+                }
+            } else if (skipLiteral() == NONE) {
+                return false;
+            }
+
+            // Close the containers that end after this value, up to the next comma
+            while (true) {
+                if (depth == 0) {
+                    return true;
+                }
+                skipWhitespace();
+                if (position >= end) {
+                    return false;
+                }
+                if (bytes[position] == ',') {
+                    position++;
+                    break;
+                }
+                if (bytes[position] != (skippedObjects[depth - 1] ? '}' : ']')) {
+                    return false;
+                }
+                position++;
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Skips the key of an object member and the colon after it
+     */
+    private boolean skipKey() {
+        skipWhitespace();
+        if (position >= end || bytes[position] != '"') {
+            return false;
+        }
+        int quote = position;
+        skipString();
+        if (position == quote) {
+            return false;
+        }
+        skipWhitespace();
+        if (position >= end || bytes[position] != ':') {
+            return false;
+        }
+        position++;
+        return true;
+    }
+
+    /**
+     * Skips over a value, remembering where it started
+     *
+     * @return the type of the value, or NONE if it is not valid
+     */
+    private byte skipTypedValue() {
+        skipWhitespace();
+        skippedStart = position;
+        if (position >= end) {
+            return NONE;
+        }
+
+        switch (bytes[position]) {
+            case '{':
+                return skipContainer() ? OBJECT : NONE;
+            case '[':
+                return skipContainer() ? ARRAY : NONE;
+            case '"':
+                int quote = position;
+                boolean escaped = skipString();
+                if (position == quote) {
+                    return NONE;
+                }
+                return escaped ? ESCAPED_STRING : STRING;
+            default:
+                return skipLiteral();
+        }
+    }
+
+    /**
+     * Skips an object or array by counting brackets, without checking what is
+     * inside it
+     */
+    private boolean skipContainer() {
+        int containerEnd = skipper.findContainerEnd(bytes, position, end);
+        if (containerEnd < 0) {
+            position = end;
+            return false;
+        }
+        position = containerEnd;
+        return true;
+    }
+
+    /**
+     * Skips a string starting at the current position, which must be a quote.
+     * If the string is not terminated the position is left unchanged.
+     *
+     * @return true if the string contains escape sequences
+     */
+    private boolean skipString() {
+        int quote = skipper.findStringEnd(bytes, position + 1, end);
+        if (quote < 0) {
+            return skipper.isEscaped();
+        }
+        position = quote + 1;
+        return skipper.isEscaped();
+    }
+
+    /**
+     * Skips a number, true, false or null
+     *
+     * @return the type of the literal, or NONE if it is not valid
+     */
+    private byte skipLiteral() {
+        switch (bytes[position]) {
+            case 't':
+                return skipWord("true") ? TRUE : NONE;
+            case 'f':
+                return skipWord("false") ? FALSE : NONE;
+            case 'n':
+                return skipWord("null") ? NULL : NONE;
+            default:
+                int start = position;
+                while (position < end && isNumberByte(bytes[position])) {
+                    position++;
+                }
+                return JsonNumberParser.isJsonNumber(bytes, start, position) ? NUMBER : NONE;
+        }
+    }
+
+    private boolean skipWord(String word) {
+        int length = word.length();
+        if (end - position < length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[position + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        position += length;
+        // A literal must not run into the next token, e.g. "nullify"
+        return position == end || !Character.isLetterOrDigit(bytes[position]);
+    }
+
+    private static boolean isNumberByte(byte b) {
+        return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E';
+    }
+
+    private void skipWhitespace() {
+        while (position < end) {
+            byte b = bytes[position];
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * Replaces the escape sequences of a JSON string with the characters they
+     * stand for
+     */
+    static String unescape(String escaped) {
+        StringBuilder builder = new StringBuilder(escaped.length());
+        int length = escaped.length();
+        for (int i = 0; i < length; i++) {
+            char c = escaped.charAt(i);
+            if (c != '\\' || i + 1 == length) {
+                builder.append(c);
+                continue;
+            }
+
+            c = escaped.charAt(++i);
+            switch (c) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    int code = i + 4 < length ? parseHex(escaped, i + 1) : -1;
+                    if (code >= 0) {
+                        builder.append((char) code);
+                        i += 4;
+                        break;
+                    }
+                    // Not a valid escape, keep it as it is
+                    builder.append('\\').append(c);
+                    break;
+                default:
+                    // \" \\ \/ and anything unknown stand for the character itself
+                    builder.append(c);
+                    break;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Reads the four hexadecimal digits of a unicode escape
+     *
+     * @return the code unit, or -1 if any of the characters is not an ASCII
+     *         hexadecimal digit
+     */
+    private static int parseHex(String escaped, int start) {
+        int code = 0;
+        for (int i = start; i < start + 4; i++) {
+            char c = escaped.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else if (c >= 'A' && c <= 'F') {
+                digit = c - 'A' + 10;
+            } else {
+                return -1;
+            }
+            code = code << 4 | digit;
+        }
+        return code;
+    }
+}
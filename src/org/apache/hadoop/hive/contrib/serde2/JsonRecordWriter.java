@@ -0,0 +1,454 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.List;
+import java.util.Map;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.MapObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.PrimitiveObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.UnionObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BinaryObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.BooleanObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ByteObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.DoubleObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.FloatObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.IntObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.ShortObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.StringObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.TimestampObjectInspector;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Writes Hive objects as UTF-8 JSON text, walking their ObjectInspectors.
+ *
+ * The text is written straight into a byte buffer which is reused for every
+ * record, without building JSON objects or a String for each field.  Strings
+ * are copied from their Text bytes, escaping only what JSON requires, and
+ * numbers are written digit by digit.  Doubles and floats are formatted by a
+ * reused StringBuilder, as Double.toString would format them.
+ *
+ * NaN and the infinities have no JSON number, so they are written as the
+ * strings "NaN", "Infinity" and "-Infinity", which read back as numbers.
+ * Timestamps are written as their string form and binary values in base64.
+ */
+class JsonRecordWriter {
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] HEX = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+    private static final byte[] BASE64 =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes(JsonPathTrie.UTF8);
+
+    /**
+     * The record being written
+     */
+    private byte[] buffer = new byte[256];
+    private int length;
+
+    /**
+     * Reused to format doubles and floats
+     */
+    private final StringBuilder numberBuilder = new StringBuilder(32);
+
+    /**
+     * Starts a new record, reusing the buffer
+     */
+    void reset() {
+        length = 0;
+    }
+
+    /**
+     * @return the buffer holding the record, valid up to getLength()
+     */
+    byte[] getBytes() {
+        return buffer;
+    }
+
+    int getLength() {
+        return length;
+    }
+
+    /**
+     * Writes a row as the nested JSON document of an output plan, with the
+     * value of each field at the path of its column
+     */
+    void writeRow(Object row, StructObjectInspector rowInspector, JsonOutputPlan plan) throws SerDeException {
+        List<? extends StructField> fields = rowInspector.getAllStructFieldRefs();
+        if (fields.size() != plan.getNumberOfColumns()) {
+            throw new SerDeException("Trying to serialize " + fields.size()
+                + " fields into a table with " + plan.getNumberOfColumns() + " columns");
+        }
+        writeNode(plan.getRoot(), row, rowInspector, fields);
+    }
+
+    private void writeNode(JsonOutputPlan.Node node, Object row, StructObjectInspector rowInspector,
+        List<? extends StructField> fields) throws SerDeException {
+        if (node.column >= 0) {
+            StructField field = fields.get(node.column);
+            writeValue(rowInspector.getStructFieldData(row, field), field.getFieldObjectInspector());
+        } else if (node.children.length == 0) {
+            write(NULL);
+        } else {
+            write(node.array ? '[' : '{');
+            for (JsonOutputPlan.Node child : node.children) {
+                write(child.prefix);
+                writeNode(child, row, rowInspector, fields);
+            }
+            write(node.array ? ']' : '}');
+        }
+    }
+
+    /**
+     * Writes any Hive object as JSON
+     */
+    void writeValue(Object data, ObjectInspector inspector) throws SerDeException {
+        if (data == null) {
+            write(NULL);
+            return;
+        }
+
+        switch (inspector.getCategory()) {
+            case PRIMITIVE:
+                writePrimitive(data, (PrimitiveObjectInspector) inspector);
+                break;
+            case LIST:
+                writeList(data, (ListObjectInspector) inspector);
+                break;
+            case MAP:
+                writeMap(data, (MapObjectInspector) inspector);
+                break;
+            case STRUCT:
+                writeStruct(data, (StructObjectInspector) inspector);
+                break;
+            case UNION:
+                UnionObjectInspector unionInspector = (UnionObjectInspector) inspector;
+                writeValue(unionInspector.getField(data),
+                    unionInspector.getObjectInspectors().get(unionInspector.getTag(data)));
+                break;
+            default:
+                throw new SerDeException("Unknown type in ObjectInspector: " + inspector.getTypeName());
+        }
+    }
+
+    private void writePrimitive(Object data, PrimitiveObjectInspector inspector) throws SerDeException {
+        switch (inspector.getPrimitiveCategory()) {
+            case VOID:
+                write(NULL);
+                break;
+            case BOOLEAN:
+                write(((BooleanObjectInspector) inspector).get(data) ? TRUE : FALSE);
+                break;
+            case BYTE:
+                writeLong(((ByteObjectInspector) inspector).get(data));
+                break;
+            case SHORT:
+                writeLong(((ShortObjectInspector) inspector).get(data));
+                break;
+            case INT:
+                writeLong(((IntObjectInspector) inspector).get(data));
+                break;
+            case LONG:
+                writeLong(((LongObjectInspector) inspector).get(data));
+                break;
+            case FLOAT:
+                float floatValue = ((FloatObjectInspector) inspector).get(data);
+                if (Float.isNaN(floatValue) || Float.isInfinite(floatValue)) {
+                    writeString(Float.toString(floatValue));
+                } else {
+                    numberBuilder.setLength(0);
+                    numberBuilder.append(floatValue);
+                    writeAscii(numberBuilder);
+                }
+                break;
+            case DOUBLE:
+                double doubleValue = ((DoubleObjectInspector) inspector).get(data);
+                if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                    writeString(Double.toString(doubleValue));
+                } else {
+                    numberBuilder.setLength(0);
+                    numberBuilder.append(doubleValue);
+                    writeAscii(numberBuilder);
+                }
+                break;
+            case STRING:
+                StringObjectInspector stringInspector = (StringObjectInspector) inspector;
+                if (stringInspector.preferWritable()) {
+                    Text text = stringInspector.getPrimitiveWritableObject(data);
+                    writeString(text.getBytes(), 0, text.getLength());
+                } else {
+                    writeString(stringInspector.getPrimitiveJavaObject(data));
+                }
+                break;
+            case TIMESTAMP:
+                writeString(((TimestampObjectInspector) inspector).getPrimitiveWritableObject(data).toString());
+                break;
+            case BINARY:
+                BytesWritable binary = ((BinaryObjectInspector) inspector).getPrimitiveWritableObject(data);
+                writeBase64(binary.getBytes(), binary.getLength());
+                break;
+            default:
+                throw new SerDeException("Unknown primitive type: " + inspector.getTypeName());
+        }
+    }
+
+    private void writeList(Object data, ListObjectInspector inspector) throws SerDeException {
+        ObjectInspector elementInspector = inspector.getListElementObjectInspector();
+        int size = inspector.getListLength(data);
+        write('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                write(',');
+            }
+            writeValue(inspector.getListElement(data, i), elementInspector);
+        }
+        write(']');
+    }
+
+    private void writeMap(Object data, MapObjectInspector inspector) throws SerDeException {
+        ObjectInspector keyInspector = inspector.getMapKeyObjectInspector();
+        ObjectInspector valueInspector = inspector.getMapValueObjectInspector();
+        if (keyInspector.getCategory() != ObjectInspector.Category.PRIMITIVE) {
+            throw new SerDeException("JSON object keys must be primitive, not " + keyInspector.getTypeName());
+        }
+
+        boolean first = true;
+        write('{');
+        for (Map.Entry<?, ?> entry : inspector.getMap(data).entrySet()) {
+            if (!first) {
+                write(',');
+            }
+            first = false;
+            writeKey(entry.getKey(), (PrimitiveObjectInspector) keyInspector);
+            write(':');
+            writeValue(entry.getValue(), valueInspector);
+        }
+        write('}');
+    }
+
+    /**
+     * Writes a map key, which JSON only allows to be a string
+     */
+    private void writeKey(Object key, PrimitiveObjectInspector keyInspector) throws SerDeException {
+        switch (keyInspector.getPrimitiveCategory()) {
+            case STRING:
+            case TIMESTAMP:
+            case BINARY:
+                if (key == null) {
+                    writeString("null");
+                } else {
+                    writePrimitive(key, keyInspector);
+                }
+                break;
+            case FLOAT:
+            case DOUBLE:
+                if (key != null && !isFinite(key, keyInspector)) {
+                    // NaN and Infinity are written as strings already
+                    writePrimitive(key, keyInspector);
+                    break;
+                }
+                write('"');
+                writeValue(key, keyInspector);
+                write('"');
+                break;
+            default:
+                // Numbers and booleans have no characters that need escaping
+                write('"');
+                writeValue(key, keyInspector);
+                write('"');
+                break;
+        }
+    }
+
+    private static boolean isFinite(Object data, PrimitiveObjectInspector inspector) {
+        if (inspector.getPrimitiveCategory() == PrimitiveObjectInspector.PrimitiveCategory.FLOAT) {
+            float value = ((FloatObjectInspector) inspector).get(data);
+            return !Float.isNaN(value) && !Float.isInfinite(value);
+        }
+        double value = ((DoubleObjectInspector) inspector).get(data);
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    private void writeStruct(Object data, StructObjectInspector inspector) throws SerDeException {
+        List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+        write('{');
+        for (int f = 0; f < fields.size(); f++) {
+            if (f > 0) {
+                write(',');
+            }
+            StructField field = fields.get(f);
+            writeString(field.getFieldName());
+            write(':');
+            writeValue(inspector.getStructFieldData(data, field), field.getFieldObjectInspector());
+        }
+        write('}');
+    }
+
+    /**
+     * Writes a long in decimal, without making a String
+     */
+    void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            // Cannot be negated
+            writeAscii("-9223372036854775808");
+            return;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int position = length + digits;
+        do {
+            buffer[--position] = (byte) ('0' + (int) (value % 10));
+            value /= 10;
+        } while (value != 0);
+        length += digits;
+    }
+
+    /**
+     * Writes a string as a quoted and escaped JSON string, encoding it as UTF-8
+     */
+    void writeString(String value) {
+        // Each char is at most three bytes, or six when escaped
+        ensureCapacity(value.length() * 6 + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                writeEscaped((byte) c);
+            } else if (c < 0x800) {
+                buffer[length++] = (byte) (0xC0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buffer[length++] = (byte) (0xF0 | (codePoint >> 18));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buffer[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // Unpaired surrogates are replaced, as String.getBytes does
+                buffer[length++] = '?';
+            } else {
+                buffer[length++] = (byte) (0xE0 | (c >> 12));
+                buffer[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buffer[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        buffer[length++] = '"';
+    }
+
+    /**
+     * Writes UTF-8 bytes as a quoted and escaped JSON string
+     */
+    void writeString(byte[] bytes, int start, int count) {
+        ensureCapacity(count * 6 + 2);
+        buffer[length++] = '"';
+        int end = start + count;
+        for (int i = start; i < end; i++) {
+            writeEscaped(bytes[i]);
+        }
+        buffer[length++] = '"';
+    }
+
+    /**
+     * Writes one byte of a string, escaping the quote, the backslash and the
+     * control characters.  The capacity must already have been ensured.
+     */
+    private void writeEscaped(byte b) {
+        if (b == '"' || b == '\\') {
+            buffer[length++] = '\\';
+            buffer[length++] = b;
+        } else if (b >= 0 && b < 0x20) {
+            buffer[length++] = '\\';
+            switch (b) {
+                case '\n':
+                    buffer[length++] = 'n';
+                    break;
+                case '\r':
+                    buffer[length++] = 'r';
+                    break;
+                case '\t':
+                    buffer[length++] = 't';
+                    break;
+                case '\b':
+                    buffer[length++] = 'b';
+                    break;
+                case '\f':
+                    buffer[length++] = 'f';
+                    break;
+                default:
+                    buffer[length++] = 'u';
+                    buffer[length++] = '0';
+                    buffer[length++] = '0';
+                    buffer[length++] = HEX[b >> 4];
+                    buffer[length++] = HEX[b & 0xF];
+                    break;
+            }
+        } else {
+            buffer[length++] = b;
+        }
+    }
+
+    private void writeBase64(byte[] bytes, int count) {
+        ensureCapacity((count + 2) / 3 * 4 + 2);
+        buffer[length++] = '"';
+        for (int i = 0; i < count; i += 3) {
+            int remaining = count - i;
+            int chunk = (bytes[i] & 0xFF) << 16
+                | (remaining > 1 ? (bytes[i + 1] & 0xFF) << 8 : 0)
+                | (remaining > 2 ? bytes[i + 2] & 0xFF : 0);
+            buffer[length++] = BASE64[chunk >>> 18];
+            buffer[length++] = BASE64[(chunk >>> 12) & 0x3F];
+            buffer[length++] = remaining > 1 ? BASE64[(chunk >>> 6) & 0x3F] : (byte) '=';
+            buffer[length++] = remaining > 2 ? BASE64[chunk & 0x3F] : (byte) '=';
+        }
+        buffer[length++] = '"';
+    }
+
+    private void writeAscii(CharSequence value) {
+        int count = value.length();
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            buffer[length++] = (byte) value.charAt(i);
+        }
+    }
+
+    private void write(byte[] bytes) {
+        writeRaw(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Writes bytes as they are, which must already be valid JSON
+     */
+    void writeRaw(byte[] bytes, int start, int count) {
+        ensureCapacity(count);
+        System.arraycopy(bytes, start, buffer, length, count);
+        length += count;
+    }
+
+    void write(char c) {
+        ensureCapacity(1);
+        buffer[length++] = (byte) c;
+    }
+
+    private void ensureCapacity(int more) {
+        if (length + more > buffer.length) {
+            byte[] bigger = new byte[Math.max(buffer.length * 2, length + more)];
+            System.arraycopy(buffer, 0, bigger, 0, length);
+            buffer = bigger;
+        }
+    }
+}
@@ -3,29 +3,23 @@
  */
 package org.apache.hadoop.hive.contrib.serde2;
 
-import com.jayway.jsonpath.InvalidPathException;
-import com.jayway.jsonpath.JsonPath;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
-import net.minidev.json.JSONObject;
-import net.minidev.json.JSONValue;
-import net.minidev.json.parser.ParseException;
+import java.util.concurrent.atomic.AtomicLong;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
 import org.apache.hadoop.hive.serde2.SerDe;
 import org.apache.hadoop.hive.serde2.SerDeException;
 import org.apache.hadoop.hive.serde2.SerDeStats;
 import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
-import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
 import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
-import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
-import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 
@@ -41,6 +35,9 @@ import org.apache.hadoop.io.Writable;
  *      "keywords"="$['param.keywords']"
  * );
  * </pre>
+ *
+ * Records that cannot be parsed are handled as set by the
+ * {@link JsonMalformedRecordPolicy} properties.
  */
 public class JsonSerDe implements SerDe {
     /**
@@ -49,193 +46,447 @@ public class JsonSerDe implements SerDe {
     private static final Log LOG = LogFactory.getLog(JsonSerDe.class.getName());
 
     /**
-     * The number of columns in the table this SerDe is being used with
+     * Set to false by Hive releases newer than 0.8 when only the columns listed in
+     * ColumnProjectionUtils.READ_COLUMN_IDS_CONF_STR are read.  An empty list of
+     * columns then means that no columns are read at all, as for count(*).
      */
-    private int numberOfColumns;
+    static final String READ_ALL_COLUMNS = "hive.io.file.read.all.columns";
 
     /**
-     * List of column names in the table
+     * Set to true, as a SERDEPROPERTY or in the job, for a SerDe shared by the
+     * threads of a MultithreadedMapper or of an operator pipeline.  Each thread
+     * then gets its own row objects, valid until that thread deserializes its
+     * next record, while the compiled plan and ObjectInspectors are shared.
      */
-    private List<String> columnNames;
+    public static final String THREAD_SAFE = "json.thread.safe";
 
     /**
-     * An ObjectInspector to be used as meta-data about a deserialized row
+     * The compiled paths, converters and ObjectInspector for the table, shared
+     * with every other SerDe initialized for the same schema
      */
-    private StructObjectInspector rowObjectInspector;
+    private JsonSerDePlan plan;
 
     /**
-     * List of row objects
+     * What to do with records that cannot be parsed
      */
-    private ArrayList<Object> row;
+    private JsonMalformedRecordPolicy malformedRecordPolicy;
 
     /**
-     * List of column type information
+     * How the adaptive parser backend picks a backend, and its choices
      */
-    private List<TypeInfo> columnTypes;
+    private JsonParserSelection parserSelection;
 
-    private Map<String, JsonPath> columnNameJsonPathMap = null;
+    /**
+     * The row state of this SerDe, or null in the thread safe mode, where
+     * each thread has its own
+     */
+    private RowState state;
+    private ThreadLocal<RowState> threadStates;
 
     /**
-     * Initialize this SerDe with the system properties and table properties
+     * The counters of the row state of this SerDe, or of each thread using it,
+     * guarded by the list itself
      */
-    @Override
-    public void initialize(Configuration systemProperties, Properties tableProperties)
-        throws SerDeException {
-        if (LOG.isDebugEnabled()) {
-            LOG.debug("JsonSerDe Configuration: " + systemProperties);
-            LOG.debug("JsonSerDe Table Properties: " + tableProperties);
+    private final List<Counters> allCounters = new ArrayList<Counters>();
+
+    /**
+     * The counters of the threads which have ended, and of the row states
+     * dropped when the SerDe was initialized again, as totals are over the
+     * life of the SerDe
+     */
+    private final Counters retired = new Counters(null);
+
+    /**
+     * Rows and bytes deserialized and serialized by a row state.  They are
+     * atomic so that the totals summed up by other threads, and checked by the
+     * malformed record policy, are up to date.
+     */
+    private static final class Counters {
+        final AtomicLong rowsDeserialized = new AtomicLong();
+        final AtomicLong bytesDeserialized = new AtomicLong();
+        final AtomicLong rowsSerialized = new AtomicLong();
+        final AtomicLong bytesSerialized = new AtomicLong();
+
+        /**
+         * The thread counting, or null for the row state of the SerDe
+         */
+        private final WeakReference<Thread> owner;
 
+        Counters(Thread owner) {
+            this.owner = owner == null ? null : new WeakReference<Thread>(owner);
         }
 
-        // Get the names of the columns for the table this SerDe is being used with
-        String columnNameProperty = tableProperties.getProperty(Constants.LIST_COLUMNS);
-        columnNames = Arrays.asList(columnNameProperty.split(","));
+        /**
+         * Whether the thread counting has ended
+         */
+        boolean isRetired() {
+            if (owner == null) {
+                return false;
+            }
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
 
-        // Convert column types from text to TypeInfo objects
-        String columnTypeProperty = tableProperties.getProperty(Constants.LIST_COLUMN_TYPES);
-        columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
+        void add(Counters other) {
+            rowsDeserialized.addAndGet(other.rowsDeserialized.get());
+            bytesDeserialized.addAndGet(other.bytesDeserialized.get());
+            rowsSerialized.addAndGet(other.rowsSerialized.get());
+            bytesSerialized.addAndGet(other.bytesSerialized.get());
+        }
+    }
 
+    /**
+     * What changes for every row: the reused row object and buffers, and the
+     * statistics and counters
+     */
+    private static final class RowState {
         /**
-         * Make sure the number of column types and column names are equal.
+         * The row object, reused for every record
          */
-        assert columnNames.size() == columnTypes.size();
-        numberOfColumns = columnNames.size();
+        final JsonLazyStruct row;
 
         /**
-         * Store the mapping between the column name and the JSONPath expression for
-         * accessing that column's value within the JSON object.
+         * Deserializes records a batch at a time
          */
+        final JsonBatchDeserializer batchDeserializer;
 
-        // Build a hashmap from column name to JSONPath expression.
-        columnNameJsonPathMap = new HashMap<String, JsonPath>();
-        String[] propertiesSet = new String[tableProperties.stringPropertyNames().size()];
-        propertiesSet = tableProperties.stringPropertyNames().toArray(propertiesSet);
-
-        for (String columnName : columnNames) {
-            String currentJsonPath = null;
-            for (String property : propertiesSet) {
-                if (property.equalsIgnoreCase(columnName)) {
-                    currentJsonPath = tableProperties.getProperty(property);
-                    break;
-                }
-            }
+        /**
+         * Writes serialized rows into a reused buffer
+         */
+        final JsonRecordWriter recordWriter = new JsonRecordWriter();
 
-            if (currentJsonPath == null) {
-                String errorMsg = (String.format("SERDEPROPERTIES must include a property for every column. " +
-                    "Missing property for column '%s'.", columnName));
-                LOG.error(errorMsg);
-                throw new SerDeException(errorMsg);
-            }
+        /**
+         * The serialized row, reused for every record
+         */
+        final Text serializedRow = new Text();
 
-            JsonPath compiledPath = JsonPath.compile(currentJsonPath);
-            if (!compiledPath.isPathDefinite()) {
-                throw new SerDeException(String.format("All JSON paths must point to exactly one item.  " +
-                    "The following path is ambiguous: %s", currentJsonPath));
-            }
+        /**
+         * Statistics of the last row, as Hive sums them up after every row
+         */
+        final SerDeStats stats = new SerDeStats();
+
+        /**
+         * Raw size of the last row deserialized or serialized
+         */
+        long lastRowSize;
+
+        final Counters counters;
 
-            // @todo consider trimming the whitespace from the tokens.
-            columnNameJsonPathMap.put(columnName, compiledPath);
+        /**
+         * @param owner the thread using the row state, or null for the row
+         *        state of the SerDe
+         */
+        RowState(JsonSerDePlan plan, JsonMalformedRecordPolicy malformedRecordPolicy,
+            JsonParserSelection parserSelection, Thread owner) {
+            counters = new Counters(owner);
+            // Columns which are not projected are not in the trie, so they are always null
+            row = new JsonLazyStruct(plan.columnConverters, plan.jsonPathTrie, malformedRecordPolicy,
+                plan.backend.create(plan.jsonPathTrie, plan.columnConverters.length, plan.strict, parserSelection));
+            batchDeserializer = new JsonBatchDeserializer(plan.columnConverters, plan.projected, malformedRecordPolicy,
+                plan.backend.create(plan.jsonPathTrie, plan.columnConverters.length, plan.strict, parserSelection));
         }
+    }
 
-        // Create ObjectInspectors from the type information for each column
-        List<ObjectInspector> columnObjectInspectors = new ArrayList<ObjectInspector>(columnNames.size());
-        ObjectInspector objectInspector;
+    /**
+     * Initialize this SerDe with the system properties and table properties
+     */
+    @Override
+    public void initialize(Configuration systemProperties, Properties tableProperties)
+        throws SerDeException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("JsonSerDe Configuration: " + systemProperties);
+            LOG.debug("JsonSerDe Table Properties: " + tableProperties);
 
-        for (int c = 0; c < numberOfColumns; c++) {
-            objectInspector = TypeInfoUtils.getStandardJavaObjectInspectorFromTypeInfo(columnTypes.get(c));
-            columnObjectInspectors.add(objectInspector);
         }
-        rowObjectInspector = ObjectInspectorFactory.getStandardStructObjectInspector(columnNames, columnObjectInspectors);
 
-        // Create an empty row object to be reused during deserialization
-        row = new ArrayList<Object>(numberOfColumns);
-        for (int c = 0; c < numberOfColumns; c++) {
-            row.add(null);
+        // The parser backend may be set for the whole job rather than for each table
+        String jobBackend = systemProperties == null ? null : systemProperties.get(JsonRecordParser.BACKEND);
+        if (jobBackend != null && tableProperties.getProperty(JsonRecordParser.BACKEND) == null) {
+            Properties defaults = tableProperties;
+            tableProperties = new Properties(defaults);
+            tableProperties.setProperty(JsonRecordParser.BACKEND, jobBackend);
+        }
+
+        // Only the columns read by the query need to be extracted
+        String columnNameProperty = tableProperties.getProperty(Constants.LIST_COLUMNS);
+        boolean[] projected = getProjectedColumns(systemProperties, columnNameProperty.split(",").length);
+
+        // The paths, converters and ObjectInspectors are compiled once for each
+        // schema and projection, and shared by all the SerDes using them
+        plan = JsonSerDePlan.get(tableProperties, projected);
+
+        malformedRecordPolicy = JsonMalformedRecordPolicy.fromProperties(tableProperties);
+        parserSelection = JsonParserSelection.fromProperties(tableProperties);
+
+        // Create the row objects to be reused during deserialization, once for
+        // this SerDe, or the first time each thread uses it
+        synchronized (allCounters) {
+            for (Counters counters : allCounters) {
+                retired.add(counters);
+            }
+            allCounters.clear();
+        }
+        String threadSafe = tableProperties.getProperty(THREAD_SAFE);
+        if (threadSafe == null && systemProperties != null) {
+            threadSafe = systemProperties.get(THREAD_SAFE);
+        }
+        if (Boolean.parseBoolean(threadSafe)) {
+            final JsonSerDePlan threadPlan = plan;
+            final JsonMalformedRecordPolicy threadPolicy = malformedRecordPolicy;
+            final JsonParserSelection threadSelection = parserSelection;
+            state = null;
+            threadStates = new ThreadLocal<RowState>() {
+                @Override
+                protected RowState initialValue() {
+                    RowState threadState = new RowState(threadPlan, threadPolicy, threadSelection,
+                        Thread.currentThread());
+                    addCounters(threadState.counters);
+                    return threadState;
+                }
+            };
+        } else {
+            state = new RowState(plan, malformedRecordPolicy, parserSelection, null);
+            threadStates = null;
+            addCounters(state.counters);
         }
 
         LOG.debug("JsonSerDe initialization complete");
     }
 
+    /**
+     * Whether the query reads no columns at all, as for count(*), in which
+     * case no record needs to be parsed
+     */
+    static boolean readsNoColumns(Configuration systemProperties) {
+        return systemProperties != null && ColumnProjectionUtils.getReadColumnIDs(systemProperties).isEmpty()
+            && !systemProperties.getBoolean(READ_ALL_COLUMNS, true);
+    }
+
+    /**
+     * Finds which columns are read by the query, from the column IDs Hive
+     * pushes down into the job configuration.  When Hive gives no IDs, all
+     * columns are read.
+     */
+    static boolean[] getProjectedColumns(Configuration systemProperties, int numberOfColumns) {
+        boolean[] projected = new boolean[numberOfColumns];
+        List<Integer> readColumnIds = ColumnProjectionUtils.getReadColumnIDs(systemProperties);
+        boolean readAllColumns = systemProperties == null
+            || systemProperties.getBoolean(READ_ALL_COLUMNS, readColumnIds.isEmpty());
+
+        if (readAllColumns) {
+            Arrays.fill(projected, true);
+        } else {
+            for (Integer id : readColumnIds) {
+                if (id >= 0 && id < numberOfColumns) {
+                    projected[id] = true;
+                }
+            }
+        }
+        return projected;
+    }
+
     /**
      * Gets the ObjectInspector for a row deserialized by this SerDe
      */
     @Override
     public ObjectInspector getObjectInspector() throws SerDeException {
-        return rowObjectInspector;
+        return plan.rowObjectInspector;
     }
 
+    /**
+     * Gets the statistics of the last row deserialized or serialized.  As for
+     * LazySimpleSerDe, the raw data size is the length of the JSON text of the
+     * row, and Hive adds it up over all rows.
+     */
     @Override
     public SerDeStats getSerDeStats() {
-        return null;
+        RowState rowState = state();
+        rowState.stats.setRawDataSize(rowState.lastRowSize);
+        return rowState.stats;
     }
 
     /**
-     * Deserialize a JSON Object into a row for the table
+     * The row state of the calling thread
      */
-    @Override
-    public Object deserialize(Writable blob) throws SerDeException {
-        Text rowText = (Text) blob;
+    private RowState state() {
+        return state != null ? state : threadStates.get();
+    }
 
-        // Try parsing row into JSON object
-        JSONObject jsonObject;
-        try {
-            jsonObject = (JSONObject) JSONValue.parseWithException(rowText.toString());
+    /**
+     * Adds the counters of a new row state, folding those of the threads
+     * which have ended into the retired counters, so that only the counters
+     * of live threads are kept
+     */
+    private void addCounters(Counters counters) {
+        synchronized (allCounters) {
+            for (Iterator<Counters> i = allCounters.iterator(); i.hasNext();) {
+                Counters threadCounters = i.next();
+                if (threadCounters.isRetired()) {
+                    retired.add(threadCounters);
+                    i.remove();
+                }
+            }
+            allCounters.add(counters);
+        }
+    }
 
-        } catch (ParseException e) {
-            LOG.error("Failed to parse: " + rowText, e);
-            return null;
+    /**
+     * The totals over all row states.  In the thread safe mode, they include
+     * the rows counted so far by the other threads.
+     */
+    private Counters getTotals() {
+        Counters totals = new Counters(null);
+        synchronized (allCounters) {
+            totals.add(retired);
+            for (Counters counters : allCounters) {
+                totals.add(counters);
+            }
         }
+        return totals;
+    }
 
-        // Loop over columns in table and set values
-        JsonPath columnPath;
-        Object temporaryValue;
+    /**
+     * @return the number of rows deserialized by this SerDe
+     */
+    public long getRowsDeserialized() {
+        return getTotals().rowsDeserialized.get();
+    }
 
-        String columnValue;
-        Object value;
+    /**
+     * @return the number of bytes of JSON text deserialized by this SerDe
+     */
+    public long getBytesDeserialized() {
+        return getTotals().bytesDeserialized.get();
+    }
 
-        for (int columnIndex = 0; columnIndex < numberOfColumns; columnIndex++) {
-            columnPath = columnNameJsonPathMap.get(columnNames.get(columnIndex));
-            TypeInfo typeInfo = columnTypes.get(columnIndex);
+    /**
+     * @return the number of malformed records found by this SerDe.  With the
+     *         "null" policy, only records with a column read are counted.
+     */
+    public long getMalformedRows() {
+        return malformedRecordPolicy.getMalformedRows();
+    }
 
-            try {
-                temporaryValue = columnPath.read(jsonObject);
-            } catch (InvalidPathException e) {
-                temporaryValue = null;
-            }
+    /**
+     * @return the number of times the adaptive parser backend picked the
+     *         backend named, such as "streaming" or "tape", since the SerDe
+     *         was last initialized
+     */
+    public long getParserChoices(String backend) {
+        return parserSelection.getChoices(JsonRecordParser.Backend.valueOf(backend.trim().toUpperCase()));
+    }
 
-            if (temporaryValue == null) {
-                value = null;
-
-            } else {
-                columnValue = temporaryValue.toString();
-
-                // Get type-safe JSON values
-                if (typeInfo.getTypeName().equalsIgnoreCase(Constants.DOUBLE_TYPE_NAME)) {
-                    value = Double.valueOf(columnValue);
-                } else if (typeInfo.getTypeName().equalsIgnoreCase(Constants.BIGINT_TYPE_NAME)) {
-                    value = Long.valueOf(columnValue);
-                } else if (typeInfo.getTypeName().equalsIgnoreCase(Constants.INT_TYPE_NAME)) {
-                    value = Integer.valueOf(columnValue);
-                } else if (typeInfo.getTypeName().equalsIgnoreCase(Constants.TINYINT_TYPE_NAME)) {
-                    value = Byte.valueOf(columnValue);
-                } else if (typeInfo.getTypeName().equalsIgnoreCase(Constants.FLOAT_TYPE_NAME)) {
-                    value = Float.valueOf(columnValue);
-                } else if (typeInfo.getTypeName().equalsIgnoreCase(Constants.BOOLEAN_TYPE_NAME)) {
-                    value = Boolean.valueOf(columnValue);
-                } else {
-                    // Fall back, just use the string
-                    value = columnValue;
-                }
-            }
+    /**
+     * @return the number of times the adaptive parser backend changed from one
+     *         backend to another since the SerDe was last initialized
+     */
+    public long getParserSwitches() {
+        return parserSelection.getSwitches();
+    }
+
+    /**
+     * @return the number of rows serialized by this SerDe
+     */
+    public long getRowsSerialized() {
+        return getTotals().rowsSerialized.get();
+    }
+
+    /**
+     * @return the number of bytes of JSON text serialized by this SerDe
+     */
+    public long getBytesSerialized() {
+        return getTotals().bytesSerialized.get();
+    }
 
-            row.set(columnIndex, value);
+    /**
+     * Deserialize a JSON Object into a row for the table
+     *
+     * @return the row, or null if the record is malformed and skipped
+     * @throws SerDeException if the record is malformed and there are too many
+     *         malformed records
+     */
+    @Override
+    public Object deserialize(Writable blob) throws SerDeException {
+        Text rowText = (Text) blob;
+        RowState rowState = state();
+        JsonLazyStruct row = rowState.row;
+
+        // The record is only parsed once a field of the row is accessed, unless
+        // the JsonRecordReader has parsed it already
+        JsonTape parsedTape = blob instanceof JsonRecord ? ((JsonRecord) blob).getTape() : null;
+        if (parsedTape != null) {
+            row.init(rowText.getBytes(), rowText.getLength(), parsedTape);
+        } else {
+            row.init(rowText.getBytes(), rowText.getLength());
         }
 
+        rowState.lastRowSize = rowText.getLength();
+        rowState.counters.rowsDeserialized.incrementAndGet();
+        rowState.counters.bytesDeserialized.addAndGet(rowState.lastRowSize);
+
+        // Unless malformed records are null rows, the record is parsed right away
+        if (malformedRecordPolicy.isEager() && row.isMalformed()) {
+            malformedRecordPolicy.check(getRowsDeserialized());
+            if (malformedRecordPolicy.getAction() == JsonMalformedRecordPolicy.Action.SKIP) {
+                return null;
+            }
+        }
         return row;
     }
 
     /**
-     * Not sure - something to do with serialization of data
+     * Creates a batch of rows for {@link #deserialize(Text[], int, int, JsonColumnBatch)},
+     * with a column vector for every column of the table
+     *
+     * @param capacity the most rows the batch holds, such as
+     *        {@link JsonColumnBatch#DEFAULT_CAPACITY}
+     */
+    public JsonColumnBatch createColumnBatch(int capacity) {
+        return state().batchDeserializer.createBatch(capacity);
+    }
+
+    /**
+     * Deserializes records into a batch of rows, replacing the rows it held.
+     * Records are read until the batch is full or there are none left, with
+     * the parser backend of the table as for single rows.  Malformed records
+     * are handled as for a single row: they are rows of nulls, or are skipped
+     * and take no row of the batch.  String values may refer to the bytes of
+     * the records, so the records must not be changed while the batch is in
+     * use.
+     *
+     * @param records the records, each in a Text of its own
+     * @return the number of records read, which is batch.size unless records
+     *         were skipped
+     * @throws SerDeException if there are too many malformed records
+     */
+    public int deserialize(Text[] records, int offset, int count, JsonColumnBatch batch)
+        throws SerDeException {
+        RowState rowState = state();
+        JsonBatchDeserializer batchDeserializer = rowState.batchDeserializer;
+        batchDeserializer.reset(batch);
+        int capacity = batch.getCapacity();
+        int rows = 0;
+        int r = offset;
+        for (int end = offset + count; r < end && rows < capacity; r++) {
+            Text record = records[r];
+            rowState.lastRowSize = record.getLength();
+            rowState.counters.rowsDeserialized.incrementAndGet();
+            rowState.counters.bytesDeserialized.addAndGet(rowState.lastRowSize);
+
+            if (!batchDeserializer.scan(record.getBytes(), record.getLength(), rows)) {
+                malformedRecordPolicy.check(getRowsDeserialized());
+                if (malformedRecordPolicy.getAction() == JsonMalformedRecordPolicy.Action.SKIP) {
+                    continue;
+                }
+            }
+            rows++;
+        }
+        batchDeserializer.convert(batch, rows);
+        return r - offset;
+    }
+
+    /**
+     * Gets the class of the Writable returned by serialize
      */
     @Override
     public Class<? extends Writable> getSerializedClass() {
@@ -243,11 +494,26 @@ public class JsonSerDe implements SerDe {
     }
 
     /**
-     * Serializes a row of data into a JSON object
+     * Serializes a row of data into a JSON object, with the value of each
+     * column at its JSON path.  The returned Text is reused for the next row.
      */
     @Override
     public Writable serialize(Object obj, ObjectInspector objInspector)
         throws SerDeException {
-        throw new UnsupportedOperationException("JSON serialization is not implemented");
+        if (objInspector.getCategory() != ObjectInspector.Category.STRUCT) {
+            throw new SerDeException(getClass().toString() + " can only serialize struct types, but we got: "
+                + objInspector.getTypeName());
+        }
+
+        RowState rowState = state();
+        JsonRecordWriter recordWriter = rowState.recordWriter;
+        recordWriter.reset();
+        recordWriter.writeRow(obj, (StructObjectInspector) objInspector, plan.outputPlan);
+        rowState.serializedRow.set(recordWriter.getBytes(), 0, recordWriter.getLength());
+
+        rowState.lastRowSize = rowState.serializedRow.getLength();
+        rowState.counters.rowsSerialized.incrementAndGet();
+        rowState.counters.bytesSerialized.addAndGet(rowState.lastRowSize);
+        return rowState.serializedRow;
     }
 }
@@ -0,0 +1,235 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfo;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+
+/**
+ * Everything the JsonSerDe compiles from the schema of a table: the JSON path
+ * of every column merged into tries, a converter for every column, and the
+ * ObjectInspector of the rows.
+ *
+ * Hive initializes a SerDe for every partition and operator, nearly always
+ * for the same few schemas, so plans are kept in a process wide cache keyed by
+ * the column names, types and paths, the columns read by the query, the
+ * policy for values that cannot be converted, the parser backend and whether it
+ * checks whole records.  A plan is never changed once it has been compiled, so
+ * it is shared by every SerDe using it, on any thread.  What changes while rows
+ * are read, such as the row object and the malformed record counts, belongs to
+ * each SerDe.
+ */
+final class JsonSerDePlan {
+    /**
+     * Apache commons logger
+     */
+    private static final Log LOG = LogFactory.getLog(JsonSerDePlan.class.getName());
+
+    /**
+     * The most plans kept in the cache, the least recently used being dropped
+     */
+    static final int CACHED_PLANS = 64;
+
+    private static final Map<String, JsonSerDePlan> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<String, JsonSerDePlan>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JsonSerDePlan> eldest) {
+                return size() > CACHED_PLANS;
+            }
+        });
+
+    final List<String> columnNames;
+    final List<TypeInfo> columnTypes;
+
+    /**
+     * Which columns are read by the query, indexed by column
+     */
+    final boolean[] projected;
+
+    /**
+     * The JSONPath expressions of the projected columns merged into one trie,
+     * so that a record is walked once for all columns
+     */
+    final JsonPathTrie jsonPathTrie;
+
+    /**
+     * The nested document rows are serialized into, from the paths of all columns
+     */
+    final JsonOutputPlan outputPlan;
+
+    /**
+     * The converter of each column, indexed by column
+     */
+    final JsonColumnConverter[] columnConverters;
+
+    final StructObjectInspector rowObjectInspector;
+
+    /**
+     * The backend finding the values of the columns in records
+     */
+    final JsonRecordParser.Backend backend;
+
+    /**
+     * Whether the streaming backend checks the whole of every record
+     */
+    final boolean strict;
+
+    private JsonSerDePlan(List<String> columnNames, List<TypeInfo> columnTypes, String[] columnPaths,
+        boolean[] projected, boolean failUnconvertible, JsonRecordParser.Backend backend, boolean strict)
+        throws SerDeException {
+        int numberOfColumns = columnNames.size();
+        this.columnNames = columnNames;
+        this.columnTypes = columnTypes;
+        this.projected = projected;
+        this.backend = backend;
+        this.strict = strict;
+
+        // Build a trie of the JSONPath expressions of all the projected columns,
+        // and one of all the columns for the layout of serialized rows.
+        jsonPathTrie = new JsonPathTrie();
+        JsonPathTrie outputTrie = new JsonPathTrie();
+        for (int c = 0; c < numberOfColumns; c++) {
+            JsonPath compiledPath = JsonPath.compile(columnPaths[c]);
+            if (!compiledPath.isPathDefinite()) {
+                throw new SerDeException(String.format("All JSON paths must point to exactly one item.  " +
+                    "The following path is ambiguous: %s", columnPaths[c]));
+            }
+
+            // @todo consider trimming the whitespace from the tokens.
+            if (projected[c]) {
+                jsonPathTrie.add(c, compiledPath);
+            }
+            outputTrie.add(c, compiledPath);
+        }
+        outputPlan = new JsonOutputPlan(outputTrie, numberOfColumns);
+
+        // Pick the converter for each column once, rather than for every value
+        columnConverters = new JsonColumnConverter[numberOfColumns];
+        for (int c = 0; c < numberOfColumns; c++) {
+            columnConverters[c] = JsonColumnConverter.forType(columnTypes.get(c), failUnconvertible);
+        }
+
+        // Create ObjectInspectors from the type information for each column: writable
+        // ones for primitive columns, and lazy ones for array, map and struct columns
+        List<ObjectInspector> columnObjectInspectors = new ArrayList<ObjectInspector>(numberOfColumns);
+        for (int c = 0; c < numberOfColumns; c++) {
+            columnObjectInspectors.add(JsonObjectInspectorFactory.getObjectInspector(columnTypes.get(c)));
+        }
+        rowObjectInspector = new JsonStructObjectInspector(columnNames, columnObjectInspectors);
+    }
+
+    /**
+     * Gets the plan for a table, compiling it unless it is in the cache
+     *
+     * @param projected which columns are read by the query
+     * @throws SerDeException if a column has no path, or a path that is not
+     *         definite, or a property has a value that is not known
+     */
+    static JsonSerDePlan get(Properties tableProperties, boolean[] projected) throws SerDeException {
+        // Get the names and types of the columns for the table this SerDe is being used with
+        String columnNameProperty = tableProperties.getProperty(Constants.LIST_COLUMNS);
+        String columnTypeProperty = tableProperties.getProperty(Constants.LIST_COLUMN_TYPES);
+        List<String> columnNames = Arrays.asList(columnNameProperty.split(","));
+        String[] columnPaths = getColumnPaths(tableProperties, columnNames);
+
+        String unconvertiblePolicy = tableProperties.getProperty(JsonColumnConverter.UNCONVERTIBLE_POLICY, "null")
+            .trim();
+        boolean failUnconvertible = unconvertiblePolicy.equalsIgnoreCase("fail");
+        if (!failUnconvertible && !unconvertiblePolicy.equalsIgnoreCase("null")) {
+            throw new SerDeException(JsonColumnConverter.UNCONVERTIBLE_POLICY + " must be null or fail, not '"
+                + unconvertiblePolicy + "'");
+        }
+        JsonRecordParser.Backend backend = JsonRecordParser.getBackend(tableProperties);
+        boolean strict = Boolean.parseBoolean(tableProperties.getProperty(JsonRecordParser.STRICT, "false").trim());
+
+        StringBuilder key = new StringBuilder(columnNameProperty).append('\0').append(columnTypeProperty);
+        for (String path : columnPaths) {
+            key.append('\0').append(path);
+        }
+        key.append('\0').append(failUnconvertible ? 'F' : 'N').append(backend.ordinal())
+            .append(strict ? 'S' : 'L');
+        for (boolean read : projected) {
+            key.append(read ? '1' : '0');
+        }
+
+        String cacheKey = key.toString();
+        JsonSerDePlan plan = CACHE.get(cacheKey);
+        if (plan != null) {
+            return plan;
+        }
+
+        // Convert column types from text to TypeInfo objects
+        List<TypeInfo> columnTypes = TypeInfoUtils.getTypeInfosFromTypeString(columnTypeProperty);
+
+        /**
+         * Make sure the number of column types and column names are equal.
+         */
+        assert columnNames.size() == columnTypes.size();
+
+        plan = new JsonSerDePlan(columnNames, columnTypes, columnPaths, projected.clone(), failUnconvertible,
+            backend, strict);
+        CACHE.put(cacheKey, plan);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Compiled a plan for " + columnNames.size() + " columns, " + CACHE.size() + " plans cached");
+        }
+        return plan;
+    }
+
+    /**
+     * Finds the JSON path of each column: the table property named after the
+     * column, ignoring case as Hive lower cases column names.  A property
+     * whose name matches exactly is preferred.
+     *
+     * @throws SerDeException if a column has no path
+     */
+    private static String[] getColumnPaths(Properties tableProperties, List<String> columnNames)
+        throws SerDeException {
+        Map<String, String> lowerCasePaths = new HashMap<String, String>();
+        for (String property : tableProperties.stringPropertyNames()) {
+            String lowerCase = property.toLowerCase();
+            if (!lowerCasePaths.containsKey(lowerCase) || property.equals(lowerCase)) {
+                lowerCasePaths.put(lowerCase, tableProperties.getProperty(property));
+            }
+        }
+
+        String[] columnPaths = new String[columnNames.size()];
+        for (int c = 0; c < columnPaths.length; c++) {
+            String columnName = columnNames.get(c);
+            columnPaths[c] = tableProperties.getProperty(columnName);
+            if (columnPaths[c] == null) {
+                columnPaths[c] = lowerCasePaths.get(columnName.toLowerCase());
+            }
+
+            if (columnPaths[c] == null) {
+                String errorMsg = (String.format("SERDEPROPERTIES must include a property for every column. " +
+                    "Missing property for column '%s'.", columnName));
+                LOG.error(errorMsg);
+                throw new SerDeException(errorMsg);
+            }
+        }
+        return columnPaths;
+    }
+
+    /**
+     * @return the number of plans in the cache
+     */
+    static int getCachedPlans() {
+        return CACHE.size();
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+
+/**
+ * ObjectInspector for the {@link JsonLazyStruct} rows of the JsonSerDe.  Fields
+ * are read straight from the struct, so only the fields that are inspected are
+ * ever extracted from the record.
+ */
+class JsonStructObjectInspector extends StructObjectInspector {
+    /**
+     * A column of the row
+     */
+    static class JsonStructField implements StructField {
+        private final int fieldId;
+        private final String fieldName;
+        private final ObjectInspector fieldObjectInspector;
+
+        JsonStructField(int fieldId, String fieldName, ObjectInspector fieldObjectInspector) {
+            this.fieldId = fieldId;
+            this.fieldName = fieldName.toLowerCase();
+            this.fieldObjectInspector = fieldObjectInspector;
+        }
+
+        int getFieldId() {
+            return fieldId;
+        }
+
+        @Override
+        public String getFieldName() {
+            return fieldName;
+        }
+
+        @Override
+        public ObjectInspector getFieldObjectInspector() {
+            return fieldObjectInspector;
+        }
+
+        @Override
+        public String getFieldComment() {
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return fieldId + ":" + fieldName;
+        }
+    }
+
+    private final List<JsonStructField> fields;
+
+    JsonStructObjectInspector(List<String> fieldNames, List<ObjectInspector> fieldObjectInspectors) {
+        fields = new ArrayList<JsonStructField>(fieldNames.size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            fields.add(new JsonStructField(i, fieldNames.get(i), fieldObjectInspectors.get(i)));
+        }
+    }
+
+    @Override
+    public String getTypeName() {
+        return ObjectInspectorUtils.getStandardStructTypeName(this);
+    }
+
+    @Override
+    public Category getCategory() {
+        return Category.STRUCT;
+    }
+
+    @Override
+    public List<? extends StructField> getAllStructFieldRefs() {
+        return fields;
+    }
+
+    @Override
+    public StructField getStructFieldRef(String fieldName) {
+        return ObjectInspectorUtils.getStandardStructFieldRef(fieldName, fields);
+    }
+
+    @Override
+    public Object getStructFieldData(Object data, StructField fieldRef) {
+        if (data == null) {
+            return null;
+        }
+        return ((JsonLazyStruct) data).getField(((JsonStructField) fieldRef).getFieldId());
+    }
+
+    @Override
+    public List<Object> getStructFieldsDataAsList(Object data) {
+        if (data == null) {
+            return null;
+        }
+        return ((JsonLazyStruct) data).getFieldsAsList();
+    }
+}
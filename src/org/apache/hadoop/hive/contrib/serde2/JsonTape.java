@@ -0,0 +1,494 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+
+/**
+ * A record that is not strict JSON, parsed leniently into a flat tape of
+ * tokens which is reused for every record.
+ *
+ * Besides strict JSON, the tape reads strings in single quotes, and keys and
+ * strings without quotes, which run up to the next comma, colon or closing
+ * bracket.  Every value is one token, in document order: its type, where it
+ * is in the record, its key if it is an object member, and the index of the
+ * token following it, so that whole subtrees can be stepped over.  Types are
+ * those of the {@link JsonRecordScanner}, string ranges exclude the quotes,
+ * and containers span their brackets.  Scalars are not decoded on the tape;
+ * like the values found by the scanner, they are converted from their bytes
+ * when their column is read.
+ *
+ * The tape is walked once with the JsonPathTrie to find the value of every
+ * column, and can write a value back out as strict JSON.  Parsing and writing
+ * use an explicit stack, so that deeply nested records cannot overflow the
+ * call stack, and walking only recurses along the paths of the trie.  All
+ * arrays grow as needed and are then reused, so a record allocates nothing
+ * once the tape has grown.
+ */
+class JsonTape {
+    /**
+     * Record being parsed
+     */
+    private byte[] bytes;
+    private int position;
+    private int end;
+
+    /**
+     * Tokens, in document order
+     */
+    private byte[] types = new byte[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] nexts = new int[16];
+    private boolean[] keysEscaped = new boolean[16];
+    private int[] keyStarts = new int[16];
+    private int[] keyEnds = new int[16];
+    private int size;
+
+    /**
+     * Containers open while parsing or writing
+     */
+    private int[] stack = new int[16];
+
+    /**
+     * The string or key read last by readString or readKey
+     */
+    private int tokenStart;
+    private int tokenEnd;
+    private boolean tokenEscaped;
+
+    /**
+     * The value found for each column by evaluate, and the keys it has met
+     */
+    private byte[] valueTypes;
+    private int[] valueStarts;
+    private int[] valueEnds;
+    private final JsonPathTrie.SeenMembers seenMembers = new JsonPathTrie.SeenMembers();
+
+    /**
+     * Creates a tape for records which are parsed before the columns to
+     * evaluate are known
+     */
+    JsonTape() {
+        this(0);
+    }
+
+    JsonTape(int numberOfColumns) {
+        this.valueTypes = new byte[numberOfColumns];
+        this.valueStarts = new int[numberOfColumns];
+        this.valueEnds = new int[numberOfColumns];
+    }
+
+    /**
+     * Parses a record onto the tape, replacing the previous one
+     *
+     * @return false if even the lenient grammar cannot read the record
+     */
+    boolean parse(byte[] recordBytes, int start, int length) {
+        bytes = recordBytes;
+        position = start;
+        end = start + length;
+        size = 0;
+
+        int depth = 0;
+        while (true) {
+            // One value, with its key if it is an object member
+            int parent = depth == 0 ? -1 : stack[depth - 1];
+            boolean member = parent >= 0 && types[parent] == JsonRecordScanner.OBJECT;
+            int keyStart = 0;
+            int keyEnd = 0;
+            boolean keyEscaped = false;
+            if (member) {
+                if (!readKey()) {
+                    return false;
+                }
+                keyStart = tokenStart;
+                keyEnd = tokenEnd;
+                keyEscaped = tokenEscaped;
+                skipWhitespace();
+                if (position >= end || bytes[position] != ':') {
+                    return false;
+                }
+                position++;
+            }
+
+            skipWhitespace();
+            if (position >= end) {
+                return false;
+            }
+            int token = size;
+            byte b = bytes[position];
+            if (b == '{' || b == '[') {
+                add(b == '{' ? JsonRecordScanner.OBJECT : JsonRecordScanner.ARRAY, position, position);
+                position++;
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = token;
+                skipWhitespace();
+                if (position >= end || bytes[position] != (b == '{' ? '}' : ']')) {
+                    if (member) {
+                        setKey(token, keyStart, keyEnd, keyEscaped);
+                    }
+                    // Read the first member or element
+                    continue;
+                }
+                position++;
+                depth--;
+                ends[token] = position;
+            } else {
+                byte type = readScalar();
+                if (type == JsonRecordScanner.NONE) {
+                    return false;
+                }
+                add(type, tokenStart, tokenEnd);
+            }
+            nexts[token] = size;
+            if (member) {
+                setKey(token, keyStart, keyEnd, keyEscaped);
+            }
+
+            // Close the containers that end after this value, up to the next comma
+            while (true) {
+                skipWhitespace();
+                if (depth == 0) {
+                    return position == end;
+                }
+                if (position >= end) {
+                    return false;
+                }
+                int open = stack[depth - 1];
+                byte close = types[open] == JsonRecordScanner.OBJECT ? (byte) '}' : (byte) ']';
+                if (bytes[position] == ',') {
+                    position++;
+                    break;
+                } else if (bytes[position] == close) {
+                    position++;
+                    depth--;
+                    ends[open] = position;
+                    nexts[open] = size;
+                } else {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the position in the record where parse stopped
+     */
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return the number of tokens on the tape
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the type of a token, the first one being the whole record
+     */
+    byte getType(int token) {
+        return types[token];
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return where a token starts in the record, after the quote of a string
+     */
+    int getStart(int token) {
+        return starts[token];
+    }
+
+    /**
+     * @return where a token ends in the record, at the quote of a string
+     */
+    int getEnd(int token) {
+        return ends[token];
+    }
+
+    /**
+     * @return the token following a token and everything below it
+     */
+    int getNext(int token) {
+        return nexts[token];
+    }
+
+    /**
+     * @return the key of a token which is an object member, unescaped
+     */
+    String getKey(int token) {
+        return JsonRecordScanner.decode(bytes, keysEscaped[token] ? JsonRecordScanner.ESCAPED_STRING
+            : JsonRecordScanner.STRING, keyStarts[token], keyEnds[token]);
+    }
+
+    /**
+     * Walks the tape once, finding the value of every column in the trie.  As
+     * for the scanner, only the first of duplicated keys is read.
+     */
+    void evaluate(JsonPathTrie trie) {
+        if (valueTypes.length < trie.getColumnLimit()) {
+            valueTypes = new byte[trie.getColumnLimit()];
+            valueStarts = new int[trie.getColumnLimit()];
+            valueEnds = new int[trie.getColumnLimit()];
+        }
+        Arrays.fill(valueTypes, JsonRecordScanner.NONE);
+        seenMembers.clear();
+        if (size > 0) {
+            evaluate(trie.getRoot(), 0);
+        }
+    }
+
+    private void evaluate(JsonPathTrie.Node node, int token) {
+        for (int column : node.columns) {
+            valueTypes[column] = types[token];
+            valueStarts[column] = starts[token];
+            valueEnds[column] = ends[token];
+        }
+        if (node.children.length == 0) {
+            return;
+        }
+
+        if (types[token] == JsonRecordScanner.OBJECT) {
+            int seen = seenMembers.open(node);
+            for (int t = token + 1; t < nexts[token]; t = nexts[t]) {
+                JsonPathTrie.Node child = node.findChild(bytes, keyStarts[t], keyEnds[t], keysEscaped[t]);
+                if (child != null && seenMembers.add(seen, child)) {
+                    evaluate(child, t);
+                }
+            }
+            seenMembers.close(seen);
+        } else if (types[token] == JsonRecordScanner.ARRAY) {
+            int index = 0;
+            for (int t = token + 1; t < nexts[token]; t = nexts[t]) {
+                JsonPathTrie.Node child = node.findElement(index++);
+                if (child != null) {
+                    evaluate(child, t);
+                }
+            }
+        }
+    }
+
+    byte getValueType(int column) {
+        return valueTypes[column];
+    }
+
+    int getValueStart(int column) {
+        return valueStarts[column];
+    }
+
+    int getValueEnd(int column) {
+        return valueEnds[column];
+    }
+
+    /**
+     * Writes the value of a token, and everything below it, as strict JSON
+     */
+    void write(int token, JsonRecordWriter writer) {
+        int depth = 0;
+        int last = nexts[token];
+        for (int t = token; t < last; t++) {
+            while (depth > 0 && t >= nexts[stack[depth - 1]]) {
+                writeClose(stack[--depth], writer);
+            }
+            if (depth > 0) {
+                int parent = stack[depth - 1];
+                if (t != parent + 1) {
+                    writer.write(',');
+                }
+                if (types[parent] == JsonRecordScanner.OBJECT) {
+                    if (keysEscaped[t]) {
+                        writer.writeString(JsonRecordScanner.decode(bytes, JsonRecordScanner.ESCAPED_STRING,
+                            keyStarts[t], keyEnds[t]));
+                    } else {
+                        writer.writeString(bytes, keyStarts[t], keyEnds[t] - keyStarts[t]);
+                    }
+                    writer.write(':');
+                }
+            }
+
+            switch (types[t]) {
+                case JsonRecordScanner.OBJECT:
+                case JsonRecordScanner.ARRAY:
+                    writer.write(types[t] == JsonRecordScanner.OBJECT ? '{' : '[');
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                    }
+                    stack[depth++] = t;
+                    break;
+                case JsonRecordScanner.STRING:
+                    writer.writeString(bytes, starts[t], ends[t] - starts[t]);
+                    break;
+                case JsonRecordScanner.ESCAPED_STRING:
+                    writer.writeString(JsonRecordScanner.decode(bytes, types[t], starts[t], ends[t]));
+                    break;
+                default:
+                    writer.writeRaw(bytes, starts[t], ends[t] - starts[t]);
+                    break;
+            }
+        }
+        while (depth > 0) {
+            writeClose(stack[--depth], writer);
+        }
+    }
+
+    /**
+     * Parses a value leniently and writes it back out as strict JSON
+     *
+     * @return false if the value cannot be parsed or is not of the given type
+     */
+    boolean rewrite(byte[] valueBytes, int start, int length, byte type, JsonRecordWriter writer) {
+        if (!parse(valueBytes, start, length) || types[0] != type) {
+            return false;
+        }
+        writer.reset();
+        write(0, writer);
+        return true;
+    }
+
+    private void writeClose(int container, JsonRecordWriter writer) {
+        writer.write(types[container] == JsonRecordScanner.OBJECT ? '}' : ']');
+    }
+
+    private void add(byte type, int start, int tokenEndPosition) {
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            nexts = Arrays.copyOf(nexts, capacity);
+            keysEscaped = Arrays.copyOf(keysEscaped, capacity);
+            keyStarts = Arrays.copyOf(keyStarts, capacity);
+            keyEnds = Arrays.copyOf(keyEnds, capacity);
+        }
+        types[size] = type;
+        starts[size] = start;
+        ends[size] = tokenEndPosition;
+        nexts[size] = size + 1;
+        size++;
+    }
+
+    private void setKey(int token, int keyStart, int keyEnd, boolean escaped) {
+        keyStarts[token] = keyStart;
+        keyEnds[token] = keyEnd;
+        keysEscaped[token] = escaped;
+    }
+
+    /**
+     * Reads an object key, quoted or not
+     *
+     * @return false if there is no key
+     */
+    private boolean readKey() {
+        skipWhitespace();
+        if (position >= end) {
+            return false;
+        }
+        if (bytes[position] == '"' || bytes[position] == '\'') {
+            return readString();
+        }
+        tokenEscaped = false;
+        return readUnquoted(true);
+    }
+
+    /**
+     * Reads a string, a number, true, false, null or a string without quotes
+     *
+     * @return the type of the value, or NONE if there is none
+     */
+    private byte readScalar() {
+        if (bytes[position] == '"' || bytes[position] == '\'') {
+            if (!readString()) {
+                return JsonRecordScanner.NONE;
+            }
+            return tokenEscaped ? JsonRecordScanner.ESCAPED_STRING : JsonRecordScanner.STRING;
+        }
+        if (!readUnquoted(false)) {
+            return JsonRecordScanner.NONE;
+        }
+        if (isWord("true")) {
+            return JsonRecordScanner.TRUE;
+        } else if (isWord("false")) {
+            return JsonRecordScanner.FALSE;
+        } else if (isWord("null")) {
+            return JsonRecordScanner.NULL;
+        }
+        return JsonNumberParser.isJsonNumber(bytes, tokenStart, tokenEnd) ? JsonRecordScanner.NUMBER : JsonRecordScanner.STRING;
+    }
+
+    /**
+     * Reads a string in double or single quotes
+     *
+     * @return false if the string is not terminated
+     */
+    private boolean readString() {
+        byte quote = bytes[position];
+        tokenEscaped = false;
+        for (int i = position + 1; i < end; i++) {
+            byte b = bytes[i];
+            if (b == quote) {
+                tokenStart = position + 1;
+                tokenEnd = i;
+                position = i + 1;
+                return true;
+            }
+            if (b == '\\') {
+                tokenEscaped = true;
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads text without quotes up to the next comma or closing bracket, or
+     * colon for a key, without the whitespace around it
+     *
+     * @return false if the text is empty
+     */
+    private boolean readUnquoted(boolean key) {
+        tokenStart = position;
+        while (position < end) {
+            byte b = bytes[position];
+            if (b == ',' || b == '}' || b == ']' || (key && b == ':')) {
+                break;
+            }
+            position++;
+        }
+        tokenEnd = position;
+        while (tokenEnd > tokenStart && isWhitespace(bytes[tokenEnd - 1])) {
+            tokenEnd--;
+        }
+        return tokenEnd > tokenStart;
+    }
+
+    private boolean isWord(String word) {
+        int length = word.length();
+        if (tokenEnd - tokenStart != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[tokenStart + i] != word.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private void skipWhitespace() {
+        while (position < end && isWhitespace(bytes[position])) {
+            position++;
+        }
+    }
+}
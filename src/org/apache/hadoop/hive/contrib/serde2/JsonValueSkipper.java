@@ -0,0 +1,197 @@
+/**
+ * JSON SerDe for Hive
+ */
+package org.apache.hadoop.hive.contrib.serde2;
+
+/**
+ * Finds the end of strings and containers eight bytes at a time, in the style
+ * of the structural indexing stage of simdjson.
+ *
+ * Each long of the record is compared with the characters that matter all at
+ * once, with SWAR arithmetic that leaves the high bit of every matching byte
+ * set.  A string ends at its first quote not escaped by a backslash.  In a
+ * container, quotes escaped by a backslash are dropped, a prefix xor of the
+ * remaining quotes gives the bytes inside strings, and the brackets outside
+ * strings are then counted a bit at a time.  Words without a quote, backslash
+ * or bracket are stepped over without looking at their bytes.  As when
+ * skipping a byte at a time, a backslash escapes the next byte even outside
+ * strings, where it is not valid JSON anyway.
+ *
+ * Nothing is checked inside the string or container, as when skipping a byte
+ * at a time.  Bytes after the end of the record are never read.  Words are
+ * put together from their bytes rather than read through a ByteBuffer, which
+ * would have to be allocated for every record held in an array of its own.
+ */
+class JsonValueSkipper {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long QUOTES = '"' * ONES;
+    private static final long BACKSLASHES = '\\' * ONES;
+    private static final long CASE_BITS = 0x20 * ONES;
+    private static final long OPENING_BRACKETS = '{' * ONES;
+    private static final long CLOSING_BRACKETS = '}' * ONES;
+
+    /**
+     * Bytes of a string looked at one at a time before going on a word at a time
+     */
+    private static final int SHORT_STRING = 16;
+
+    /**
+     * Whether the string found last by findStringEnd has escape sequences
+     */
+    private boolean escaped;
+
+    /**
+     * Finds the closing quote of a string
+     *
+     * @param position the first byte after the opening quote
+     * @return the position of the closing quote, or -1 if the string is not
+     *         terminated before end
+     */
+    int findStringEnd(byte[] recordBytes, int position, int end) {
+        escaped = false;
+        // Keys and most values are short, so look at the first bytes one at a time
+        for (int shortEnd = Math.min(end, position + SHORT_STRING); position < shortEnd; position++) {
+            byte b = recordBytes[position];
+            if (b == '"') {
+                return position;
+            }
+            if (b == '\\') {
+                escaped = true;
+                position++;
+            }
+        }
+
+        while (end - position >= 8) {
+            long word = getLong(recordBytes, position);
+            long quotes = matches(word, QUOTES);
+            long backslashes = matches(word, BACKSLASHES);
+            if ((quotes | backslashes) == 0) {
+                position += 8;
+                continue;
+            }
+
+            int quote = Long.numberOfTrailingZeros(quotes);
+            int backslash = Long.numberOfTrailingZeros(backslashes);
+            if (quote < backslash) {
+                return position + (quote >>> 3);
+            }
+            // Step over the backslash and the character it escapes
+            escaped = true;
+            position += (backslash >>> 3) + 2;
+        }
+
+        for (; position < end; position++) {
+            byte b = recordBytes[position];
+            if (b == '"') {
+                return position;
+            }
+            if (b == '\\') {
+                escaped = true;
+                position++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether the string found last by findStringEnd has escape sequences
+     */
+    boolean isEscaped() {
+        return escaped;
+    }
+
+    /**
+     * Finds the end of an object or array, by counting its brackets
+     *
+     * @param position the opening bracket
+     * @return the position after the closing bracket, or -1 if the container
+     *         is not closed before end
+     */
+    int findContainerEnd(byte[] recordBytes, int position, int end) {
+        int depth = 0;
+        long inString = 0;
+        boolean escapeCarry = false;
+        while (position < end) {
+            long word;
+            if (end - position >= 8) {
+                word = getLong(recordBytes, position);
+            } else {
+                // The last word is padded with zero bytes, which match nothing
+                word = 0;
+                for (int i = end - position - 1; i >= 0; i--) {
+                    word = (word << 8) | (recordBytes[position + i] & 0xFF);
+                }
+            }
+
+            long quotes = matches(word, QUOTES);
+            long backslashes = matches(word, BACKSLASHES);
+            long escapedBytes = 0;
+            if (backslashes != 0 || escapeCarry) {
+                // A backslash escapes the next byte, unless it is escaped itself
+                escapedBytes = escapeCarry ? 0x80L : 0;
+                escapeCarry = false;
+                long escapes = backslashes & ~escapedBytes;
+                while (escapes != 0) {
+                    long bit = escapes & -escapes;
+                    long next = bit << 8;
+                    escapeCarry = next == 0;
+                    escapedBytes |= next;
+                    escapes &= ~(bit | next);
+                }
+                quotes &= ~escapedBytes;
+            }
+
+            // The bytes from an opening quote up to the closing one are inside
+            // a string: a prefix xor of the quotes, carried over from the last word
+            long inside = quotes;
+            inside ^= inside << 8;
+            inside ^= inside << 16;
+            inside ^= inside << 32;
+            inside ^= inString;
+            inString = (inside >> 63) & HIGH_BITS;
+
+            // Setting the case bit turns '[' and ']' into '{' and '}'
+            long lowerCase = word | CASE_BITS;
+            long outside = ~(inside | escapedBytes);
+            long opening = matches(lowerCase, OPENING_BRACKETS) & outside;
+            long brackets = opening | (matches(lowerCase, CLOSING_BRACKETS) & outside);
+            while (brackets != 0) {
+                long bit = brackets & -brackets;
+                if ((opening & bit) != 0) {
+                    depth++;
+                } else if (--depth == 0) {
+                    return position + (Long.numberOfTrailingZeros(bit) >>> 3) + 1;
+                }
+                brackets ^= bit;
+            }
+            position += 8;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the eight bytes at the position, as a little endian long
+     */
+    static long getLong(byte[] bytes, int position) {
+        return (bytes[position] & 0xFFL)
+            | (bytes[position + 1] & 0xFFL) << 8
+            | (bytes[position + 2] & 0xFFL) << 16
+            | (bytes[position + 3] & 0xFFL) << 24
+            | (bytes[position + 4] & 0xFFL) << 32
+            | (bytes[position + 5] & 0xFFL) << 40
+            | (bytes[position + 6] & 0xFFL) << 48
+            | (long) bytes[position + 7] << 56;
+    }
+
+    /**
+     * @return the high bit of every byte of the word which is equal to the
+     *         byte repeated in the pattern
+     */
+    static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        return ~(((x & LOW_BITS) + LOW_BITS) | x | LOW_BITS);
+    }
+}
@@ -4,6 +4,10 @@ import org.junit.runner.RunWith;
 import org.junit.runners.Suite;
 
 @RunWith(value = Suite.class)
-@Suite.SuiteClasses(value = { JsonSerDeTest.class })
+@Suite.SuiteClasses(value = { JsonSerDeTest.class, JsonPathTrieTest.class,
+    JsonRecordScannerTest.class, JsonColumnConverterTest.class,
+    JsonNumberParserTest.class, JsonRecordWriterTest.class, JsonOutputPlanTest.class,
+    JsonMalformedRecordPolicyTest.class, JsonTapeTest.class, JsonRecordReaderTest.class,
+    JsonReadAheadRecordReaderTest.class, JsonValueSkipperTest.class, JsonRecordParserTest.class })
 public class AllTests {
 }
@@ -0,0 +1,189 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.hadoop.hive.serde2.io.ByteWritable;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class JsonColumnConverterTest {
+
+    private static JsonColumnConverter converter(String typeName) {
+        return JsonColumnConverter.forType(TypeInfoUtils.getTypeInfoFromTypeString(typeName));
+    }
+
+    private static Object fromObject(String typeName, Object value) {
+        JsonColumnConverter converter = converter(typeName);
+        Object field = converter.createField();
+        converter.fromObject(value, field);
+        return field;
+    }
+
+    @Test
+    public void testForType() {
+        assertTrue(converter("bigint") instanceof JsonColumnConverter.LongConverter);
+        assertTrue(converter("int") instanceof JsonColumnConverter.IntConverter);
+        assertTrue(converter("smallint") instanceof JsonColumnConverter.ShortConverter);
+        assertTrue(converter("tinyint") instanceof JsonColumnConverter.ByteConverter);
+        assertTrue(converter("double") instanceof JsonColumnConverter.DoubleConverter);
+        assertTrue(converter("float") instanceof JsonColumnConverter.FloatConverter);
+        assertTrue(converter("boolean") instanceof JsonColumnConverter.BooleanConverter);
+        assertTrue(converter("string") instanceof JsonColumnConverter.StringConverter);
+        assertTrue(converter("array<int>") instanceof JsonColumnConverter.ListConverter);
+        assertTrue(converter("map<string,int>") instanceof JsonColumnConverter.MapConverter);
+        assertTrue(converter("struct<a:int>") instanceof JsonColumnConverter.StructConverter);
+    }
+
+    @Test
+    public void testFromObject() {
+        assertEquals(new LongWritable(5), fromObject("bigint", Integer.valueOf(5)));
+        assertEquals(new LongWritable(12345), fromObject("bigint", "12345"));
+        assertEquals(new IntWritable(-7), fromObject("int", Long.valueOf(-7)));
+        assertEquals(new ByteWritable((byte) 100), fromObject("tinyint", Integer.valueOf(100)));
+        assertEquals(new DoubleWritable(3), fromObject("double", Integer.valueOf(3)));
+        assertEquals(new DoubleWritable(0.25), fromObject("double", "0.25"));
+        assertEquals(new FloatWritable(0.5f), fromObject("float", Double.valueOf(0.5)));
+        assertEquals(new BooleanWritable(true), fromObject("boolean", Boolean.TRUE));
+        assertEquals(new BooleanWritable(false), fromObject("boolean", "no"));
+        assertEquals(new Text("42"), fromObject("string", Integer.valueOf(42)));
+    }
+
+    @Test
+    public void testFromObjectOutOfRange() {
+        JsonColumnConverter intConverter = converter("int");
+        assertFalse(intConverter.fromObject(Long.valueOf(1L << 40), intConverter.createField()));
+        JsonColumnConverter longConverter = converter("bigint");
+        assertFalse(longConverter.fromObject(BigInteger.ONE.shiftLeft(70), longConverter.createField()));
+        assertFalse(longConverter.fromObject(Double.valueOf(1.5), longConverter.createField()));
+        JsonColumnConverter doubleConverter = converter("double");
+        assertFalse(doubleConverter.fromObject("many", doubleConverter.createField()));
+
+        JsonColumnConverter failing = JsonColumnConverter.forType(
+            TypeInfoUtils.getTypeInfoFromTypeString("int"), true);
+        try {
+            failing.fromObject(Long.valueOf(1L << 40), failing.createField());
+            fail("Does not fit in an int");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * Converts the JSON value of a one element array
+     */
+    private static Object fromSpan(JsonColumnConverter converter, String json) {
+        byte[] bytes = ("[" + json + "]").getBytes(JsonPathTrie.UTF8);
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, Arrays.<Object>asList(0));
+        JsonRecordScanner scanner = new JsonRecordScanner(trie, 1);
+        assertTrue(scanner.scan(bytes, 0, bytes.length));
+        Object field = converter.createField();
+        return converter.fromBytes(scanner, 0, field) ? field : null;
+    }
+
+    @Test
+    public void testFromSpanUnconvertible() {
+        assertNull(fromSpan(converter("int"), "\"many\""));
+        assertNull(fromSpan(converter("int"), "true"));
+        assertNull(fromSpan(converter("int"), "1.5"));
+        assertNull(fromSpan(converter("tinyint"), "128"));
+        assertNull(fromSpan(converter("int"), "-9223372036854775808"));
+        assertNull(fromSpan(converter("bigint"), "9223372036854775808"));
+        assertNull(fromSpan(converter("bigint"), "{\"a\": 1}"));
+        assertNull(fromSpan(converter("double"), "\"many\""));
+        assertNull(fromSpan(converter("double"), "\"1.5.5\""));
+        assertNull(fromSpan(converter("float"), "[1]"));
+        assertEquals(new BooleanWritable(true), fromSpan(converter("boolean"), "\"TRUE\""));
+        assertEquals(new BooleanWritable(false), fromSpan(converter("boolean"), "\"tree\""));
+
+        // The sentinels are values too
+        assertEquals(new LongWritable(Long.MIN_VALUE), fromSpan(converter("bigint"), "-9223372036854775808"));
+        assertEquals(new LongWritable(Long.MIN_VALUE), fromSpan(converter("bigint"), "\"-0009223372036854775808\""));
+        assertTrue(Double.isNaN(((DoubleWritable) fromSpan(converter("double"), "\"NaN\"")).get()));
+        assertEquals(new IntWritable(12), fromSpan(converter("int"), "\"\\u0031\\u0032\""));
+    }
+
+    @Test
+    public void testFailUnconvertible() {
+        JsonColumnConverter failing = JsonColumnConverter.forType(
+            TypeInfoUtils.getTypeInfoFromTypeString("array<int>"), true);
+        try {
+            fromSpan(failing, "\"many\"");
+            fail("Not an array");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        JsonLazyList list = (JsonLazyList) fromSpan(failing, "[1, \"two\", null]");
+        assertEquals(new IntWritable(1), list.getElement(0));
+        assertNull(list.getElement(2));
+        try {
+            list.getElement(1);
+            fail("Not an int");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage().contains("two"));
+        }
+    }
+
+    @Test
+    public void testFromSpanNested() {
+        byte[] bytes = "[[1, \"2\", null], {\"x\": 3}]".getBytes(JsonPathTrie.UTF8);
+
+        JsonColumnConverter listConverter = converter("array<int>");
+        JsonLazyList list = (JsonLazyList) listConverter.createField();
+        assertTrue(listConverter.fromSpan(bytes, JsonRecordScanner.ARRAY, 1, 15, list));
+        assertEquals(3, list.getLength());
+        assertEquals(new IntWritable(1), list.getElement(0));
+        assertEquals(new IntWritable(2), list.getElement(1));
+        assertNull(list.getElement(2));
+        assertNull(list.getElement(3));
+
+        JsonColumnConverter mapConverter = converter("map<string,bigint>");
+        JsonLazyMap map = (JsonLazyMap) mapConverter.createField();
+        assertTrue(mapConverter.fromSpan(bytes, JsonRecordScanner.OBJECT, 17, 25, map));
+        assertEquals(new LongWritable(3), map.getMapValueElement(new Text("x")));
+        assertNull(map.getMapValueElement(new Text("y")));
+
+        // A value which is not a container of the right kind is null
+        assertFalse(listConverter.fromSpan(bytes, JsonRecordScanner.OBJECT, 17, 25, list));
+        assertFalse(mapConverter.fromSpan(bytes, JsonRecordScanner.ARRAY, 1, 15, map));
+    }
+
+    @Test
+    public void testFromSpanMapKeys() {
+        byte[] bytes = "{\"1\": \"a\", \"x\": \"b\", \"1\": \"c\", \"2\": \"d\"}".getBytes(JsonPathTrie.UTF8);
+        JsonColumnConverter converter = converter("map<int,string>");
+        JsonLazyMap map = (JsonLazyMap) converter.createField();
+        assertTrue(converter.fromSpan(bytes, JsonRecordScanner.OBJECT, 0, bytes.length, map));
+
+        // Keys that are not integers are left out, and the first of duplicated keys wins
+        Map<Object, Object> expected = new LinkedHashMap<Object, Object>();
+        expected.put(new IntWritable(1), new Text("a"));
+        expected.put(new IntWritable(2), new Text("d"));
+        assertEquals(expected, map.getMap());
+        assertEquals(2, map.getMapSize());
+    }
+
+    @Test
+    public void testFromObjectNested() {
+        JsonLazyList list = (JsonLazyList) fromObject("array<string>", Arrays.asList("a", "b"));
+        assertEquals(Arrays.asList(new Text("a"), new Text("b")), list.getList());
+
+        JsonLazyStruct struct = (JsonLazyStruct) fromObject("struct<a:int,b:string>",
+            Collections.singletonMap("b", "x"));
+        assertNull(struct.getField(0));
+        assertEquals(new Text("x"), struct.getField(1));
+    }
+}
@@ -0,0 +1,128 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Arrays;
+import java.util.Properties;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class JsonMalformedRecordPolicyTest {
+
+    private static JsonMalformedRecordPolicy policy(String... properties) throws SerDeException {
+        Properties tableProperties = new Properties();
+        for (int i = 0; i < properties.length; i += 2) {
+            tableProperties.setProperty(properties[i], properties[i + 1]);
+        }
+        return JsonMalformedRecordPolicy.fromProperties(tableProperties);
+    }
+
+    private static void recordMalformed(JsonMalformedRecordPolicy policy, int count) {
+        byte[] bytes = "{bad".getBytes(JsonPathTrie.UTF8);
+        for (int i = 0; i < count; i++) {
+            policy.recordMalformed(bytes, 0, bytes.length, bytes.length);
+        }
+    }
+
+    @Test
+    public void testFromProperties() throws SerDeException {
+        assertEquals(JsonMalformedRecordPolicy.Action.NULL, policy().getAction());
+        assertFalse(policy().isEager());
+        assertEquals(JsonMalformedRecordPolicy.Action.SKIP, policy(JsonMalformedRecordPolicy.POLICY, "Skip").getAction());
+        assertTrue(policy(JsonMalformedRecordPolicy.POLICY, "fail").isEager());
+
+        for (String[] invalid : new String[][] {
+            { JsonMalformedRecordPolicy.POLICY, "ignore" },
+            { JsonMalformedRecordPolicy.MAX_ROWS, "-1" },
+            { JsonMalformedRecordPolicy.MAX_ROWS, "many" },
+            { JsonMalformedRecordPolicy.MAX_PERCENT, "101" },
+        }) {
+            try {
+                policy(invalid);
+                fail("Invalid " + Arrays.toString(invalid) + " must be rejected");
+            } catch (SerDeException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testCheckMaxRows() throws SerDeException {
+        JsonMalformedRecordPolicy policy = policy(JsonMalformedRecordPolicy.POLICY, "fail",
+            JsonMalformedRecordPolicy.MAX_ROWS, "2");
+        recordMalformed(policy, 2);
+        policy.check(2);
+        recordMalformed(policy, 1);
+        try {
+            policy.check(3);
+            fail("More than 2 malformed rows");
+        } catch (SerDeException expected) {
+        }
+
+        // Only the "fail" policy fails
+        JsonMalformedRecordPolicy skip = policy(JsonMalformedRecordPolicy.POLICY, "skip");
+        recordMalformed(skip, 100);
+        skip.check(100);
+        assertEquals(100, skip.getMalformedRows());
+    }
+
+    @Test
+    public void testCheckMaxPercent() throws SerDeException {
+        JsonMalformedRecordPolicy policy = policy(JsonMalformedRecordPolicy.POLICY, "fail",
+            JsonMalformedRecordPolicy.MAX_ROWS, "1000000", JsonMalformedRecordPolicy.MAX_PERCENT, "1");
+
+        // Not checked until enough rows have been read
+        recordMalformed(policy, 5);
+        policy.check(JsonMalformedRecordPolicy.PERCENT_MIN_ROWS - 1);
+        recordMalformed(policy, 5);
+        policy.check(JsonMalformedRecordPolicy.PERCENT_MIN_ROWS);
+        recordMalformed(policy, 1);
+        try {
+            policy.check(JsonMalformedRecordPolicy.PERCENT_MIN_ROWS);
+            fail("More than 1% malformed rows");
+        } catch (SerDeException expected) {
+        }
+    }
+
+    @Test
+    public void testCheckMaxPercentOnly() throws SerDeException {
+        JsonMalformedRecordPolicy policy = policy(JsonMalformedRecordPolicy.POLICY, "fail",
+            JsonMalformedRecordPolicy.MAX_PERCENT, "1.5");
+        recordMalformed(policy, 15);
+        policy.check(15);
+        policy.check(JsonMalformedRecordPolicy.PERCENT_MIN_ROWS);
+        recordMalformed(policy, 1);
+        try {
+            policy.check(JsonMalformedRecordPolicy.PERCENT_MIN_ROWS);
+            fail("More than 1.5% malformed rows");
+        } catch (SerDeException expected) {
+        }
+
+        // Both limits are checked when both are set
+        policy = policy(JsonMalformedRecordPolicy.POLICY, "fail", JsonMalformedRecordPolicy.MAX_ROWS, "10",
+            JsonMalformedRecordPolicy.MAX_PERCENT, "1.5");
+        recordMalformed(policy, 11);
+        try {
+            policy.check(JsonMalformedRecordPolicy.PERCENT_MIN_ROWS);
+            fail("More than 10 malformed rows");
+        } catch (SerDeException expected) {
+        }
+    }
+
+    @Test
+    public void testPreview() {
+        byte[] bytes = "{\"a\": 1}".getBytes(JsonPathTrie.UTF8);
+        assertEquals("\"a\"", JsonMalformedRecordPolicy.preview(bytes, 1, 3));
+
+        // Long records are cut, but not in the middle of a character
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < JsonMalformedRecordPolicy.PREVIEW_BYTES - 1; i++) {
+            record.append('x');
+        }
+        record.append("\u00e9\u00e9");
+        bytes = record.toString().getBytes(JsonPathTrie.UTF8);
+        String preview = JsonMalformedRecordPolicy.preview(bytes, 0, bytes.length);
+        assertEquals(record.substring(0, JsonMalformedRecordPolicy.PREVIEW_BYTES - 1) + "...", preview);
+    }
+}
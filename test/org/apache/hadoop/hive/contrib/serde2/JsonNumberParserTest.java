@@ -0,0 +1,194 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class JsonNumberParserTest {
+
+    private static long parseLong(String value) {
+        byte[] bytes = ("[" + value + "]").getBytes(JsonPathTrie.UTF8);
+        return JsonNumberParser.parseLong(bytes, 1, bytes.length - 1);
+    }
+
+    /**
+     * Checks that a number parses to exactly the same double and float as with
+     * the JDK, or fails the same way
+     */
+    private static void assertSameAsJdk(String value) {
+        byte[] bytes = ("[" + value + "]").getBytes(JsonPathTrie.UTF8);
+        long expectedDouble;
+        try {
+            expectedDouble = Double.doubleToRawLongBits(Double.parseDouble(value));
+        } catch (NumberFormatException e) {
+            try {
+                JsonNumberParser.parseDouble(bytes, 1, bytes.length - 1);
+                fail(value + " is not valid");
+            } catch (NumberFormatException expected) {
+            }
+            return;
+        }
+        assertEquals(value, expectedDouble,
+            Double.doubleToRawLongBits(JsonNumberParser.parseDouble(bytes, 1, bytes.length - 1)));
+        assertEquals(value, Float.floatToRawIntBits(Float.parseFloat(value)),
+            Float.floatToRawIntBits(JsonNumberParser.parseFloat(bytes, 1, bytes.length - 1)));
+    }
+
+    private static void assertInvalid(String value, long min, long max) {
+        byte[] bytes = value.getBytes(JsonPathTrie.UTF8);
+        try {
+            JsonNumberParser.parseLong(bytes, 0, bytes.length, min, max);
+            fail(value + " is not valid");
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    @Test
+    public void testParseLong() {
+        assertEquals(0, parseLong("0"));
+        assertEquals(-0, parseLong("-0"));
+        assertEquals(12345, parseLong("12345"));
+        assertEquals(12345, parseLong("+12345"));
+        assertEquals(-12345, parseLong("-12345"));
+        assertEquals(7, parseLong("007"));
+        assertEquals(Long.MAX_VALUE, parseLong("9223372036854775807"));
+        assertEquals(Long.MIN_VALUE, parseLong("-9223372036854775808"));
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String value : new String[] { "", "-", "+", "1.5", "1e3", " 1", "1 ", "0x10", "--1", "12a",
+            "9223372036854775808", "-9223372036854775809", "99999999999999999999" }) {
+            assertInvalid(value, Long.MIN_VALUE, Long.MAX_VALUE);
+        }
+    }
+
+    @Test
+    public void testRange() {
+        byte[] bytes = "-128".getBytes(JsonPathTrie.UTF8);
+        assertEquals(Byte.MIN_VALUE, JsonNumberParser.parseLong(bytes, 0, bytes.length, Byte.MIN_VALUE, Byte.MAX_VALUE));
+        assertInvalid("128", Byte.MIN_VALUE, Byte.MAX_VALUE);
+        assertInvalid("-129", Byte.MIN_VALUE, Byte.MAX_VALUE);
+        assertInvalid("2147483648", Integer.MIN_VALUE, Integer.MAX_VALUE);
+        assertInvalid("-2147483649", Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void testTryParse() {
+        for (String value : new String[] { "many", "12a", "128", "-129", "1.5", "" }) {
+            byte[] bytes = value.getBytes(JsonPathTrie.UTF8);
+            long result = JsonNumberParser.tryParseLong(bytes, 0, bytes.length, Byte.MIN_VALUE, Byte.MAX_VALUE);
+            assertEquals(value, JsonNumberParser.INVALID_LONG, result);
+            assertFalse(value, JsonNumberParser.isValid(result, bytes, 0, bytes.length, Byte.MIN_VALUE));
+        }
+        byte[] bytes = "-9223372036854775808".getBytes(JsonPathTrie.UTF8);
+        long result = JsonNumberParser.tryParseLong(bytes, 0, bytes.length, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertTrue(JsonNumberParser.isValid(result, bytes, 0, bytes.length, Long.MIN_VALUE));
+        assertFalse(JsonNumberParser.isValid(result, bytes, 0, bytes.length, Integer.MIN_VALUE));
+
+        for (String value : new String[] { "many", "n/a", "1.5.5", "1e", "--1", "" }) {
+            bytes = value.getBytes(JsonPathTrie.UTF8);
+            double doubleResult = JsonNumberParser.tryParseDouble(bytes, 0, bytes.length);
+            assertFalse(value, JsonNumberParser.isValid(doubleResult, bytes, 0, bytes.length));
+            float floatResult = JsonNumberParser.tryParseFloat(bytes, 0, bytes.length);
+            assertFalse(value, JsonNumberParser.isValid(floatResult, bytes, 0, bytes.length));
+        }
+        bytes = " -NaN ".getBytes(JsonPathTrie.UTF8);
+        assertTrue(JsonNumberParser.isValid(JsonNumberParser.tryParseDouble(bytes, 0, bytes.length), bytes, 0,
+            bytes.length));
+    }
+
+    @Test
+    public void testMatchesLongParseLong() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            long expected = random.nextLong() >> random.nextInt(64);
+            assertEquals(expected, parseLong(Long.toString(expected)));
+        }
+    }
+
+    @Test
+    public void testParseDouble() {
+        for (String value : new String[] { "0", "-0", "0.0", "-0.0", "0e10", "1", "-1", "+1", "1.5", "-2.25",
+            "3.141592653589793", "1e10", "1E10", "1e+10", "1e-10", "123.456e-7", ".5", "5.", "1.e3",
+            "00012.5000", "0.000001", "9007199254740993", "9007199254740992", "9007199254740991",
+            "1e22", "1e23", "1.7976931348623157e308", "1.7976931348623158e308", "1.8e308", "1e400",
+            "2.2250738585072014e-308", "2.2250738585072011e-308", "4.9e-324", "2.4e-324", "2.5e-324",
+            "1e-400", "3.4028235e38", "3.4028236e38", "1.17549435e-38", "1.4e-45", "7e-46",
+            "123456789012345678901234567890", "0.1000000000000000055511151231257827021181583404541015625",
+            "1.00000000000000011102230246251565404236316680908203125",
+            "1.00000000000000011102230246251565404236316680908203124",
+            "1.00000000000000011102230246251565404236316680908203126",
+            "16777217", "16777216.5", "1.00000005960464477539062500", "1.00000005960464477539062501",
+            "NaN", "-Infinity", "Infinity", "0x1p3", "1d", "2.5f", " 1", "1 ", "", "-", "+", ".", "e5",
+            "1e", "1e+", "1.5.5", "1e5e5", "--1", "1,5", "1e2147483648", "1e-2147483649" }) {
+            assertSameAsJdk(value);
+        }
+    }
+
+    @Test
+    public void testMatchesDoubleParseDouble() {
+        Random random = new Random(11);
+
+        // Shortest representations of random doubles and floats
+        for (int i = 0; i < 200000; i++) {
+            double value = Double.longBitsToDouble(random.nextLong());
+            if (!Double.isNaN(value)) {
+                assertSameAsJdk(Double.toString(value));
+            }
+            float floatValue = Float.intBitsToFloat(random.nextInt());
+            if (!Float.isNaN(floatValue)) {
+                assertSameAsJdk(Float.toString(floatValue));
+            }
+        }
+
+        // Random digits with random exponents, including more digits than a long holds
+        for (int i = 0; i < 200000; i++) {
+            StringBuilder value = new StringBuilder();
+            int digits = 1 + random.nextInt(i % 2 == 0 ? 17 : 30);
+            for (int d = 0; d < digits; d++) {
+                value.append((char) ('0' + random.nextInt(10)));
+            }
+            if (random.nextBoolean()) {
+                value.insert(random.nextInt(value.length() + 1), '.');
+            }
+            if (random.nextBoolean()) {
+                value.append('e').append(random.nextInt(700) - 350);
+            }
+            assertSameAsJdk(value.toString());
+        }
+
+        // Exactly half way between neighbouring doubles, and just either side of it
+        for (int i = 0; i < 20000; i++) {
+            double value = Math.abs(Double.longBitsToDouble(random.nextLong()));
+            if (Double.isNaN(value) || Double.isInfinite(value) || value == Double.MAX_VALUE) {
+                continue;
+            }
+            BigDecimal halfWay = new BigDecimal(value).add(new BigDecimal(Math.nextUp(value)))
+                .divide(BigDecimal.valueOf(2));
+            BigDecimal nudge = halfWay.ulp();
+            assertSameAsJdk(halfWay.toString());
+            assertSameAsJdk(halfWay.add(nudge).toString());
+            assertSameAsJdk(halfWay.subtract(nudge).toString());
+        }
+    }
+
+    @Test
+    public void testMultiplyHigh() {
+        Random random = new Random(13);
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int i = 0; i < 10000; i++) {
+            long a = random.nextLong();
+            long b = random.nextLong();
+            BigInteger product = new BigInteger(Long.toHexString(a), 16)
+                .multiply(new BigInteger(Long.toHexString(b), 16));
+            assertEquals(product.shiftRight(64).and(mask).longValue(), JsonNumberParser.multiplyHigh(a, b));
+        }
+        assertEquals(-2L, JsonNumberParser.multiplyHigh(-1L, -1L));
+    }
+}
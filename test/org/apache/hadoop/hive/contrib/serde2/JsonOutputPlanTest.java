@@ -0,0 +1,79 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class JsonOutputPlanTest {
+
+    /**
+     * Serializes a row of integers, one per path, with the plan of the paths
+     */
+    private static String write(String... paths) throws SerDeException {
+        JsonPathTrie trie = new JsonPathTrie();
+        List<String> names = new ArrayList<String>();
+        List<ObjectInspector> inspectors = new ArrayList<ObjectInspector>();
+        List<Object> row = new ArrayList<Object>();
+        for (int i = 0; i < paths.length; i++) {
+            trie.add(i, JsonPath.compile(paths[i]));
+            names.add("_col" + i);
+            inspectors.add(PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+            row.add(i);
+        }
+        StructObjectInspector rowInspector = ObjectInspectorFactory.getStandardStructObjectInspector(names, inspectors);
+
+        JsonRecordWriter writer = new JsonRecordWriter();
+        writer.writeRow(row, rowInspector, new JsonOutputPlan(trie, paths.length));
+        return new String(writer.getBytes(), 0, writer.getLength(), JsonPathTrie.UTF8);
+    }
+
+    @Test
+    public void testFlat() throws SerDeException {
+        assertEquals("{\"a\":0,\"b\":1}", write("$.a", "$.b"));
+        assertEquals("{\"param.keywords\":0,\"tab\\there\":1}", write("$['param.keywords']", "$['tab\there']"));
+    }
+
+    @Test
+    public void testNested() throws SerDeException {
+        assertEquals("{\"search_result\":{\"requestId\":0,\"hits\":2},\"keywords\":1,\"deep\":{\"er\":{\"est\":3}}}",
+            write("$.search_result.requestId", "$.keywords", "$.search_result.hits", "$.deep.er.est"));
+    }
+
+    @Test
+    public void testArrays() throws SerDeException {
+        // Missing elements are null, and elements are written in index order
+        assertEquals("{\"tags\":[null,1,0],\"points\":[{\"x\":2,\"y\":3}]}",
+            write("$.tags[2]", "$.tags[1]", "$.points[0].x", "$.points[0].y"));
+        assertEquals("[0,1]", write("$[0]", "$[1]"));
+
+        // Indexes next to keys become keys
+        assertEquals("{\"a\":{\"b\":0,\"1\":1}}", write("$.a.b", "$.a[1]"));
+    }
+
+    @Test
+    public void testConflictingPaths() throws SerDeException {
+        // A column takes the place of the columns below it, and the first of two on one path wins
+        assertEquals("{\"a\":0,\"c\":3}", write("$.a", "$.a.b", "$.a", "$.c"));
+        assertEquals("{\"a\":1}", write("$.a.b", "$.a"));
+        assertEquals("0", write("$", "$.a"));
+    }
+
+    @Test(expected = SerDeException.class)
+    public void testWrongNumberOfFields() throws SerDeException {
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, JsonPath.compile("$.a"));
+        StructObjectInspector rowInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("_col0", "_col1"), Arrays.<ObjectInspector>asList(
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector));
+        new JsonRecordWriter().writeRow(Arrays.asList(1, 2), rowInspector, new JsonOutputPlan(trie, 1));
+    }
+}
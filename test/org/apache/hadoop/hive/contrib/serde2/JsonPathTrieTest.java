@@ -0,0 +1,97 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.Arrays;
+import net.minidev.json.JSONValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+public class JsonPathTrieTest {
+
+    private static JsonPathTrie trie(String... paths) {
+        JsonPathTrie trie = new JsonPathTrie();
+        for (int i = 0; i < paths.length; i++) {
+            trie.add(i, JsonPath.compile(paths[i]));
+        }
+        return trie;
+    }
+
+    @Test
+    public void testSteps() {
+        assertEquals(Arrays.<Object>asList("a", "b"), JsonPathTrie.steps(JsonPath.compile("$.a.b")));
+        assertEquals(Arrays.<Object>asList("param.keywords"), JsonPathTrie.steps(JsonPath.compile("$['param.keywords']")));
+        assertEquals(Arrays.<Object>asList("x y", "z"), JsonPathTrie.steps(JsonPath.compile("$[\"x y\"].z")));
+        assertEquals(Arrays.<Object>asList("a", 0, "b"), JsonPathTrie.steps(JsonPath.compile("$.a[0].b")));
+    }
+
+    @Test
+    public void testSharedPrefixes() {
+        JsonPathTrie trie = trie("$.a.b", "$.a.c", "$.a", "$.d[1]", "$.a.b");
+        assertEquals(5, trie.size());
+        assertEquals(2, trie.getRoot().children.length);
+        assertEquals(5, trie.getRoot().columnCount);
+        assertEquals(2, trie.getRoot().children[0].children.length);
+    }
+
+    @Test
+    public void testFindChild() throws Exception {
+        String[] keys = { "a", "", "column_0000000001", "column_0000000002", "a_much_longer_key_than_sixteen_bytes",
+            "a_much_longer_key_than_sixteen_bytez", "caf\u00e9", "12345678", "123456789" };
+        JsonPathTrie trie = new JsonPathTrie();
+        for (int i = 0; i < 1000; i++) {
+            trie.add(i, Arrays.<Object>asList("k" + i));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            trie.add(1000 + i, Arrays.<Object>asList(keys[i]));
+        }
+        JsonPathTrie.Node root = trie.getRoot();
+
+        for (int i = 0; i < 1000; i++) {
+            byte[] record = ("{\"k" + i + "\":1}").getBytes("UTF-8");
+            JsonPathTrie.Node child = root.findChild(record, 2, record.length - 4, false);
+            assertEquals(i, child.columns[0]);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            byte[] record = ("xx" + keys[i] + "yy").getBytes("UTF-8");
+            JsonPathTrie.Node child = root.findChild(record, 2, record.length - 2, false);
+            assertEquals(keys[i], 1000 + i, child.columns[0]);
+        }
+
+        byte[] record = "k1000 column_0000000003 a_much_longer_key_than_sixteen_bytes_ 1234567".getBytes("UTF-8");
+        assertNull(root.findChild(record, 0, 5, false));
+        assertNull(root.findChild(record, 6, 23, false));
+        assertNull(root.findChild(record, 24, 61, false));
+        assertNull(root.findChild(record, 62, 69, false));
+
+        record = "k\\u0031\\u0032".getBytes("UTF-8");
+        assertEquals(12, root.findChild(record, 0, record.length, true).columns[0]);
+        assertNull(new JsonPathTrie().getRoot().findChild(record, 0, 1, false));
+    }
+
+    @Test
+    public void testEvaluate() {
+        JsonPathTrie trie = trie("$.a.b", "$.a.c", "$.d[1]", "$.a.b", "$.missing.x", "$.d[5]");
+        Object[] values = new Object[6];
+
+        int found = trie.evaluate(JSONValue.parse("{\"a\": {\"b\": 1, \"c\": \"x\"}, \"d\": [true, false]}"), values);
+        assertEquals(4, found);
+        assertEquals(1, values[0]);
+        assertEquals("x", values[1]);
+        assertEquals(Boolean.FALSE, values[2]);
+        assertEquals(1, values[3]);
+        assertNull(values[4]);
+        assertNull(values[5]);
+    }
+
+    @Test
+    public void testEvaluateMismatchedShapes() {
+        JsonPathTrie trie = trie("$.a.b", "$.a[0]");
+        Object[] values = new Object[2];
+
+        assertEquals(0, trie.evaluate(JSONValue.parse("{\"a\": \"scalar\"}"), values));
+        assertEquals(0, trie.evaluate(JSONValue.parse("[1, 2]"), values));
+        assertNull(values[0]);
+        assertNull(values[1]);
+    }
+}
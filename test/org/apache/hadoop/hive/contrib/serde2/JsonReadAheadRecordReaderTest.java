@@ -0,0 +1,160 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.IOException;
+import java.util.List;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.RecordReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class JsonReadAheadRecordReaderTest {
+
+    /**
+     * Lines counting the bytes read from them, and failing after a number of lines
+     */
+    private static class CountingLines implements RecordReader<LongWritable, Text> {
+        private final RecordReader<LongWritable, Text> lines;
+        private final int failAfter;
+        volatile long bytesRead;
+        volatile int linesRead;
+
+        CountingLines(RecordReader<LongWritable, Text> lines, int failAfter) {
+            this.lines = lines;
+            this.failAfter = failAfter;
+        }
+
+        @Override
+        public boolean next(LongWritable key, Text value) throws IOException {
+            if (linesRead == failAfter) {
+                throw new IOException("Lost the block");
+            }
+            if (!lines.next(key, value)) {
+                return false;
+            }
+            bytesRead += value.getLength() + 1;
+            linesRead++;
+            return true;
+        }
+
+        @Override
+        public LongWritable createKey() {
+            return lines.createKey();
+        }
+
+        @Override
+        public Text createValue() {
+            return lines.createValue();
+        }
+
+        @Override
+        public long getPos() throws IOException {
+            return lines.getPos();
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            return lines.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            lines.close();
+        }
+    }
+
+    @Test
+    public void testRowsInOrder() throws Exception {
+        List<Object> expected = JsonRecordReaderTest.read(JsonRecordReaderTest.lines(50), new Text());
+
+        for (long readAheadBytes : new long[] { 1, 100, 1000, 1 << 20 }) {
+            JsonReadAheadRecordReader reader = new JsonReadAheadRecordReader(JsonRecordReaderTest.lines(50),
+                readAheadBytes);
+            assertEquals(readAheadBytes + " bytes", expected, JsonRecordReaderTest.read(reader, new Text()));
+
+            // Read ahead of a pool of threads parsing the lines
+            JsonRecordReader parsing = new JsonRecordReader(new JsonReadAheadRecordReader(
+                JsonRecordReaderTest.lines(50), readAheadBytes), 2, 4);
+            assertEquals(expected, JsonRecordReaderTest.read(parsing, parsing.createValue()));
+        }
+    }
+
+    @Test
+    public void testPosition() throws Exception {
+        JsonReadAheadRecordReader reader = new JsonReadAheadRecordReader(JsonRecordReaderTest.lines(1), 1 << 20);
+        LongWritable key = reader.createKey();
+        Text value = reader.createValue();
+        assertEquals(0, reader.getPos());
+
+        // The position is past the lines read ahead
+        assertTrue(reader.next(key, value));
+        assertEquals(0, key.get());
+        long end = reader.getPos();
+        assertTrue(end > value.getLength());
+        assertEquals(1.0f, reader.getProgress(), 0.0f);
+        while (reader.next(key, value)) {
+            assertEquals(end, reader.getPos());
+        }
+        reader.close();
+    }
+
+    @Test
+    public void testReadAheadIsBounded() throws Exception {
+        long readAheadBytes = 500;
+        CountingLines lines = new CountingLines(JsonRecordReaderTest.lines(100), -1);
+        JsonReadAheadRecordReader reader = new JsonReadAheadRecordReader(lines, readAheadBytes);
+        LongWritable key = reader.createKey();
+        Text value = reader.createValue();
+
+        long bytesReturned = 0;
+        int linesReturned = 0;
+        while (reader.next(key, value)) {
+            bytesReturned += value.getLength() + 1;
+            linesReturned++;
+            if (linesReturned % 50 == 1) {
+                // Give the background thread time to fill all it can
+                Thread.sleep(20);
+                // Each batch may go past its share by one line
+                long ahead = lines.bytesRead - bytesReturned;
+                assertTrue(ahead + " bytes ahead", ahead <= readAheadBytes + 50 * JsonReadAheadRecordReader.MIN_BATCHES);
+            }
+        }
+        assertEquals(lines.linesRead, linesReturned);
+        reader.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        JsonReadAheadRecordReader reader = new JsonReadAheadRecordReader(
+            new CountingLines(JsonRecordReaderTest.lines(10), 30), 1 << 20);
+        LongWritable key = reader.createKey();
+        Text value = reader.createValue();
+        try {
+            while (reader.next(key, value)) {
+            }
+            fail("The failure to read the lines must be thrown");
+        } catch (IOException expected) {
+            assertEquals("Lost the block", expected.getMessage());
+        }
+        assertFalse(reader.next(key, value));
+        reader.close();
+    }
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        JsonReadAheadRecordReader reader = new JsonReadAheadRecordReader(JsonRecordReaderTest.lines(0), 1024);
+        assertFalse(reader.next(reader.createKey(), reader.createValue()));
+        assertFalse(reader.next(reader.createKey(), reader.createValue()));
+        reader.close();
+    }
+
+    @Test
+    public void testCloseWhileReadingAhead() throws Exception {
+        JsonReadAheadRecordReader reader = new JsonReadAheadRecordReader(JsonRecordReaderTest.lines(100), 64);
+        assertTrue(reader.next(reader.createKey(), reader.createValue()));
+        reader.close();
+    }
+}
@@ -0,0 +1,455 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import com.jayway.jsonpath.JsonPath;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import net.minidev.json.JSONValue;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.typeinfo.TypeInfoUtils;
+import org.apache.hadoop.io.Text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+public class JsonRecordParserTest {
+
+    private static final String[] RECORDS = {
+        "{\"id\": 1, \"name\": \"one\", \"score\": 0.5, \"ok\": true, \"tags\": [\"a\", \"b\"], "
+            + "\"counts\": {\"x\": 1, \"y\": 2}, \"owner\": {\"id\": 7, \"name\": \"ann\"}, \"n\": {\"deep\": [0, 1]}}",
+        "{\"n\": {\"deep\": [5, 6]}, \"owner\": {\"name\": \"bob\"}, \"ok\": false, \"name\": \"t\\u00e9l\\\"\\n\", "
+            + "\"id\": -9223372036854775808}",
+        "{\"id\": \"42\", \"score\": \"1e3\", \"ok\": \"TRUE\", \"name\": \"caf\u00e9 \u4e2d\", \"tags\": []}",
+        "{\"id\": null, \"name\": null, \"tags\": null, \"counts\": {}, \"owner\": null}",
+        "{'id': 2, 'name': 'single', 'tags': ['c'], 'counts': {'z': 3}}",
+        "{id: 3, name: bare, ok: true, tags: [d, e]}",
+        "{\"id\": 1.5, \"score\": \"n/a\", \"ok\": 1, \"tags\": \"no\", \"counts\": [1], \"owner\": 4}",
+        "{\"id\": 99999999999999999999, \"score\": -0.0, \"counts\": {\"big\": 3000000000}}",
+        "{\"other\": {\"id\": 1}, \"list\": [{\"a\": [1, {\"b\": 2}]}]}",
+        "[1, 2, 3]",
+        "{}",
+        "  {\"id\" : 5 , \"name\" : \"spaced\" }  ",
+        "not json",
+        "",
+        "{\"id\": 6, \"name\": \"unterminated",
+        "{\"id\": 7, \"tags\": [\"x\"}",
+        "{\"id\": 8, \"name\": 1.50, \"owner\": {\"id\": 2, \"id\": 3, \"name\": [1, {\"x\": \"y\"}]}, \"id\": 4}",
+        "{\"owner\": {\"name\": \"first\"}, \"owner\": {\"id\": 5}, \"counts\": {\"k\": 1, \"k\": 2}}",
+        "{\"id\": 9,, \"name\": \"doubled\"}",
+        "{\"id\": 10, \"name\": \"after\", \"rest\": [1, 2}",
+        "{\"id\": 11, \"name\": \"trailing\"} x",
+        "{\"id\": 12, \"score\": 01, \"ok\": -, \"name\": 1e400}",
+    };
+
+    private static Properties tableProperties(String backend) {
+        Properties properties = JsonSerDeTest.tableProperties(
+            "id,name,score,ok,tags,counts,owner,deep",
+            "bigint:string:double:boolean:array<string>:map<string,int>:struct<id:int,name:string>:int",
+            "id", "$.id", "name", "$.name", "score", "$.score", "ok", "$.ok", "tags", "$.tags",
+            "counts", "$.counts", "owner", "$.owner", "deep", "$.n.deep[1]");
+        if (backend != null) {
+            properties.setProperty(JsonRecordParser.BACKEND, backend);
+        }
+        return properties;
+    }
+
+    /**
+     * Deserializes every record with a backend, with the rows copied to plain
+     * Java objects, followed by the number of malformed records
+     */
+    private static List<Object> read(String backend, String[] records) throws SerDeException {
+        return readWith(tableProperties(backend), records);
+    }
+
+    /**
+     * Deserializes every record with the given table properties, followed by
+     * the number of malformed records
+     */
+    private static List<Object> readWith(Properties properties, String[] records) throws SerDeException {
+        JsonSerDe serde = new JsonSerDe();
+        serde.initialize(new Configuration(), properties);
+        List<Object> rows = new ArrayList<Object>();
+        for (String record : records) {
+            rows.add(ObjectInspectorUtils.copyToStandardJavaObject(serde.deserialize(new Text(record)),
+                serde.getObjectInspector()));
+        }
+        rows.add(serde.getMalformedRows());
+        return rows;
+    }
+
+    @Test
+    public void testIdenticalValues() throws SerDeException {
+        List<Object> expected = read(null, RECORDS);
+        assertEquals(Long.valueOf(7), expected.get(expected.size() - 1));
+        for (String backend : new String[] { "streaming", "tape", "adaptive" }) {
+            List<Object> rows = read(backend, RECORDS);
+            for (int r = 0; r < RECORDS.length; r++) {
+                assertEquals(backend + ": " + RECORDS[r], expected.get(r), rows.get(r));
+            }
+            assertEquals(backend, expected, rows);
+        }
+    }
+
+    /**
+     * Deserializes every record with a backend into a batch, with the value of
+     * each column of each row as a string, followed by the number of
+     * malformed records
+     */
+    private static List<Object> readBatch(String backend, String[] records) throws SerDeException {
+        JsonSerDe serde = new JsonSerDe();
+        serde.initialize(new Configuration(), tableProperties(backend));
+        Text[] texts = new Text[records.length];
+        for (int r = 0; r < records.length; r++) {
+            texts[r] = new Text(records[r]);
+        }
+        JsonColumnBatch batch = serde.createColumnBatch(records.length);
+        assertEquals(records.length, serde.deserialize(texts, 0, texts.length, batch));
+        assertEquals(records[records.length - 1].length(), serde.getSerDeStats().getRawDataSize());
+
+        List<Object> rows = new ArrayList<Object>();
+        for (int row = 0; row < batch.size; row++) {
+            List<String> values = new ArrayList<String>();
+            for (JsonColumnVector vector : batch.columns) {
+                if (vector.isNull[row]) {
+                    values.add(null);
+                } else if (vector instanceof JsonColumnVector.LongVector) {
+                    values.add(String.valueOf(((JsonColumnVector.LongVector) vector).values[row]));
+                } else if (vector instanceof JsonColumnVector.DoubleVector) {
+                    values.add(String.valueOf(((JsonColumnVector.DoubleVector) vector).values[row]));
+                } else {
+                    values.add(((JsonColumnVector.BytesVector) vector).toString(row));
+                }
+            }
+            rows.add(values);
+        }
+        rows.add(serde.getMalformedRows());
+        return rows;
+    }
+
+    @Test
+    public void testIdenticalBatches() throws SerDeException {
+        List<Object> expected = readBatch(null, RECORDS);
+        assertEquals(Long.valueOf(7), expected.get(expected.size() - 1));
+        for (String backend : new String[] { "streaming", "tape", "adaptive" }) {
+            List<Object> rows = readBatch(backend, RECORDS);
+            for (int r = 0; r < RECORDS.length; r++) {
+                assertEquals(backend + ": " + RECORDS[r], expected.get(r), rows.get(r));
+            }
+            assertEquals(backend, expected, rows);
+        }
+    }
+
+    /**
+     * Sets the values json-smart reads differently in the rows read by the
+     * other backends, with those of a batch as strings
+     */
+    private static void setDomValues(List<Object> rows, boolean batch) {
+        // Duplicated keys are malformed
+        List<Object> nulls = Arrays.asList(new Object[8]);
+        rows.set(16, nulls);
+        rows.set(17, nulls);
+        // A stray comma and what follows the record are let through
+        List<Object> doubled = new ArrayList<Object>(nulls);
+        doubled.set(0, batch ? "9" : Long.valueOf(9));
+        doubled.set(1, "doubled");
+        rows.set(18, doubled);
+        List<Object> trailing = new ArrayList<Object>(nulls);
+        trailing.set(0, batch ? "11" : Long.valueOf(11));
+        trailing.set(1, "trailing");
+        rows.set(20, trailing);
+        // The text of a number is that of the double json-smart holds
+        List<Object> infinite = new ArrayList<Object>((List<?>) rows.get(21));
+        infinite.set(1, "Infinity");
+        rows.set(21, infinite);
+    }
+
+    @Test
+    public void testDomValues() throws SerDeException {
+        List<Object> expected = read(null, RECORDS);
+        setDomValues(expected, false);
+        List<Object> rows = read("dom", RECORDS);
+        for (int r = 0; r < RECORDS.length; r++) {
+            assertEquals(RECORDS[r], expected.get(r), rows.get(r));
+        }
+        assertEquals(expected, rows);
+    }
+
+    @Test
+    public void testDomBatches() throws SerDeException {
+        List<Object> expected = readBatch(null, RECORDS);
+        setDomValues(expected, true);
+        List<Object> rows = readBatch("dom", RECORDS);
+        for (int r = 0; r < RECORDS.length; r++) {
+            List<?> expectedRow = (List<?>) expected.get(r);
+            List<?> row = (List<?>) rows.get(r);
+            for (int c = 0; c < row.size(); c++) {
+                if (c >= 4 && c <= 6 && row.get(c) != null) {
+                    // A container is as json-smart writes it, with the keys
+                    // in the order of its map
+                    assertEquals(RECORDS[r], JSONValue.parse((String) expectedRow.get(c)),
+                        JSONValue.parse((String) row.get(c)));
+                } else {
+                    assertEquals(RECORDS[r], expectedRow.get(c), row.get(c));
+                }
+            }
+        }
+        assertEquals(expected.get(RECORDS.length), rows.get(RECORDS.length));
+    }
+
+    @Test
+    public void testRecordsParsedAhead() throws SerDeException {
+        for (String backend : new String[] { "streaming", "tape", "dom", "adaptive" }) {
+            List<Object> expected = read("dom".equals(backend) ? backend : null, RECORDS);
+            JsonSerDe serde = new JsonSerDe();
+            serde.initialize(new Configuration(), tableProperties(backend));
+            for (int r = 0; r < RECORDS.length; r++) {
+                JsonRecord record = new JsonRecord();
+                record.set(RECORDS[r]);
+                record.parse();
+                assertEquals(backend + ": " + RECORDS[r], expected.get(r), ObjectInspectorUtils
+                    .copyToStandardJavaObject(serde.deserialize(record), serde.getObjectInspector()));
+            }
+        }
+    }
+
+    @Test
+    public void testBackendProperty() throws SerDeException {
+        assertEquals(JsonRecordParser.Backend.STREAMING, JsonRecordParser.getBackend(new Properties()));
+        assertEquals(JsonRecordParser.Backend.DOM, JsonRecordParser.getBackend(tableProperties(" DOM ")));
+        try {
+            JsonRecordParser.getBackend(tableProperties("sax"));
+            fail("An unknown backend must be rejected");
+        } catch (SerDeException expected) {
+        }
+
+        // Each backend has a plan of its own
+        JsonSerDe streaming = new JsonSerDe();
+        streaming.initialize(new Configuration(), tableProperties("streaming"));
+        JsonSerDe dom = new JsonSerDe();
+        dom.initialize(new Configuration(), tableProperties("dom"));
+        assertFalse(streaming.getObjectInspector() == dom.getObjectInspector());
+    }
+
+    @Test
+    public void testErrorOffset() throws Exception {
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, JsonPath.compile("$.a"));
+        String[] records = { "{\"b\": 1, \"a\": \"unterminated", "{\"a\": 1,, \"b\": 2}", "{\"a\": 1, \"b\": [1}",
+            "{\"a\": 1} x", "[1, 2", "text", "" };
+        for (String record : records) {
+            byte[] bytes = ("xx" + record).getBytes("UTF-8");
+            int expected = -1;
+            for (JsonRecordParser.Backend backend : JsonRecordParser.Backend.values()) {
+                JsonRecordParser parser = backend.create(trie, 1, true, new JsonParserSelection(2, 1));
+                if (backend == JsonRecordParser.Backend.DOM) {
+                    // json-smart takes some of these records, and reports
+                    // its own offsets
+                    if (!parser.parse(bytes, 2, bytes.length - 2)) {
+                        int errorOffset = parser.getErrorOffset();
+                        assertTrue(record + " " + errorOffset, errorOffset >= 0 && errorOffset <= bytes.length - 2);
+                    }
+                    continue;
+                }
+                assertFalse(backend.name() + ": " + record, parser.parse(bytes, 2, bytes.length - 2));
+                int errorOffset = parser.getErrorOffset();
+                assertTrue(backend.name() + " " + errorOffset, errorOffset >= 0 && errorOffset <= bytes.length - 2);
+                if (expected < 0) {
+                    expected = errorOffset;
+                }
+                assertEquals(backend.name() + ": " + record, expected, errorOffset);
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingStopsOnceColumnsFound() throws Exception {
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, JsonPath.compile("$.a"));
+        byte[] bytes = "{\"b\": [1, 2}, \"a\": 1, \"c\": this is not json".getBytes("UTF-8");
+        assertTrue(JsonRecordParser.Backend.STREAMING.create(trie, 1, null).parse(bytes, 0, bytes.length));
+        for (JsonRecordParser.Backend backend : new JsonRecordParser.Backend[] { JsonRecordParser.Backend.STREAMING,
+            JsonRecordParser.Backend.TAPE }) {
+            assertFalse(backend.name(), backend.create(trie, 1, true, null).parse(bytes, 0, bytes.length));
+        }
+
+        Properties properties = tableProperties("streaming");
+        assertEquals(Long.valueOf(7), readWith(properties, RECORDS).get(RECORDS.length));
+        properties.setProperty(JsonRecordParser.STRICT, "true");
+        assertEquals(Long.valueOf(7), readWith(properties, RECORDS).get(RECORDS.length));
+        assertEquals(Long.valueOf(1), readWith(properties, new String[] { "{\"id\": 1, \"name\": \"x\", \"score\": 1, "
+            + "\"ok\": true, \"tags\": [], \"counts\": {}, \"owner\": {}, \"n\": {\"deep\": [1, 2]}} x" })
+            .get(1));
+        properties.setProperty(JsonRecordParser.STRICT, "false");
+        assertEquals(Long.valueOf(0), readWith(properties, new String[] { "{\"id\": 1, \"name\": \"x\", \"score\": 1, "
+            + "\"ok\": true, \"tags\": [], \"counts\": {}, \"owner\": {}, \"n\": {\"deep\": [1, 2]}} x" })
+            .get(1));
+    }
+
+    /**
+     * Counts the records read from tapes parsed ahead of time, and those
+     * parsed again
+     */
+    private static final class CountingParser extends JsonRecordParser {
+        private final JsonRecordParser parser;
+        private int tapes;
+        private int records;
+
+        CountingParser(JsonRecordParser parser) {
+            this.parser = parser;
+        }
+
+        @Override
+        boolean parse(byte[] recordBytes, int start, int length) {
+            records++;
+            return parser.parse(recordBytes, start, length);
+        }
+
+        @Override
+        boolean parse(JsonTape parsedTape, byte[] recordBytes, int start, int length) {
+            tapes++;
+            return parser.parse(parsedTape, recordBytes, start, length);
+        }
+
+        @Override
+        int getErrorOffset() {
+            return parser.getErrorOffset();
+        }
+
+        @Override
+        boolean convert(int column, JsonColumnConverter converter, Object target) {
+            return parser.convert(column, converter, target);
+        }
+
+        @Override
+        byte getValueType(int column) {
+            return parser.getValueType(column);
+        }
+
+        @Override
+        byte[] getValueBytes(int column) {
+            return parser.getValueBytes(column);
+        }
+
+        @Override
+        int getValueStart(int column) {
+            return parser.getValueStart(column);
+        }
+
+        @Override
+        int getValueEnd(int column) {
+            return parser.getValueEnd(column);
+        }
+    }
+
+    @Test
+    public void testParsedTapesReadByBackend() throws Exception {
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, JsonPath.compile("$.a"));
+        JsonColumnConverter[] converters = {
+            JsonColumnConverter.forType(TypeInfoUtils.getTypeInfoFromTypeString("string")) };
+        for (JsonRecordParser.Backend backend : JsonRecordParser.Backend.values()) {
+            CountingParser parser = new CountingParser(backend.create(trie, 1, new JsonParserSelection(2, 1)));
+            JsonLazyStruct struct = new JsonLazyStruct(converters, trie, null, parser);
+            JsonRecord record = new JsonRecord();
+            record.set("{\"a\": 1.50, \"a\": 2}");
+            record.parse();
+            struct.init(record.getBytes(), record.getLength(), record.getTape());
+            // json-smart rejects duplicated keys
+            assertEquals(backend.name(), backend == JsonRecordParser.Backend.DOM ? null : new Text("1.50"),
+                struct.getField(0));
+            assertEquals(backend.name(), 1, parser.tapes);
+            assertEquals(backend.name(), 0, parser.records);
+        }
+    }
+
+    /**
+     * Deserializes records with the adaptive backend, reading a column of each
+     */
+    private static JsonSerDe readAdaptively(Properties properties, String[] records, int rows)
+        throws SerDeException {
+        properties.setProperty(JsonRecordParser.BACKEND, "adaptive");
+        JsonSerDe serde = new JsonSerDe();
+        serde.initialize(new Configuration(), properties);
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        StructField field = inspector.getAllStructFieldRefs().get(0);
+        for (int r = 0; r < rows; r++) {
+            inspector.getStructFieldData(serde.deserialize(new Text(records[r % records.length])), field);
+        }
+        return serde;
+    }
+
+    @Test
+    public void testAdaptiveChoices() throws SerDeException {
+        Properties properties = tableProperties(null);
+        properties.setProperty(JsonParserSelection.SAMPLE_ROWS, "10");
+        properties.setProperty(JsonParserSelection.RECHECK_ROWS, "20");
+
+        // A choice after each sample of 10 rows, with 20 rows between samples
+        JsonSerDe serde = readAdaptively(properties, RECORDS, 100);
+        assertEquals(4, serde.getParserChoices("streaming") + serde.getParserChoices("tape"));
+        assertTrue(serde.getParserSwitches() <= 3);
+        assertEquals(0, serde.getParserChoices("dom"));
+
+        // Choices are counted again once the SerDe is initialized again
+        serde.initialize(new Configuration(), properties);
+        assertEquals(0, serde.getParserChoices("streaming") + serde.getParserChoices("tape"));
+    }
+
+    @Test
+    public void testAdaptiveChoosesFaster() throws SerDeException {
+        // The padding is a long array of small numbers, which the streaming
+        // backend steps over while the tape writes a token for each of them
+        StringBuilder padding = new StringBuilder(", \"p\": [0");
+        for (int i = 1; i < 5000; i++) {
+            padding.append(", ").append(i % 10);
+        }
+        padding.append(']');
+        String[] records = { "{\"a\": 1" + padding + "}", "{\"a\": 2" + padding + "}" };
+
+        Properties properties = JsonSerDeTest.tableProperties("a", "int", "a", "$.a");
+        properties.setProperty(JsonParserSelection.SAMPLE_ROWS, "20");
+        properties.setProperty(JsonParserSelection.RECHECK_ROWS, "20");
+        JsonSerDe serde = readAdaptively(properties, records, 2000);
+        assertTrue(serde.getParserChoices("streaming") + " against " + serde.getParserChoices("tape"),
+            serde.getParserChoices("streaming") > 2 * serde.getParserChoices("tape"));
+    }
+
+    @Test
+    public void testSelectionProperties() throws SerDeException {
+        JsonParserSelection selection = JsonParserSelection.fromProperties(new Properties());
+        assertEquals(JsonParserSelection.DEFAULT_SAMPLE_ROWS, selection.getSampleRows());
+        assertEquals(JsonParserSelection.DEFAULT_RECHECK_ROWS, selection.getRecheckRows());
+
+        for (String[] invalid : new String[][] { { JsonParserSelection.SAMPLE_ROWS, "1" },
+            { JsonParserSelection.RECHECK_ROWS, "0" }, { JsonParserSelection.SAMPLE_ROWS, "many" } }) {
+            Properties properties = new Properties();
+            properties.setProperty(invalid[0], invalid[1]);
+            try {
+                JsonParserSelection.fromProperties(properties);
+                fail(invalid[0] + "=" + invalid[1] + " must be rejected");
+            } catch (SerDeException expected) {
+            }
+        }
+
+        // The backend can be set for the whole job
+        Configuration job = new Configuration();
+        job.set(JsonRecordParser.BACKEND, "adaptive");
+        JsonSerDe serde = new JsonSerDe();
+        Properties properties = JsonSerDeTest.tableProperties("a", "int", "a", "$.a");
+        properties.setProperty(JsonParserSelection.SAMPLE_ROWS, "2");
+        serde.initialize(job, properties);
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        inspector.getStructFieldData(serde.deserialize(new Text("{\"a\": 1}")),
+            inspector.getAllStructFieldRefs().get(0));
+        inspector.getStructFieldData(serde.deserialize(new Text("{\"a\": 2}")),
+            inspector.getAllStructFieldRefs().get(0));
+        assertEquals(1, serde.getParserChoices("streaming") + serde.getParserChoices("tape"));
+    }
+}
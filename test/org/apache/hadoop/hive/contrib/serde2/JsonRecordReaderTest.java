@@ -0,0 +1,157 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils.ObjectInspectorCopyOption;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.LineRecordReader;
+import org.apache.hadoop.mapred.RecordReader;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class JsonRecordReaderTest {
+
+    private static final String[] RECORDS = {
+        "{\"id\":1,\"name\":\"one\",\"tags\":[\"a\",\"b\"]}",
+        "{'id':2,'name':'two'}",
+        "not json",
+        "{\"id\":4,\"name\":\"f\\u00f6ur\",\"tags\":[]}",
+        "",
+        "{\"id\":6,\"name\":\"six\",\"tags\":[\"c\"]",
+        "{id:7,name:seven,tags:[d,e]}",
+    };
+
+    /**
+     * The lines of a file holding the records repeated the given number of times
+     */
+    static RecordReader<LongWritable, Text> lines(int repeat) throws Exception {
+        StringBuilder file = new StringBuilder();
+        for (int r = 0; r < repeat; r++) {
+            for (String record : RECORDS) {
+                file.append(record).append('\n');
+            }
+        }
+        byte[] bytes = file.toString().getBytes("UTF-8");
+        return new LineRecordReader(new ByteArrayInputStream(bytes), 0, bytes.length, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads all the lines, deserializing each of them into a standard Java row
+     */
+    static List<Object> read(RecordReader<LongWritable, Text> reader, Text value) throws Exception {
+        return read(reader, value, new JsonSerDe());
+    }
+
+    /**
+     * Reads all the lines with the given SerDe, which counts the malformed ones
+     */
+    static List<Object> read(RecordReader<LongWritable, Text> reader, Text value, JsonSerDe serde)
+        throws Exception {
+        serde.initialize(new Configuration(), JsonSerDeTest.tableProperties(
+            "id,name,tags", "bigint:string:array<string>",
+            "id", "$.id", "name", "$.name", "tags", "$.tags"));
+        StructObjectInspector rowInspector = (StructObjectInspector) serde.getObjectInspector();
+
+        List<Object> rows = new ArrayList<Object>();
+        LongWritable key = reader.createKey();
+        while (reader.next(key, value)) {
+            rows.add(key.get());
+            rows.add(value.toString());
+            rows.add(ObjectInspectorUtils.copyToStandardObject(serde.deserialize(value), rowInspector,
+                ObjectInspectorCopyOption.JAVA));
+        }
+        reader.close();
+        return rows;
+    }
+
+    @Test
+    public void testRowsInOrder() throws Exception {
+        List<Object> expected = read(lines(50), new Text());
+
+        for (int threads : new int[] { 1, 2, 3 }) {
+            for (int batchSize : new int[] { 1, 4, 256 }) {
+                JsonRecordReader reader = new JsonRecordReader(lines(50), threads, batchSize);
+                assertEquals(threads + " threads, batches of " + batchSize,
+                    expected, read(reader, reader.createValue()));
+            }
+        }
+    }
+
+    @Test
+    public void testMalformedRowsCounted() throws Exception {
+        JsonSerDe serde = new JsonSerDe();
+        read(lines(20), new Text(), serde);
+        long expected = serde.getMalformedRows();
+        // The record missing its closing brace has all its columns before the
+        // error, so it is only malformed for a strict scanner
+        assertEquals(2 * 20, expected);
+
+        for (int threads : new int[] { 2, 3 }) {
+            JsonRecordReader reader = new JsonRecordReader(lines(20), threads, 4);
+            read(reader, reader.createValue(), serde);
+            assertEquals(threads + " threads", expected, serde.getMalformedRows());
+        }
+    }
+
+    @Test
+    public void testNoColumnsRead() throws Exception {
+        JobConf job = new JobConf();
+        job.setInt(JsonInputFormat.THREADS, 2);
+        RecordReader<LongWritable, Text> reader = JsonInputFormat.getRecordReader(lines(1), job);
+        assertTrue(reader instanceof JsonRecordReader);
+        reader.close();
+
+        // Records are never parsed for count(*), so there is no pool
+        job.setBoolean(JsonSerDe.READ_ALL_COLUMNS, false);
+        reader = JsonInputFormat.getRecordReader(lines(1), job);
+        assertFalse(reader instanceof JsonRecordReader);
+        assertEquals(3 * RECORDS.length, read(reader, reader.createValue()).size());
+    }
+
+    @Test
+    public void testPlainTextValue() throws Exception {
+        List<Object> expected = read(lines(3), new Text());
+        assertEquals(expected, read(new JsonRecordReader(lines(3), 2, 2), new Text()));
+    }
+
+    @Test
+    public void testRecordsParsedAhead() throws Exception {
+        JsonRecordReader reader = new JsonRecordReader(lines(1), 2, 2);
+        LongWritable key = reader.createKey();
+        JsonRecord value = (JsonRecord) reader.createValue();
+
+        assertTrue(reader.next(key, value));
+        assertEquals(0, key.get());
+        assertNotNull(value.getTape());
+        assertEquals(JsonRecordScanner.OBJECT, value.getTape().getType(0));
+
+        // Setting the text in any other way drops the tape
+        value.set("{}");
+        assertNull(value.getTape());
+
+        int count = 1;
+        while (reader.next(key, value)) {
+            count++;
+        }
+        assertEquals(RECORDS.length, count);
+        assertFalse(reader.next(key, value));
+        reader.close();
+    }
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        JsonRecordReader reader = new JsonRecordReader(lines(0), 2, 4);
+        assertFalse(reader.next(reader.createKey(), reader.createValue()));
+        reader.close();
+    }
+}
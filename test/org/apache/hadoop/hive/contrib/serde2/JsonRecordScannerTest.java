@@ -0,0 +1,238 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import com.jayway.jsonpath.JsonPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class JsonRecordScannerTest {
+
+    private static JsonRecordScanner scanner(String... paths) {
+        JsonPathTrie trie = new JsonPathTrie();
+        for (int i = 0; i < paths.length; i++) {
+            trie.add(i, JsonPath.compile(paths[i]));
+        }
+        return new JsonRecordScanner(trie, paths.length);
+    }
+
+    private static boolean scan(JsonRecordScanner scanner, String record) {
+        byte[] bytes = ("xx" + record + "yy").getBytes(JsonPathTrie.UTF8);
+        return scanner.scan(bytes, 2, bytes.length - 4);
+    }
+
+    @Test
+    public void testScalars() {
+        JsonRecordScanner scanner = scanner("$.s", "$.n", "$.t", "$.f", "$.z", "$.missing");
+        assertTrue(scan(scanner, "{\"s\": \"text\", \"n\": -1.5e3, \"t\": true, \"f\": false, \"z\": null}"));
+
+        assertEquals(JsonRecordScanner.STRING, scanner.getValueType(0));
+        assertEquals("text", scanner.getValueString(0));
+        assertEquals(JsonRecordScanner.NUMBER, scanner.getValueType(1));
+        assertEquals("-1.5e3", scanner.getValueString(1));
+        assertEquals(JsonRecordScanner.TRUE, scanner.getValueType(2));
+        assertEquals(JsonRecordScanner.FALSE, scanner.getValueType(3));
+        assertEquals(JsonRecordScanner.NULL, scanner.getValueType(4));
+        assertNull(scanner.getValueString(4));
+        assertEquals(JsonRecordScanner.NONE, scanner.getValueType(5));
+        assertNull(scanner.getValueString(5));
+    }
+
+    @Test
+    public void testNestedAndSkipped() {
+        JsonRecordScanner scanner = scanner("$.a.b", "$.a", "$.c[2].d", "$['x.y']");
+        assertTrue(scan(scanner, "{\"skip\": {\"a\": [1, {\"b\": \"}\"}]}, \"a\": {\"b\": 7}, "
+            + "\"c\": [0, {\"d\": 1}, {\"d\": \"third\"}], \"x.y\": \"dotted\"}"));
+
+        assertEquals("7", scanner.getValueString(0));
+        assertEquals(JsonRecordScanner.OBJECT, scanner.getValueType(1));
+        assertEquals("{\"b\": 7}", scanner.getValueString(1));
+        assertEquals("third", scanner.getValueString(2));
+        assertEquals("dotted", scanner.getValueString(3));
+    }
+
+    @Test
+    public void testEscapes() {
+        JsonRecordScanner scanner = scanner("$.k\u00e9y", "$['q\"uote']");
+        assertTrue(scan(scanner, "{\"k\\u00e9y\": \"a\\\"b\\\\c\\n\\u0041\", \"q\\\"uote\": \"caf\u00e9\"}"));
+
+        assertEquals(JsonRecordScanner.ESCAPED_STRING, scanner.getValueType(0));
+        assertEquals("a\"b\\c\nA", scanner.getValueString(0));
+        assertEquals("caf\u00e9", scanner.getValueString(1));
+    }
+
+    @Test
+    public void testInvalidUnicodeEscapes() {
+        assertEquals("\\u+041 \\u-041 \\u00g1 A \\u12", JsonRecordScanner.unescape(
+            "\\u+041 \\u-041 \\u00g1 \\u0041 \\u12"));
+    }
+
+    @Test
+    public void testStopsOnceColumnsFound() {
+        JsonRecordScanner scanner = scanner("$.a", "$.b.c");
+        // Nothing after the last column, and nothing inside skipped containers, is checked
+        assertTrue(scan(scanner, "{\"a\": 1, \"b\": {\"c\": 2}, \"d\": this is not json"));
+        assertEquals("2", scanner.getValueString(1));
+        assertTrue(scan(scanner, "{\"x\": [1,, {\"y\" 2}], \"b\": {\"c\": 3, \"z\": {oops}}, \"a\": 4}"));
+        assertEquals("4", scanner.getValueString(0));
+        assertTrue(scan(scanner, "{\"a\": 1, \"b\": {\"c\": 2} x"));
+        assertFalse(scan(scanner, "{\"a\": 1, \"x\": 1} x"));
+
+        // Flat records stop early too
+        scanner = scanner("$.a");
+        assertTrue(scan(scanner, "{\"b\": [1,, 2], \"a\": 1, \"c\": 1,, 2"));
+        assertEquals("1", scanner.getValueString(0));
+    }
+
+    @Test
+    public void testChecksWholeRecord() {
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, JsonPath.compile("$.a"));
+        JsonRecordScanner scanner = new JsonRecordScanner(trie, 1, true);
+        // What follows the last column value, and the values skipped, are checked too
+        assertFalse(scan(scanner, "{\"a\": 1, \"b\": this is not json"));
+        assertFalse(scan(scanner, "{\"a\": 1, \"b\": [1,, 2]}"));
+        assertFalse(scan(scanner, "{\"b\": {\"c\" 1}, \"a\": 1}"));
+        assertFalse(scan(scanner, "{\"b\": [{\"c\": [1, 2}], \"a\": 1}"));
+        assertTrue(scan(scanner, "{\"a\": 1, \"b\": [{\"c\": [1, {}, []]}, \"]\"], \"d\": {}}"));
+        assertEquals("1", scanner.getValueString(0));
+    }
+
+    @Test
+    public void testRejectsNonStrictJson() {
+        JsonRecordScanner scanner = scanner("$.a", "$.b");
+        assertFalse(scan(scanner, "{'a': 1}"));
+        assertFalse(scan(scanner, "{a: 1}"));
+        assertFalse(scan(scanner, "{\"a\": 1"));
+        assertFalse(scan(scanner, "{\"a\": \"unterminated}"));
+        assertFalse(scan(scanner, "{\"a\": nullify}"));
+        assertFalse(scan(scanner, "{\"a\": 1} trailing"));
+        assertFalse(scan(scanner, ""));
+    }
+
+    @Test
+    public void testRejectsInvalidNumbers() {
+        JsonRecordScanner scanner = scanner("$.a");
+        for (String number : new String[] { "--1", "1-2", "1e", "e5", "0.1.2", "01", "-", "1.", ".5", "+1", "1e+" }) {
+            assertFalse(number, scan(scanner, "{\"a\": " + number + "}"));
+        }
+        for (String number : new String[] { "0", "-0", "12", "-1.5", "1e5", "1E-5", "0.25e+10" }) {
+            assertTrue(number, scan(scanner, "{\"a\": " + number + "}"));
+            assertEquals(number, scanner.getValueString(0));
+        }
+    }
+
+    @Test
+    public void testDuplicateKeys() {
+        JsonRecordScanner scanner = scanner("$.a", "$.b");
+        assertTrue(scan(scanner, "{\"a\": 1, \"a\": 2, \"b\": 3}"));
+        assertEquals("1", scanner.getValueString(0));
+        assertEquals("3", scanner.getValueString(1));
+    }
+
+    @Test
+    public void testDuplicateKeysSkippedWhole() {
+        // Nothing is read below a key met before in the same object
+        JsonRecordScanner scanner = scanner("$.a.x", "$.a.y", "$.b[1]");
+        assertTrue(scan(scanner, "{\"a\": {\"x\": 1}, \"a\": {\"y\": 2}, \"b\": [3], \"b\": [4, 5]}"));
+        assertEquals("1", scanner.getValueString(0));
+        assertEquals(JsonRecordScanner.NONE, scanner.getValueType(1));
+        assertEquals(JsonRecordScanner.NONE, scanner.getValueType(2));
+
+        // The same key in different objects is read in each
+        scanner = scanner("$.a[0].k", "$.a[1].k");
+        assertTrue(scan(scanner, "{\"a\": [{\"k\": 1}, {\"k\": 2}]}"));
+        assertEquals("2", scanner.getValueString(1));
+    }
+
+    @Test
+    public void testSplitArray() {
+        byte[] bytes = " [1, \"a\\\"b\", [2, {}], null ] ".getBytes(JsonPathTrie.UTF8);
+        JsonElementSpans spans = new JsonElementSpans();
+        assertTrue(new JsonRecordScanner().split(bytes, 0, bytes.length, spans));
+        assertEquals(4, spans.size);
+        assertEquals(JsonRecordScanner.NUMBER, spans.types[0]);
+        assertEquals("a\"b", JsonRecordScanner.decode(bytes, spans.types[1], spans.starts[1], spans.ends[1]));
+        assertEquals(JsonRecordScanner.ARRAY, spans.types[2]);
+        assertEquals("[2, {}]", new String(bytes, spans.starts[2], spans.ends[2] - spans.starts[2]));
+        assertEquals(JsonRecordScanner.NULL, spans.types[3]);
+
+        assertTrue(new JsonRecordScanner().split("[]".getBytes(JsonPathTrie.UTF8), 0, 2, spans));
+        assertEquals(0, spans.size);
+    }
+
+    @Test
+    public void testSplitObject() {
+        byte[] bytes = "{\"a\": true, \"b\\n\": {\"c\": 1}}".getBytes(JsonPathTrie.UTF8);
+        JsonElementSpans spans = new JsonElementSpans();
+        assertTrue(new JsonRecordScanner().split(bytes, 0, bytes.length, spans));
+        assertEquals(2, spans.size);
+        assertEquals(JsonRecordScanner.TRUE, spans.types[0]);
+        assertEquals("a", new String(bytes, spans.keyStarts[0], spans.keyEnds[0] - spans.keyStarts[0]));
+        assertFalse(spans.keysEscaped[0]);
+        assertTrue(spans.keysEscaped[1]);
+        assertEquals(JsonRecordScanner.OBJECT, spans.types[1]);
+    }
+
+    @Test
+    public void testSplitRejectsNonStrictJson() {
+        JsonRecordScanner scanner = new JsonRecordScanner();
+        JsonElementSpans spans = new JsonElementSpans();
+        for (String container : new String[] { "[1,]", "[1 2]", "{'a': 1}", "{\"a\" 1}", "[1] 2", "\"a\"", "" }) {
+            byte[] bytes = container.getBytes(JsonPathTrie.UTF8);
+            assertFalse(container, scanner.split(bytes, 0, bytes.length, spans));
+        }
+    }
+
+    @Test
+    public void testFlatObjectsReadAsTrie() {
+        String[] paths = { "$.id", "$.name", "$.a_key_longer_than_sixteen", "$.a_key_longer_than_sixteem",
+            "$.k\u00e9y", "$.list", "$.obj" };
+        String[] records = { "{\"id\": 1, \"name\": \"one\", \"list\": [1, {\"id\": 2}], \"obj\": {\"name\": 3}}",
+            "{\"a_key_longer_than_sixteen\": 1, \"a_key_longer_than_sixteem\": 2, \"a_key_longer_than_sixteeX\": 3}",
+            "{\"id\": 1, \"id\": 2, \"name\": null, \"name\": \"second\"}",
+            "{\"k\\u00e9y\": \"escaped\", \"i\\u0064\": 4, \"k\u00e9y\": \"again\"}",
+            "{\"other\": {\"id\": 5}, \"ids\": 6, \"i\": 7}", "[{\"id\": 1}]", "{}", "  { \"id\" : 8 }  ",
+            "{'id': 9, name: bare}", "{\"id\": 10,, \"name\": 1}", "{\"id\": 11, \"list\": [1}",
+            "{\"id\": 12} x", "{\"id\": 13, \"name\": \"unterminated" };
+        JsonPathTrie flatTrie = new JsonPathTrie();
+        JsonPathTrie trie = new JsonPathTrie();
+        for (int i = 0; i < paths.length; i++) {
+            flatTrie.add(i, JsonPath.compile(paths[i]));
+            trie.add(i, JsonPath.compile(paths[i]));
+        }
+        // A nested path makes the scanner walk the trie
+        trie.add(paths.length, JsonPath.compile("$.obj.name"));
+        assertTrue(flatTrie.isFlat());
+        assertFalse(trie.isFlat());
+
+        JsonRecordScanner flat = new JsonRecordScanner(flatTrie, paths.length);
+        JsonRecordScanner walker = new JsonRecordScanner(trie, paths.length + 1);
+        for (String record : records) {
+            boolean scanned = scan(walker, record);
+            assertEquals(record, scanned, scan(flat, record));
+            if (!scanned) {
+                continue;
+            }
+            for (int column = 0; column < paths.length; column++) {
+                assertEquals(record, walker.getValueType(column), flat.getValueType(column));
+                assertEquals(record, walker.getValueString(column), flat.getValueString(column));
+            }
+        }
+    }
+
+    @Test
+    public void testFlatTries() {
+        JsonPathTrie trie = new JsonPathTrie();
+        assertFalse(trie.isFlat());
+        trie.add(0, JsonPath.compile("$.a"));
+        assertTrue(trie.isFlat());
+        trie.add(1, JsonPath.compile("$.b.c"));
+        assertFalse(trie.isFlat());
+
+        JsonPathTrie arrays = new JsonPathTrie();
+        arrays.add(0, JsonPath.compile("$[0]"));
+        assertFalse(arrays.isFlat());
+    }
+}
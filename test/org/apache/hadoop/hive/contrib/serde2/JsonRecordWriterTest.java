@@ -0,0 +1,109 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import net.minidev.json.JSONValue;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+public class JsonRecordWriterTest {
+
+    private static String write(Object data, ObjectInspector inspector) throws SerDeException {
+        JsonRecordWriter writer = new JsonRecordWriter();
+        writer.writeValue(data, inspector);
+        return new String(writer.getBytes(), 0, writer.getLength(), JsonPathTrie.UTF8);
+    }
+
+    @Test
+    public void testPrimitives() throws SerDeException {
+        assertEquals("null", write(null, PrimitiveObjectInspectorFactory.javaStringObjectInspector));
+        assertEquals("true", write(true, PrimitiveObjectInspectorFactory.javaBooleanObjectInspector));
+        assertEquals("-7", write((byte) -7, PrimitiveObjectInspectorFactory.javaByteObjectInspector));
+        assertEquals("0", write(0, PrimitiveObjectInspectorFactory.javaIntObjectInspector));
+        assertEquals("-9223372036854775808", write(Long.MIN_VALUE, PrimitiveObjectInspectorFactory.javaLongObjectInspector));
+        assertEquals("9223372036854775807", write(Long.MAX_VALUE, PrimitiveObjectInspectorFactory.javaLongObjectInspector));
+        assertEquals("1.0E-5", write(1e-5, PrimitiveObjectInspectorFactory.javaDoubleObjectInspector));
+        assertEquals("0.1", write(0.1f, PrimitiveObjectInspectorFactory.javaFloatObjectInspector));
+        assertEquals("\"NaN\"", write(Double.NaN, PrimitiveObjectInspectorFactory.javaDoubleObjectInspector));
+        assertEquals("\"-Infinity\"",
+            write(Float.NEGATIVE_INFINITY, PrimitiveObjectInspectorFactory.javaFloatObjectInspector));
+        assertEquals("\"2012-03-04 05:06:07.5\"", write(Timestamp.valueOf("2012-03-04 05:06:07.5"),
+            PrimitiveObjectInspectorFactory.javaTimestampObjectInspector));
+        assertEquals("\"aGk/Pw==\"", write(new BytesWritable("hi??".getBytes(JsonPathTrie.UTF8)),
+            PrimitiveObjectInspectorFactory.writableBinaryObjectInspector));
+    }
+
+    @Test
+    public void testEscaping() throws SerDeException {
+        String value = "quote \" backslash \\ slash / tab \t newline \n nul \u0000 unit \u001f"
+            + " e\u0301 \u00e9 \u20ac \ud83d\ude00";
+        String expected = "\"quote \\\" backslash \\\\ slash / tab \\t newline \\n nul \\u0000 unit \\u001f"
+            + " e\u0301 \u00e9 \u20ac \ud83d\ude00\"";
+
+        // From a String and from the bytes of a Text
+        assertEquals(expected, write(value, PrimitiveObjectInspectorFactory.javaStringObjectInspector));
+        assertEquals(expected, write(new Text(value), PrimitiveObjectInspectorFactory.writableStringObjectInspector));
+        assertEquals(value, ((List<?>) JSONValue.parse("[" + expected + "]")).get(0));
+    }
+
+    @Test
+    public void testNested() throws SerDeException {
+        ObjectInspector inspector = ObjectInspectorFactory.getStandardListObjectInspector(
+            ObjectInspectorFactory.getStandardMapObjectInspector(
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaLongObjectInspector)));
+        Map<Integer, Object> map = new LinkedHashMap<Integer, Object>();
+        map.put(1, Arrays.asList(2L, 3L));
+        map.put(4, null);
+        assertEquals("[{\"1\":[2,3],\"4\":null},{}]",
+            write(Arrays.asList(map, new HashMap<Integer, Object>()), inspector));
+    }
+
+    @Test
+    public void testFloatingPointKeys() throws SerDeException {
+        ObjectInspector inspector = ObjectInspectorFactory.getStandardMapObjectInspector(
+            PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+            PrimitiveObjectInspectorFactory.javaIntObjectInspector);
+        Map<Double, Integer> map = new LinkedHashMap<Double, Integer>();
+        map.put(1.5, 1);
+        map.put(Double.NaN, 2);
+        map.put(Double.POSITIVE_INFINITY, 3);
+        map.put(Double.NEGATIVE_INFINITY, 4);
+        String json = write(map, inspector);
+        assertEquals("{\"1.5\":1,\"NaN\":2,\"Infinity\":3,\"-Infinity\":4}", json);
+        assertEquals(4, ((Map<?, ?>) JSONValue.parse(json)).size());
+
+        Map<Float, Integer> floats = new LinkedHashMap<Float, Integer>();
+        floats.put(Float.NaN, 1);
+        assertEquals("{\"NaN\":1}", write(floats, ObjectInspectorFactory.getStandardMapObjectInspector(
+            PrimitiveObjectInspectorFactory.javaFloatObjectInspector,
+            PrimitiveObjectInspectorFactory.javaIntObjectInspector)));
+    }
+
+    @Test
+    public void testBufferGrows() throws SerDeException {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            value.append((char) ('a' + i % 26));
+        }
+        JsonRecordWriter writer = new JsonRecordWriter();
+        writer.writeValue(value.toString(), PrimitiveObjectInspectorFactory.javaStringObjectInspector);
+        assertEquals(10002, writer.getLength());
+
+        // The buffer is reused for the next record
+        writer.reset();
+        writer.writeLong(12);
+        assertEquals("12", new String(writer.getBytes(), 0, writer.getLength(), JsonPathTrie.UTF8));
+    }
+}
@@ -1,43 +1,681 @@
 package org.apache.hadoop.hive.contrib.serde2;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hive.serde.Constants;
+import org.apache.hadoop.hive.serde2.ColumnProjectionUtils;
+import org.apache.hadoop.hive.serde2.SerDeException;
+import org.apache.hadoop.hive.serde2.io.DoubleWritable;
+import org.apache.hadoop.hive.serde2.objectinspector.ListObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorFactory;
+import org.apache.hadoop.hive.serde2.objectinspector.ObjectInspectorUtils;
+import org.apache.hadoop.hive.serde2.objectinspector.StructField;
+import org.apache.hadoop.hive.serde2.objectinspector.StructObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.LongObjectInspector;
+import org.apache.hadoop.hive.serde2.objectinspector.primitive.PrimitiveObjectInspectorFactory;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.junit.After;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import org.junit.Before;
 import org.junit.Test;
 
 public class JsonSerDeTest {
 
+    private JsonSerDe serde;
+
     @Before
     public void setUp() throws Exception {
+        serde = new JsonSerDe();
     }
 
     @After
     public void tearDown() throws Exception {
     }
 
+    /**
+     * Builds the table properties for the given columns, types and JSON paths
+     */
+    static Properties tableProperties(String columns, String types, String... columnPaths) {
+        Properties properties = new Properties();
+        properties.setProperty(Constants.LIST_COLUMNS, columns);
+        properties.setProperty(Constants.LIST_COLUMN_TYPES, types);
+        for (int i = 0; i < columnPaths.length; i += 2) {
+            properties.setProperty(columnPaths[i], columnPaths[i + 1]);
+        }
+        return properties;
+    }
+
+    private void initializeExample() throws SerDeException {
+        initializeExample(new Configuration());
+    }
+
+    private void initializeExample(Configuration configuration) throws SerDeException {
+        serde.initialize(configuration, tableProperties(
+            "request_id,keywords,hits,score,first_tag,valid",
+            "string:string:bigint:double:string:boolean",
+            "request_id", "$.search_result.requestId",
+            "keywords", "$['param.keywords']",
+            "hits", "$.search_result.hits",
+            "score", "$.search_result.score",
+            "first_tag", "$.tags[0]",
+            "valid", "$.valid"));
+    }
+
+    private List<Object> deserialize(String record) throws SerDeException {
+        return deserialize(new Text(record));
+    }
+
+    /**
+     * Deserializes a record, with the fields copied to plain Java objects
+     */
+    @SuppressWarnings("unchecked")
+    private List<Object> deserialize(Text record) throws SerDeException {
+        return (List<Object>) ObjectInspectorUtils.copyToStandardJavaObject(
+            serde.deserialize(record), serde.getObjectInspector());
+    }
+
+    @Test
+    public void testInitialize() throws SerDeException {
+        initializeExample();
+
+        try {
+            new JsonSerDe().initialize(new Configuration(), tableProperties("a,b", "string:string", "a", "$.a"));
+            fail("A column without a JSON path must be rejected");
+        } catch (SerDeException expected) {
+        }
+
+        try {
+            new JsonSerDe().initialize(new Configuration(), tableProperties("a", "string", "a", "$..a"));
+            fail("An indefinite JSON path must be rejected");
+        } catch (SerDeException expected) {
+        }
+    }
+
     @Test
-    public void testInitialize() {
-        fail("Not yet implemented");
+    public void testInitializeSharesPlans() throws SerDeException {
+        initializeExample();
+        ObjectInspector inspector = serde.getObjectInspector();
+
+        serde = new JsonSerDe();
+        initializeExample();
+        assertSame(inspector, serde.getObjectInspector());
+
+        // Another projection is another plan, and rows are still the SerDe's own
+        JsonSerDe projected = new JsonSerDe();
+        Configuration configuration = new Configuration();
+        ColumnProjectionUtils.setReadColumnIDs(configuration, new ArrayList<Integer>(Arrays.asList(0)));
+        projected.initialize(configuration, tableProperties(
+            "request_id,keywords,hits,score,first_tag,valid",
+            "string:string:bigint:double:string:boolean",
+            "request_id", "$.search_result.requestId",
+            "keywords", "$['param.keywords']",
+            "hits", "$.search_result.hits",
+            "score", "$.search_result.score",
+            "first_tag", "$.tags[0]",
+            "valid", "$.valid"));
+        assertFalse(inspector == projected.getObjectInspector());
+        Object row = projected.deserialize(new Text("{\"search_result\": {\"requestId\": \"r-1\", \"hits\": 1}}"));
+        assertEquals(Arrays.asList("r-1", null, null, null, null, null),
+            ObjectInspectorUtils.copyToStandardJavaObject(row, projected.getObjectInspector()));
+        assertEquals(Long.valueOf(2), deserialize("{\"search_result\": {\"hits\": 2}}").get(2));
+
+        // As is another path for a column
+        JsonSerDe otherPath = new JsonSerDe();
+        otherPath.initialize(new Configuration(), tableProperties("a", "string", "a", "$.a"));
+        ObjectInspector otherInspector = otherPath.getObjectInspector();
+        otherPath.initialize(new Configuration(), tableProperties("a", "string", "A", "$.b"));
+        assertFalse(otherInspector == otherPath.getObjectInspector());
+        assertEquals(Arrays.asList("b"), ObjectInspectorUtils.copyToStandardJavaObject(
+            otherPath.deserialize(new Text("{\"a\": \"a\", \"b\": \"b\"}")), otherPath.getObjectInspector()));
+    }
+
+    @Test
+    public void testInitializeCacheIsBounded() throws SerDeException {
+        for (int i = 0; i < JsonSerDePlan.CACHED_PLANS + 10; i++) {
+            new JsonSerDe().initialize(new Configuration(), tableProperties("a", "string", "a", "$.a" + i));
+        }
+        assertEquals(JsonSerDePlan.CACHED_PLANS, JsonSerDePlan.getCachedPlans());
+    }
+
+    @Test
+    public void testGetObjectInspector() throws SerDeException {
+        initializeExample();
+
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+        assertEquals(6, fields.size());
+        assertEquals("request_id", fields.get(0).getFieldName());
+        assertEquals(ObjectInspector.Category.PRIMITIVE, fields.get(2).getFieldObjectInspector().getCategory());
+        assertEquals(Constants.BIGINT_TYPE_NAME, fields.get(2).getFieldObjectInspector().getTypeName());
+    }
+
+    @Test
+    public void testDeserialize() throws SerDeException {
+        initializeExample();
+
+        List<?> row = deserialize("{\"search_result\": {\"requestId\": \"r-1\", "
+            + "\"hits\": 42, \"score\": 0.5}, \"param.keywords\": \"hive json\", "
+            + "\"tags\": [\"a\", \"b\"], \"valid\": true}");
+        assertEquals("r-1", row.get(0));
+        assertEquals("hive json", row.get(1));
+        assertEquals(Long.valueOf(42), row.get(2));
+        assertEquals(Double.valueOf(0.5), row.get(3));
+        assertEquals("a", row.get(4));
+        assertEquals(Boolean.TRUE, row.get(5));
+
+        // Missing paths become nulls, and nothing leaks over from the previous row
+        row = deserialize("{\"search_result\": {\"hits\": 7}, \"tags\": []}");
+        assertNull(row.get(0));
+        assertNull(row.get(1));
+        assertEquals(Long.valueOf(7), row.get(2));
+        assertNull(row.get(3));
+        assertNull(row.get(4));
+        assertNull(row.get(5));
     }
 
     @Test
-    public void testGetObjectInspector() {
-        fail("Not yet implemented");
+    public void testDeserializeLenientJson() throws SerDeException {
+        initializeExample();
+
+        // Not strict JSON, so this goes through the lenient parser
+        List<?> row = deserialize("{'search_result': {requestId: 'r-2', 'hits': 3}}");
+        assertEquals("r-2", row.get(0));
+        assertEquals(Long.valueOf(3), row.get(2));
+        assertNull(row.get(3));
     }
 
     @Test
-    public void testDeserialize() {
-        fail("Not yet implemented");
+    public void testDeserializeMalformed() throws SerDeException {
+        initializeExample();
+
+        // By default a malformed record is a row of nulls, found when a column is read
+        Object row = serde.deserialize(new Text("{\"search_result\": "));
+        assertEquals(0, serde.getMalformedRows());
+        assertEquals(Arrays.asList(null, null, null, null, null, null),
+            ((StructObjectInspector) serde.getObjectInspector()).getStructFieldsDataAsList(row));
+        assertEquals(1, serde.getMalformedRows());
+    }
+
+    @Test
+    public void testDeserializeMalformedSkip() throws SerDeException {
+        Properties properties = tableProperties("a", "string", "a", "$.a",
+            JsonMalformedRecordPolicy.POLICY, "skip");
+        serde.initialize(new Configuration(), properties);
+
+        assertNull(serde.deserialize(new Text("not json")));
+        assertEquals(1, serde.getMalformedRows());
+        assertEquals(Arrays.asList("x"), deserialize("{\"a\": \"x\"}"));
+        assertNull(serde.deserialize(new Text("{\"a\": ")));
+        assertEquals(2, serde.getMalformedRows());
+    }
+
+    @Test
+    public void testDeserializeMalformedFail() throws SerDeException {
+        Properties properties = tableProperties("a", "string", "a", "$.a",
+            JsonMalformedRecordPolicy.POLICY, "fail", JsonMalformedRecordPolicy.MAX_ROWS, "1");
+        serde.initialize(new Configuration(), properties);
+
+        // Under the limit, a malformed record is a row of nulls
+        assertEquals(Arrays.asList((Object) null), deserialize("not json"));
+        try {
+            serde.deserialize(new Text("still not json"));
+            fail("More malformed records than allowed");
+        } catch (SerDeException expected) {
+        }
+    }
+
+    @Test
+    public void testDeserializeReusedText() throws SerDeException {
+        initializeExample();
+
+        // Record readers reuse their Text, so the buffer can be longer than the record
+        Text text = new Text("{\"search_result\": {\"requestId\": \"a-much-longer-request-id\"}}");
+        text.set("{\"search_result\": {\"requestId\": \"short\"}}");
+        List<?> row = deserialize(text);
+        assertEquals("short", row.get(0));
+    }
+
+    @Test
+    public void testDeserializeProjectedColumns() throws SerDeException {
+        Configuration configuration = new Configuration();
+        ColumnProjectionUtils.setReadColumnIDs(configuration, new ArrayList<Integer>(Arrays.asList(2, 0)));
+        initializeExample(configuration);
+
+        List<?> row = deserialize("{\"search_result\": {\"requestId\": \"r-1\", "
+            + "\"hits\": 42, \"score\": 0.5}, \"valid\": true}");
+        assertEquals("r-1", row.get(0));
+        assertEquals(Long.valueOf(42), row.get(2));
+        assertNull(row.get(3));
+        assertNull(row.get(5));
+    }
+
+    @Test
+    public void testDeserializeNoProjectedColumns() throws SerDeException {
+        // Hive 0.8 sends an empty list of columns when all columns are read
+        Configuration configuration = new Configuration();
+        ColumnProjectionUtils.setFullyReadColumns(configuration);
+        initializeExample(configuration);
+        List<?> row = deserialize("{\"valid\": true}");
+        assertEquals(Boolean.TRUE, row.get(5));
+
+        // Newer releases say explicitly when no columns are read at all
+        configuration.setBoolean(JsonSerDe.READ_ALL_COLUMNS, false);
+        initializeExample(configuration);
+        row = deserialize("not even JSON");
+        assertEquals(Arrays.asList(null, null, null, null, null, null), row);
+    }
+
+    @Test
+    public void testDeserializeLazily() throws SerDeException {
+        initializeExample();
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        StructField requestId = inspector.getStructFieldRef("request_id");
+        StructField hits = inspector.getStructFieldRef("HITS");
+
+        // Nothing is parsed until a field is accessed
+        Object row = serde.deserialize(new Text("not even JSON"));
+        assertNull(inspector.getStructFieldData(row, requestId));
+
+        // Fields are converted one at a time, so a bad value only matters if it is read
+        row = serde.deserialize(new Text("{\"search_result\": {\"requestId\": \"r-3\", \"hits\": \"many\"}}"));
+        assertEquals(new Text("r-3"), inspector.getStructFieldData(row, requestId));
+        assertNull(inspector.getStructFieldData(row, hits));
+
+        // Converted fields are cached for the rest of the row
+        row = serde.deserialize(new Text("{\"search_result\": {\"requestId\": \"r-4\"}}"));
+        Object first = inspector.getStructFieldData(row, requestId);
+        assertEquals(new Text("r-4"), first);
+        assertSame(first, inspector.getStructFieldData(row, requestId));
+    }
+
+    @Test
+    public void testDeserializeReusesWritables() throws SerDeException {
+        initializeExample();
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        StructField hits = inspector.getStructFieldRef("hits");
+
+        Object first = inspector.getStructFieldData(serde.deserialize(new Text("{\"search_result\": {\"hits\": 1}}")), hits);
+        assertEquals(new LongWritable(1), first);
+        assertNull(inspector.getStructFieldData(serde.deserialize(new Text("{\"search_result\": {}}")), hits));
+        Object third = inspector.getStructFieldData(serde.deserialize(new Text("{\"search_result\": {\"hits\": 3}}")), hits);
+        assertSame(first, third);
+        assertEquals(3L, ((LongObjectInspector) hits.getFieldObjectInspector()).get(third));
+    }
+
+    @Test
+    public void testDeserializeIntegers() throws SerDeException {
+        serde.initialize(new Configuration(), tableProperties("b,i,s,t", "bigint:int:smallint:tinyint",
+            "b", "$.b", "i", "$.i", "s", "$.s", "t", "$.t"));
+
+        List<?> row = deserialize("{\"b\": -9223372036854775808, \"i\": \"2147483647\", \"s\": -32768, \"t\": \"-128\"}");
+        assertEquals(Long.MIN_VALUE, row.get(0));
+        assertEquals(Integer.MAX_VALUE, row.get(1));
+        assertEquals(Short.MIN_VALUE, row.get(2));
+        assertEquals(Byte.MIN_VALUE, row.get(3));
+
+        assertEquals(Arrays.asList(null, null, null, null), deserialize("{\"b\": 1.5, \"i\": \"many\", \"t\": 128}"));
+    }
+
+    @Test
+    public void testDeserializeUnconvertibleFail() throws SerDeException {
+        Properties properties = tableProperties("i,s", "int:string", "i", "$.i", "s", "$.s");
+        properties.setProperty(JsonColumnConverter.UNCONVERTIBLE_POLICY, "fail");
+        serde.initialize(new Configuration(), properties);
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+
+        assertEquals(Arrays.asList(1, "a"), deserialize("{\"i\": 1, \"s\": \"a\"}"));
+        assertEquals(Arrays.asList(null, "b"), deserialize("{\"s\": \"b\"}"));
+        Object row = serde.deserialize(new Text("{\"i\": \"many\", \"s\": \"c\"}"));
+        assertEquals(new Text("c"), inspector.getStructFieldData(row, inspector.getStructFieldRef("s")));
+        try {
+            inspector.getStructFieldData(row, inspector.getStructFieldRef("i"));
+            fail("i is not a number");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        JsonColumnBatch batch = serde.createColumnBatch(4);
+        try {
+            serde.deserialize(new Text[] { new Text("{\"i\": 2}"), new Text("{\"i\": true}") }, 0, 2, batch);
+            fail("i is not a number");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        properties.setProperty(JsonColumnConverter.UNCONVERTIBLE_POLICY, "ignore");
+        try {
+            new JsonSerDe().initialize(new Configuration(), properties);
+            fail("An unknown policy must be rejected");
+        } catch (SerDeException expected) {
+        }
+    }
+
+    @Test
+    public void testDeserializeNestedColumns() throws SerDeException {
+        serde.initialize(new Configuration(), tableProperties("tags,counts,address,people",
+            "array<string>:map<string,int>:struct<city:string,zip:int>:array<struct<name:string,age:int>>",
+            "tags", "$.tags", "counts", "$.counts", "address", "$.address", "people", "$.people"));
+        assertEquals("struct<tags:array<string>,counts:map<string,int>,address:struct<city:string,zip:int>,"
+            + "people:array<struct<name:string,age:int>>>", serde.getObjectInspector().getTypeName());
+
+        List<Object> row = deserialize("{\"tags\": [\"a\", null, \"b\"], \"counts\": {\"x\": 1, \"y\": \"2\"},"
+            + " \"address\": {\"zip\": 400000, \"city\": \"Cluj\", \"extra\": [1]},"
+            + " \"people\": [{\"name\": \"Ana\", \"age\": 30}, {\"name\": \"Ion\"}, null]}");
+        assertEquals(Arrays.asList("a", null, "b"), row.get(0));
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        counts.put("x", 1);
+        counts.put("y", 2);
+        assertEquals(counts, row.get(1));
+        assertEquals(Arrays.<Object>asList("Cluj", 400000), row.get(2));
+        assertEquals(Arrays.<Object>asList(Arrays.<Object>asList("Ana", 30), Arrays.<Object>asList("Ion", null), null),
+            row.get(3));
+
+        // Values which are not containers of the right kind are null
+        row = deserialize("{\"tags\": \"a\", \"counts\": [1], \"address\": 5, \"people\": {}}");
+        assertEquals(Arrays.asList(null, null, null, null), row);
+
+        // The lenient parser reads containers that are not strict JSON
+        row = deserialize("{\"tags\": ['a', 'b'], \"counts\": {x: 1}}");
+        assertEquals(Arrays.asList("a", "b"), row.get(0));
+        assertEquals(Collections.singletonMap("x", 1), row.get(1));
+    }
+
+    @Test
+    public void testDeserializeNestedColumnsLazily() throws SerDeException {
+        serde.initialize(new Configuration(), tableProperties("tags,address",
+            "array<int>:struct<city:string,zip:int>", "tags", "$.tags", "address", "$.address"));
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+        ListObjectInspector listInspector = (ListObjectInspector) fields.get(0).getFieldObjectInspector();
+        StructObjectInspector addressInspector = (StructObjectInspector) fields.get(1).getFieldObjectInspector();
+
+        // Elements and fields which are never read are never converted, so bad ones do no harm
+        Object row = serde.deserialize(new Text("{\"tags\": [1, \"x\", 3], \"address\": {\"city\": \"Cluj\", \"zip\": \"?\"}}"));
+        Object tags = inspector.getStructFieldData(row, fields.get(0));
+        assertEquals(3, listInspector.getListLength(tags));
+        assertEquals(new IntWritable(3), listInspector.getListElement(tags, 2));
+        Object address = inspector.getStructFieldData(row, fields.get(1));
+        assertEquals(new Text("Cluj"), addressInspector.getStructFieldData(address,
+            addressInspector.getStructFieldRef("city")));
+
+        // The nested values are reused for the next row
+        Object next = serde.deserialize(new Text("{\"tags\": [4], \"address\": {\"city\": \"Iasi\"}}"));
+        assertSame(tags, inspector.getStructFieldData(next, fields.get(0)));
+        assertEquals(1, listInspector.getListLength(tags));
+        assertEquals(new IntWritable(4), listInspector.getListElement(tags, 0));
+        assertSame(address, inspector.getStructFieldData(next, fields.get(1)));
+        assertNull(addressInspector.getStructFieldData(address, addressInspector.getStructFieldRef("zip")));
+    }
+
+    @Test
+    public void testDeserializeBatch() throws SerDeException {
+        initializeExample();
+        Text[] records = {
+            new Text("{\"search_result\": {\"requestId\": \"r-1\", \"hits\": 7, \"score\": 1.5},"
+                + " \"param.keywords\": \"a\\\"b\", \"tags\": [\"x\"], \"valid\": true}"),
+            new Text("{\"search_result\": {\"hits\": null}, \"valid\": \"no\"}"),
+            new Text("{'search_result': {requestId: 'r-3', 'hits': 3}}"),
+            new Text("{\"search_result\": "),
+        };
+
+        JsonColumnBatch batch = serde.createColumnBatch(JsonColumnBatch.DEFAULT_CAPACITY);
+        assertEquals(4, serde.deserialize(records, 0, records.length, batch));
+        assertEquals(4, batch.size);
+        assertEquals(1, serde.getMalformedRows());
+
+        // The same values as deserializing the records one at a time
+        for (int row = 0; row < records.length; row++) {
+            List<Object> expected = deserialize(records[row]);
+            JsonColumnVector.BytesVector requestIds = (JsonColumnVector.BytesVector) batch.columns[0];
+            JsonColumnVector.BytesVector keywords = (JsonColumnVector.BytesVector) batch.columns[1];
+            JsonColumnVector.LongVector hits = (JsonColumnVector.LongVector) batch.columns[2];
+            JsonColumnVector.DoubleVector scores = (JsonColumnVector.DoubleVector) batch.columns[3];
+            JsonColumnVector.LongVector valid = (JsonColumnVector.LongVector) batch.columns[5];
+            assertEquals(expected.get(0), requestIds.toString(row));
+            assertEquals(expected.get(1), keywords.toString(row));
+            assertEquals(expected.get(2), hits.isNull[row] ? null : hits.values[row]);
+            assertEquals(expected.get(3), scores.isNull[row] ? null : scores.values[row]);
+            assertEquals(expected.get(5), valid.isNull[row] ? null : valid.values[row] == 1);
+        }
+        assertFalse(batch.columns[0].noNulls);
+
+        // A smaller batch reads only as many records as it holds, and is reused
+        JsonColumnBatch small = serde.createColumnBatch(2);
+        assertEquals(2, serde.deserialize(records, 1, 3, small));
+        assertEquals(2, small.size);
+        assertEquals("r-3", ((JsonColumnVector.BytesVector) small.columns[0]).toString(1));
+        assertEquals(1, serde.deserialize(records, 0, 1, small));
+        assertEquals(1, small.size);
+        assertTrue(small.columns[2].noNulls);
+        assertEquals(7, ((JsonColumnVector.LongVector) small.columns[2]).values[0]);
+    }
+
+    @Test
+    public void testDeserializeBatchProjectedColumns() throws SerDeException {
+        Configuration configuration = new Configuration();
+        configuration.setBoolean(JsonSerDe.READ_ALL_COLUMNS, false);
+        ColumnProjectionUtils.setReadColumnIDs(configuration, new ArrayList<Integer>(Arrays.asList(1)));
+        serde.initialize(configuration, tableProperties("a,b,c", "int:array<int>:string",
+            "a", "$.a", "b", "$.b", "c", "$.c", JsonMalformedRecordPolicy.POLICY, "skip"));
+
+        Text[] records = { new Text("{\"a\": 1, \"b\": [1, 2]}"), new Text("bad"), new Text("{\"b\": \"x\"}") };
+        JsonColumnBatch batch = serde.createColumnBatch(8);
+        assertEquals(3, serde.deserialize(records, 0, records.length, batch));
+
+        // The malformed record is skipped, and columns which are not read are null
+        assertEquals(2, batch.size);
+        assertTrue(batch.columns[0].isNull[0]);
+        assertEquals("[1, 2]", ((JsonColumnVector.BytesVector) batch.columns[1]).toString(0));
+        assertTrue(batch.columns[1].isNull[1]);
+        assertTrue(batch.columns[2].isNull[1]);
     }
 
     @Test
     public void testGetSerializedClass() {
-        fail("Not yet implemented");
+        assertEquals(Text.class, serde.getSerializedClass());
+    }
+
+    @Test
+    public void testSerialize() throws SerDeException {
+        serde.initialize(new Configuration(), tableProperties(
+            "id,name,score,tags,counts,address,missing",
+            "bigint:string:double:array<string>:map<string,int>:struct<city:string,zip:int>:string",
+            "id", "$.id", "name", "$.name", "score", "$.score", "tags", "$.tags", "counts", "$.counts",
+            "address", "$.address", "missing", "$.missing"));
+
+        // Hive hands serialize rows whose fields have internal names
+        ObjectInspector addressInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("city", "zip"), Arrays.<ObjectInspector>asList(
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                PrimitiveObjectInspectorFactory.javaIntObjectInspector));
+        StructObjectInspector rowInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("_col0", "_col1", "_col2", "_col3", "_col4", "_col5", "_col6"),
+            Arrays.<ObjectInspector>asList(
+                PrimitiveObjectInspectorFactory.writableLongObjectInspector,
+                PrimitiveObjectInspectorFactory.writableStringObjectInspector,
+                PrimitiveObjectInspectorFactory.javaDoubleObjectInspector,
+                ObjectInspectorFactory.getStandardListObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector),
+                ObjectInspectorFactory.getStandardMapObjectInspector(
+                    PrimitiveObjectInspectorFactory.javaStringObjectInspector,
+                    PrimitiveObjectInspectorFactory.javaIntObjectInspector),
+                addressInspector,
+                PrimitiveObjectInspectorFactory.javaStringObjectInspector));
+
+        Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+        counts.put("a", 1);
+        counts.put("b\"", 2);
+        List<Object> row = Arrays.<Object>asList(new LongWritable(42), new Text("Ren\u00e9 \"R\""), 0.5,
+            Arrays.asList("x", "y"), counts, Arrays.<Object>asList("Cluj", 400000), null);
+
+        Text serialized = (Text) serde.serialize(row, rowInspector);
+        assertEquals("{\"id\":42,\"name\":\"Ren\u00e9 \\\"R\\\"\",\"score\":0.5,\"tags\":[\"x\",\"y\"],"
+            + "\"counts\":{\"a\":1,\"b\\\"\":2},\"address\":{\"city\":\"Cluj\",\"zip\":400000},\"missing\":null}",
+            serialized.toString());
+
+        // The text reads back into the same primitive columns
+        Object deserialized = serde.deserialize(serialized);
+        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+        List<? extends StructField> fields = inspector.getAllStructFieldRefs();
+        assertEquals(new LongWritable(42), inspector.getStructFieldData(deserialized, fields.get(0)));
+        assertEquals(new Text("Ren\u00e9 \"R\""), inspector.getStructFieldData(deserialized, fields.get(1)));
+        assertEquals(new DoubleWritable(0.5), inspector.getStructFieldData(deserialized, fields.get(2)));
+        assertNull(inspector.getStructFieldData(deserialized, fields.get(6)));
+        assertEquals(row.subList(3, 6), ((List<?>) ObjectInspectorUtils.copyToStandardJavaObject(
+            deserialized, inspector)).subList(3, 6));
+
+        // The same Text is reused for the next row
+        assertSame(serialized, serde.serialize(row, rowInspector));
+    }
+
+    @Test
+    public void testSerializeNested() throws SerDeException {
+        initializeExample();
+        String record = "{\"search_result\":{\"requestId\":\"r-1\",\"hits\":7,\"score\":1.5},"
+            + "\"param.keywords\":\"cheap flights\",\"tags\":[\"travel\"],\"valid\":true}";
+
+        // The document is written back in the shape given by the JSON paths of the columns
+        Text serialized = (Text) serde.serialize(serde.deserialize(new Text(record)), serde.getObjectInspector());
+        assertEquals(record, serialized.toString());
+        assertEquals(deserialize(record), deserialize(serialized));
     }
 
     @Test
-    public void testSerialize() {
-        fail("Not yet implemented");
+    public void testSerDeStats() throws SerDeException {
+        initializeExample();
+        assertEquals(0, serde.getSerDeStats().getRawDataSize());
+
+        String first = "{\"search_result\": {\"hits\": 7}}";
+        String second = "{\"valid\": true, \"param.keywords\": \"caf\u00e9\"}";
+        serde.deserialize(new Text(first));
+        assertEquals(first.length(), serde.getSerDeStats().getRawDataSize());
+        Object row = serde.deserialize(new Text(second));
+        // The raw size is of the UTF-8 bytes, for the last row only
+        assertEquals(second.length() + 1, serde.getSerDeStats().getRawDataSize());
+
+        Text serialized = (Text) serde.serialize(row, serde.getObjectInspector());
+        assertEquals(serialized.getLength(), serde.getSerDeStats().getRawDataSize());
+
+        assertEquals(2, serde.getRowsDeserialized());
+        assertEquals(first.length() + second.length() + 1, serde.getBytesDeserialized());
+        assertEquals(1, serde.getRowsSerialized());
+        assertEquals(serialized.getLength(), serde.getBytesSerialized());
+    }
+
+    @Test
+    public void testThreadSafeStress() throws Exception {
+        final Properties properties = tableProperties("id,name,tags", "bigint:string:array<string>",
+            "id", "$.id", "name", "$.name", "tags", "$.tags");
+        properties.setProperty(JsonSerDe.THREAD_SAFE, "true");
+        serde.initialize(new Configuration(), properties);
+
+        final int threads = 8;
+        final int rows = 2000;
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        final Object[] firstRows = new Object[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        StructObjectInspector inspector = (StructObjectInspector) serde.getObjectInspector();
+                        for (int r = 0; r < rows; r++) {
+                            long id = thread * (long) rows + r;
+                            String record = "{\"id\": " + id + ", \"name\": \"n" + id + "\", \"tags\": [\"t"
+                                + thread + "\", \"" + r + "\"]}";
+                            Object row = serde.deserialize(new Text(record));
+                            if (r == 0) {
+                                firstRows[thread] = row;
+                            }
+                            assertEquals(Arrays.asList(id, "n" + id, Arrays.asList("t" + thread, "" + r)),
+                                ObjectInspectorUtils.copyToStandardJavaObject(row, inspector));
+
+                            Text serialized = (Text) serde.serialize(row, inspector);
+                            assertEquals(id, ((LongWritable) inspector.getStructFieldData(
+                                serde.deserialize(serialized), inspector.getAllStructFieldRefs().get(0))).get());
+                        }
+                    } catch (Throwable failure) {
+                        failures.add(failure);
+                    }
+                }
+            };
+        }
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals(Collections.emptyList(), failures);
+        // Each thread read into a row of its own, and the totals are of all of them
+        for (int t = 1; t < threads; t++) {
+            assertFalse(firstRows[0] == firstRows[t]);
+        }
+        assertEquals(2L * threads * rows, serde.getRowsDeserialized());
+        assertEquals((long) threads * rows, serde.getRowsSerialized());
+
+        // Initializing again keeps the totals, as it does without the mode
+        serde.initialize(new Configuration(), properties);
+        assertEquals(2L * threads * rows, serde.getRowsDeserialized());
+    }
+
+    @Test
+    public void testThreadSafeTotalsOfEndedThreads() throws Exception {
+        Properties properties = tableProperties("id", "bigint", "id", "$.id");
+        properties.setProperty(JsonSerDe.THREAD_SAFE, "true");
+        properties.setProperty(JsonMalformedRecordPolicy.POLICY, "skip");
+        properties.setProperty(JsonMalformedRecordPolicy.MAX_PERCENT, "5");
+        serde.initialize(new Configuration(), properties);
+
+        // Threads come and go, and the rows of those which have ended still count
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int t = 0; t < 50; t++) {
+            Thread worker = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int r = 0; r < 20; r++) {
+                            serde.deserialize(new Text("{\"id\": " + r + "}"));
+                        }
+                    } catch (Throwable failure) {
+                        failures.add(failure);
+                    }
+                }
+            };
+            worker.start();
+            worker.join();
+        }
+        assertEquals(Collections.emptyList(), failures);
+        assertEquals(1000, serde.getRowsDeserialized());
+
+        // The malformed percentage is checked against the rows of every thread
+        assertNull(serde.deserialize(new Text("not json")));
+        assertEquals(1001, serde.getRowsDeserialized());
+        assertEquals(1, serde.getMalformedRows());
+    }
+
+    @Test(expected = SerDeException.class)
+    public void testSerializeWrongNumberOfFields() throws SerDeException {
+        initializeExample();
+        StructObjectInspector rowInspector = ObjectInspectorFactory.getStandardStructObjectInspector(
+            Arrays.asList("_col0"),
+            Arrays.<ObjectInspector>asList(PrimitiveObjectInspectorFactory.javaStringObjectInspector));
+        serde.serialize(Arrays.asList("x"), rowInspector);
     }
 
 }
@@ -0,0 +1,115 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import com.jayway.jsonpath.JsonPath;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class JsonTapeTest {
+
+    private static boolean parse(JsonTape tape, String record) {
+        byte[] bytes = record.getBytes(JsonPathTrie.UTF8);
+        return tape.parse(bytes, 0, bytes.length);
+    }
+
+    private static String valueString(JsonTape tape, int column) {
+        return JsonRecordScanner.decode(tape.getBytes(), tape.getValueType(column), tape.getValueStart(column),
+            tape.getValueEnd(column));
+    }
+
+    private static String rewrite(String value) {
+        byte[] bytes = value.getBytes(JsonPathTrie.UTF8);
+        JsonTape tape = new JsonTape(0);
+        JsonRecordWriter writer = new JsonRecordWriter();
+        assertTrue(value, tape.parse(bytes, 0, bytes.length));
+        tape.write(0, writer);
+        return new String(writer.getBytes(), 0, writer.getLength(), JsonPathTrie.UTF8);
+    }
+
+    @Test
+    public void testEvaluate() {
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, JsonPath.compile("$.a.b"));
+        trie.add(1, JsonPath.compile("$.c[1]"));
+        trie.add(2, JsonPath.compile("$.d"));
+        trie.add(3, JsonPath.compile("$.e"));
+        trie.add(4, JsonPath.compile("$.missing"));
+
+        JsonTape tape = new JsonTape(5);
+        assertTrue(parse(tape, "{'a': {b: 'x\\'y'}, c: [1, -2.5e3], \"d\": hello world , e: {'f': [true]}}"));
+        tape.evaluate(trie);
+        assertEquals(JsonRecordScanner.ESCAPED_STRING, tape.getValueType(0));
+        assertEquals("x'y", valueString(tape, 0));
+        assertEquals(JsonRecordScanner.NUMBER, tape.getValueType(1));
+        assertEquals("-2.5e3", valueString(tape, 1));
+        assertEquals(JsonRecordScanner.STRING, tape.getValueType(2));
+        assertEquals("hello world", valueString(tape, 2));
+        assertEquals(JsonRecordScanner.OBJECT, tape.getValueType(3));
+        assertEquals("{'f': [true]}", valueString(tape, 3));
+        assertEquals(JsonRecordScanner.NONE, tape.getValueType(4));
+
+        // The tape is reused for the next record, and the first duplicated key wins
+        assertTrue(parse(tape, "{d: 1, d: 2}"));
+        tape.evaluate(trie);
+        assertEquals(JsonRecordScanner.NONE, tape.getValueType(0));
+        assertEquals("1", valueString(tape, 2));
+    }
+
+    @Test
+    public void testDuplicateKeysSkippedWhole() {
+        JsonPathTrie trie = new JsonPathTrie();
+        trie.add(0, JsonPath.compile("$.a.x"));
+        trie.add(1, JsonPath.compile("$.a.y"));
+        JsonTape tape = new JsonTape(2);
+        assertTrue(parse(tape, "{a: {x: 1}, a: {y: 2}}"));
+        tape.evaluate(trie);
+        assertEquals("1", valueString(tape, 0));
+        assertEquals(JsonRecordScanner.NONE, tape.getValueType(1));
+    }
+
+    @Test
+    public void testLiterals() {
+        JsonTape tape = new JsonTape(0);
+        assertTrue(parse(tape, "[true, false, null, 0, 01, 1.5, 2., truthy, -]"));
+        assertEquals(10, tape.size());
+        byte[] types = { JsonRecordScanner.ARRAY, JsonRecordScanner.TRUE, JsonRecordScanner.FALSE,
+            JsonRecordScanner.NULL, JsonRecordScanner.NUMBER, JsonRecordScanner.STRING, JsonRecordScanner.NUMBER,
+            JsonRecordScanner.STRING, JsonRecordScanner.STRING, JsonRecordScanner.STRING };
+        for (int t = 0; t < types.length; t++) {
+            assertEquals("token " + t, types[t], tape.getType(t));
+        }
+    }
+
+    @Test
+    public void testRejects() {
+        JsonTape tape = new JsonTape(0);
+        for (String record : new String[] { "", "{", "{a}", "{a: }", "[1,]", "[1 2] 3", "{'a: 1}", "[1}", "{a: 1]" }) {
+            assertFalse(record, parse(tape, record));
+        }
+    }
+
+    @Test
+    public void testWrite() {
+        assertEquals("{\"a\":\"x'y\",\"b\":[1,\"two\",null,{}],\"c\":\"q\\\"\",\"d\":[]}",
+            rewrite("{a: 'x\\'y', 'b': [1, two, null, {}], \"c\": 'q\"', d: [ ]}"));
+        assertEquals("[\"01\",true]", rewrite("[01, true]"));
+        assertEquals("{\"a\\nb\":1}", rewrite("{'a\\nb': 1}"));
+    }
+
+    @Test
+    public void testDeeplyNested() {
+        StringBuilder record = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            record.append('[');
+        }
+        for (int i = 0; i < 100000; i++) {
+            record.append(']');
+        }
+        JsonTape tape = new JsonTape(0);
+        assertTrue(parse(tape, record.toString()));
+        JsonRecordWriter writer = new JsonRecordWriter();
+        tape.write(0, writer);
+        assertEquals(record.length(), writer.getLength());
+    }
+}
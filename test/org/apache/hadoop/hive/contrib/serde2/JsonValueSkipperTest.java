@@ -0,0 +1,118 @@
+package org.apache.hadoop.hive.contrib.serde2;
+
+import java.util.Random;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+public class JsonValueSkipperTest {
+
+    private final JsonValueSkipper skipper = new JsonValueSkipper();
+
+    private static byte[] utf8(String json) throws Exception {
+        return json.getBytes("UTF-8");
+    }
+
+    /**
+     * The closing quote of a string, found a byte at a time
+     */
+    private static int expectedStringEnd(byte[] bytes, int position, int end) {
+        for (; position < end; position++) {
+            if (bytes[position] == '"') {
+                return position;
+            }
+            if (bytes[position] == '\\') {
+                position++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The end of a container, found a byte at a time.  As for the skipper, a
+     * backslash escapes the next byte even outside strings, where it is not
+     * valid JSON anyway.
+     */
+    private static int expectedContainerEnd(byte[] bytes, int position, int end) {
+        int depth = 0;
+        for (; position < end; position++) {
+            byte b = bytes[position];
+            if (b == '"') {
+                position = expectedStringEnd(bytes, position + 1, end);
+                if (position < 0) {
+                    return -1;
+                }
+            } else if (b == '\\') {
+                position++;
+            } else if (b == '{' || b == '[') {
+                depth++;
+            } else if ((b == '}' || b == ']') && --depth == 0) {
+                return position + 1;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void testMatches() {
+        long word = 0x22005C7B2241225BL;
+        assertEquals(0x8000000080008000L, JsonValueSkipper.matches(word, '"' * 0x0101010101010101L));
+        assertEquals(0x0000800000000000L, JsonValueSkipper.matches(word, '\\' * 0x0101010101010101L));
+        assertEquals(0x0080000000000000L, JsonValueSkipper.matches(word, 0));
+        assertEquals(0L, JsonValueSkipper.matches(0x8080808080808080L, 0));
+    }
+
+    @Test
+    public void testStringEnd() throws Exception {
+        byte[] bytes = utf8("\"short\",\"a string longer than a word\",\"caf\u00e9\"");
+        assertEquals(6, skipper.findStringEnd(bytes, 1, bytes.length));
+        assertFalse(skipper.isEscaped());
+        assertEquals(36, skipper.findStringEnd(bytes, 9, bytes.length));
+        assertEquals(bytes.length - 1, skipper.findStringEnd(bytes, 39, bytes.length));
+        assertEquals(-1, skipper.findStringEnd(bytes, 39, bytes.length - 1));
+    }
+
+    @Test
+    public void testEscapedStringEnd() throws Exception {
+        byte[] bytes = utf8("\"say \\\"hi\\\" to everyone\\\\\",1");
+        assertEquals(bytes.length - 3, skipper.findStringEnd(bytes, 1, bytes.length));
+        assertTrue(skipper.isEscaped());
+
+        // A backslash ending one word escapes the first byte of the next
+        bytes = utf8("\"abcdef\\\"ghijklmno\"");
+        assertEquals(bytes.length - 1, skipper.findStringEnd(bytes, 1, bytes.length));
+        bytes = utf8("\"abcdef\\");
+        assertEquals(-1, skipper.findStringEnd(bytes, 1, bytes.length));
+    }
+
+    @Test
+    public void testContainerEnd() throws Exception {
+        byte[] bytes = utf8("{\"a\":[1,2,{\"b\":\"}]\"}],\"c\":\"\\\"{\"},\"d\":1}");
+        assertEquals(32, skipper.findContainerEnd(bytes, 0, bytes.length));
+        assertEquals(21, skipper.findContainerEnd(bytes, 5, bytes.length));
+        assertEquals(-1, skipper.findContainerEnd(bytes, 0, 20));
+        assertEquals(2, skipper.findContainerEnd(utf8("[]"), 0, 2));
+        assertEquals(-1, skipper.findContainerEnd(utf8("[\"]"), 0, 3));
+    }
+
+    @Test
+    public void testRandomBytes() throws Exception {
+        byte[] alphabet = utf8("\"\\{}[]:,a \u00e9");
+        Random random = new Random(42);
+        for (int n = 0; n < 5000; n++) {
+            byte[] bytes = new byte[1 + random.nextInt(100)];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = alphabet[random.nextInt(alphabet.length)];
+            }
+            int start = random.nextInt(bytes.length);
+            String message = new String(bytes, "UTF-8") + " from " + start;
+            assertEquals(message, expectedStringEnd(bytes, start, bytes.length),
+                skipper.findStringEnd(bytes, start, bytes.length));
+
+            bytes[start] = (byte) (random.nextBoolean() ? '{' : '[');
+            assertEquals(message, expectedContainerEnd(bytes, start, bytes.length),
+                skipper.findContainerEnd(bytes, start, bytes.length));
+        }
+    }
+}